@@ -0,0 +1,265 @@
+package com.furdei.furdroid.components.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Generates a CursorRowBinder for every view holder with fields annotated with BindColumn.
+ * The generated binder resolves the columns once per cursor, finds the views by id once per
+ * view and sets their text from the columns on every row, the same way a hand-written binder
+ * does, without any reflection at runtime.
+ * </p><p>
+ * The processor refers to the library classes by name only, so it doesn't depend on the
+ * Android library itself.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+@SupportedAnnotationTypes(RowBinderProcessor.BIND_COLUMN)
+public class RowBinderProcessor extends AbstractProcessor {
+
+    static final String BIND_COLUMN = "com.furdei.furdroid.components.widget.BindColumn";
+    private static final String ROW_BINDER = "com.furdei.furdroid.components.widget.CursorRowBinder";
+    private static final String TEXT_VIEW = "android.widget.TextView";
+    private static final String SUFFIX = "RowBinder";
+
+    /**
+     * An annotated field of a holder.
+     */
+    private static class Binding {
+        private final VariableElement field;
+        private final String column;
+        private final int viewId;
+
+        Binding(VariableElement field, String column, int viewId) {
+            this.field = field;
+            this.column = column;
+            this.viewId = viewId;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement bindColumn = processingEnv.getElementUtils().getTypeElement(BIND_COLUMN);
+
+        if (bindColumn == null)
+            return false;
+
+        Map<TypeElement, List<Binding>> holders = new LinkedHashMap<TypeElement, List<Binding>>();
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(bindColumn)) {
+            Binding binding = parseBinding(element, bindColumn);
+
+            if (binding == null)
+                continue;
+
+            TypeElement holder = (TypeElement) element.getEnclosingElement();
+            List<Binding> bindings = holders.get(holder);
+
+            if (bindings == null) {
+                bindings = new ArrayList<Binding>();
+                holders.put(holder, bindings);
+            }
+
+            bindings.add(binding);
+        }
+
+        for (Map.Entry<TypeElement, List<Binding>> entry : holders.entrySet()) {
+            if (checkHolder(entry.getKey())) {
+                writeBinder(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return true;
+    }
+
+    private Binding parseBinding(Element element, TypeElement bindColumn) {
+        Messager messager = processingEnv.getMessager();
+
+        if (element.getKind() != ElementKind.FIELD) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@BindColumn is allowed on fields only", element);
+            return null;
+        }
+
+        if (element.getModifiers().contains(Modifier.PRIVATE) || element.getModifiers().contains(Modifier.STATIC)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@BindColumn fields must be neither private nor static",
+                    element);
+            return null;
+        }
+
+        TypeElement textView = processingEnv.getElementUtils().getTypeElement(TEXT_VIEW);
+
+        if (textView == null || !processingEnv.getTypeUtils().isAssignable(element.asType(), textView.asType())) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@BindColumn fields must be TextViews", element);
+            return null;
+        }
+
+        String column = null;
+        int viewId = 0;
+
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(bindColumn))
+                continue;
+
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+                    mirror.getElementValues().entrySet()) {
+                String name = value.getKey().getSimpleName().toString();
+
+                if ("value".equals(name)) {
+                    column = (String) value.getValue().getValue();
+                } else if ("viewId".equals(name)) {
+                    viewId = (Integer) value.getValue().getValue();
+                }
+            }
+        }
+
+        return new Binding((VariableElement) element, column, viewId);
+    }
+
+    private boolean checkHolder(TypeElement holder) {
+        Messager messager = processingEnv.getMessager();
+
+        if (holder.getNestingKind() != NestingKind.TOP_LEVEL
+                && (holder.getNestingKind() != NestingKind.MEMBER || !holder.getModifiers().contains(Modifier.STATIC))) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "View holders must be top-level or static nested classes",
+                    holder);
+            return false;
+        }
+
+        if (holder.getModifiers().contains(Modifier.PRIVATE) || holder.getModifiers().contains(Modifier.ABSTRACT)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "View holders must be neither private nor abstract", holder);
+            return false;
+        }
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(holder.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+
+        messager.printMessage(Diagnostic.Kind.ERROR, "View holders must have a constructor without arguments",
+                holder);
+        return false;
+    }
+
+    private void writeBinder(TypeElement holder, List<Binding> bindings) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(holder);
+        String packageName = packageElement.getQualifiedName().toString();
+        String binderName = getBinderName(holder);
+        String holderName = holder.getQualifiedName().toString();
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageElement.isUnnamed() ? binderName : packageName + "." + binderName, holder);
+            PrintWriter out = new PrintWriter(file.openWriter());
+
+            try {
+                if (!packageElement.isUnnamed()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+
+                out.println("/**");
+                out.println(" * Binds rows to {@link " + holderName + "}. Generated by " +
+                        RowBinderProcessor.class.getSimpleName() + ", don't edit.");
+                out.println(" */");
+                out.println((holder.getModifiers().contains(Modifier.PUBLIC) ? "public " : "") + "final class "
+                        + binderName + " extends " + ROW_BINDER + "<" + holderName + "> {");
+                out.println();
+
+                for (Binding binding : bindings) {
+                    out.println("    private int " + getIndexName(binding) + ";");
+                }
+
+                out.println();
+                out.println("    @Override");
+                out.println("    protected void resolveColumns(android.database.Cursor cursor) {");
+
+                for (Binding binding : bindings) {
+                    out.println("        " + getIndexName(binding) + " = cursor.getColumnIndexOrThrow("
+                            + processingEnv.getElementUtils().getConstantExpression(binding.column) + ");");
+                }
+
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    protected " + holderName + " createHolder(android.view.View view) {");
+                out.println("        " + holderName + " holder = new " + holderName + "();");
+
+                for (Binding binding : bindings) {
+                    TypeMirror type = binding.field.asType();
+                    out.println("        holder." + binding.field.getSimpleName() + " = (" + type
+                            + ") view.findViewById(0x" + Integer.toHexString(binding.viewId) + ");");
+                }
+
+                out.println("        return holder;");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    protected void bind(android.database.Cursor cursor, " + holderName + " holder) {");
+
+                for (Binding binding : bindings) {
+                    out.println("        holder." + binding.field.getSimpleName() + ".setText(cursor.getString("
+                            + getIndexName(binding) + "));");
+                }
+
+                out.println("    }");
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Can't write " + binderName + ": " + e.getMessage(), holder);
+        }
+    }
+
+    /**
+     * @return the simple names of the holder and its enclosing classes joined by underscores,
+     * followed by the suffix
+     */
+    private static String getBinderName(TypeElement holder) {
+        StringBuilder name = new StringBuilder(holder.getSimpleName());
+        Element enclosing = holder.getEnclosingElement();
+
+        while (enclosing.getKind().isClass() || enclosing.getKind().isInterface()) {
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+            enclosing = enclosing.getEnclosingElement();
+        }
+
+        return name.append(SUFFIX).toString();
+    }
+
+    private static String getIndexName(Binding binding) {
+        return binding.field.getSimpleName() + "Index";
+    }
+}
@@ -0,0 +1,33 @@
+package com.furdei.furdroid.components.widget;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory that produces named threads running at background priority.
+ *
+ * @author Stepan Furdey
+ */
+class BackgroundThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    BackgroundThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }
+        }, name + " #" + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
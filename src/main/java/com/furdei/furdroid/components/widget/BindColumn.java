@@ -0,0 +1,44 @@
+package com.furdei.furdroid.components.widget;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Binds a cursor column to a {@link android.widget.TextView TextView} field of a view holder.
+ * The annotation processor of the <code>furdroid-components-processor</code> module generates a
+ * {@link CursorRowBinder} for every holder with annotated fields, named after the holder with the
+ * <code>RowBinder</code> suffix, e.g. <code>ContactHolderRowBinder</code>:
+ * </p>
+ * <pre>
+ * class ContactHolder {
+ *     &#64;BindColumn(value = "name", viewId = R.id.name) TextView name;
+ *     &#64;BindColumn(value = "phone", viewId = R.id.phone) TextView phone;
+ * }
+ *
+ * new RowBinderFullCursorAdapter(context, R.layout.contact, new ContactHolderRowBinder());
+ * </pre>
+ * <p>
+ * The holder must be a top-level or a static nested class with a constructor without arguments,
+ * and the annotated fields must not be private. Nested holders get the names of their enclosing
+ * classes joined by underscores, e.g. <code>Contacts_HolderRowBinder</code>.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface BindColumn {
+
+    /**
+     * @return the name of the column
+     */
+    String value();
+
+    /**
+     * @return the id of the view in the row layout
+     */
+    int viewId();
+}
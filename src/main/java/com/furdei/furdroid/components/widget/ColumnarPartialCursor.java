@@ -0,0 +1,795 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * An in-memory {@link PartialCursor} for data which is fetched from a server and never has to
+ * be persisted. Rows are kept column by column: longs, ints and doubles in primitive arrays,
+ * strings as codes into a per column dictionary, so equal strings are stored once, and nulls in
+ * bitmaps. A string column that turns out to have more than 1024 distinct values drops its
+ * dictionary and keeps plain strings, since codes wouldn't save anything there. Such a layout takes much less heap than a MatrixCursor or a CursorWindow, which keep
+ * a boxed object or a serialized field per value.
+ * </p><p>
+ * Rows are appended either with {@link #newRow()} followed by {@link #commit(boolean)}, or by
+ * copying a page cursor with {@link #appendPage(android.database.Cursor, boolean)}. Appending
+ * takes amortized O(1) per row and returns a new cursor which sees the new rows too, so pass
+ * it to swapCursor of {@link PartialLoadingAdapter}. The cursor shown by the adapter can be read
+ * on the main thread while rows are being appended on a background thread, but rows must be
+ * appended by one thread at a time and only to the most recent cursor.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class ColumnarPartialCursor extends AbstractCursor implements PartialCursor {
+
+    // the column types are shared with MappedPageStore
+    public static final int TYPE_LONG   = MappedPageStore.TYPE_LONG;
+    public static final int TYPE_INT    = MappedPageStore.TYPE_INT;
+    public static final int TYPE_DOUBLE = MappedPageStore.TYPE_DOUBLE;
+    public static final int TYPE_STRING = MappedPageStore.TYPE_STRING;
+    public static final int TYPE_BLOB   = MappedPageStore.TYPE_BLOB;
+
+    private static final int INITIAL_CAPACITY = 16;
+    // a string column with more distinct values than this keeps plain strings instead of codes
+    private static final int MAX_DICTIONARY_SIZE = 1024;
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Writes values of a new row, the columns left unset are null.
+     */
+    public class RowBuilder {
+        private final int row;
+
+        private RowBuilder(int row) {
+            this.row = row;
+        }
+
+        public RowBuilder setLong(int column, long value) {
+            store.columns[column].setLong(row, value);
+            return this;
+        }
+
+        public RowBuilder setInt(int column, int value) {
+            store.columns[column].setLong(row, value);
+            return this;
+        }
+
+        public RowBuilder setDouble(int column, double value) {
+            store.columns[column].setDouble(row, value);
+            return this;
+        }
+
+        public RowBuilder setString(int column, String value) {
+            if (value == null) {
+                store.columns[column].setNull(row);
+            } else {
+                store.columns[column].setString(row, value);
+            }
+            return this;
+        }
+
+        public RowBuilder setBlob(int column, byte[] value) {
+            if (value == null) {
+                store.columns[column].setNull(row);
+            } else {
+                store.columns[column].setBlob(row, value);
+            }
+            return this;
+        }
+
+        public RowBuilder setNull(int column) {
+            store.columns[column].setNull(row);
+            return this;
+        }
+    }
+
+    /**
+     * Rows shared by the cursors created from each other.
+     */
+    private static class Store {
+        private final String[] columnNames;
+        private final Column[] columns;
+        private int capacity;
+        // rows appended so far, including the rows not committed yet
+        private int rowCount;
+        private volatile ColumnarPartialCursor latest;
+
+        Store(String[] columnNames, int[] columnTypes) {
+            this.columnNames = columnNames;
+            this.columns = new Column[columnTypes.length];
+
+            for (int i = 0; i < columnTypes.length; i++) {
+                columns[i] = createColumn(columnTypes[i]);
+            }
+        }
+
+        int appendRow() {
+            if (rowCount == capacity) {
+                capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+
+                for (Column column : columns) {
+                    column.grow(capacity);
+                }
+            }
+
+            int row = rowCount++;
+
+            for (Column column : columns) {
+                column.setNull(row);
+            }
+
+            return row;
+        }
+    }
+
+    private final Store store;
+    private final int count;
+    private boolean partial;
+
+    /**
+     * Creates an empty partial cursor to append rows to.
+     *
+     * @param columnNames names of the columns
+     * @param columnTypes types of the columns, one of TYPE_LONG, TYPE_INT, TYPE_DOUBLE,
+     *                    TYPE_STRING or TYPE_BLOB
+     */
+    public ColumnarPartialCursor(String[] columnNames, int[] columnTypes) {
+        if (columnNames == null)
+            throw new IllegalArgumentException("columnNames == null");
+
+        if (columnTypes == null)
+            throw new IllegalArgumentException("columnTypes == null");
+
+        if (columnNames.length != columnTypes.length)
+            throw new IllegalArgumentException("columnNames.length != columnTypes.length");
+
+        this.store = new Store(columnNames, columnTypes);
+        this.count = 0;
+        this.partial = true;
+        store.latest = this;
+    }
+
+    private ColumnarPartialCursor(Store store, int count, boolean partial) {
+        this.store = store;
+        this.count = count;
+        this.partial = partial;
+        store.latest = this;
+    }
+
+    /**
+     * Appends a new row which becomes visible in the cursor returned by the next
+     * {@link #commit(boolean)}.
+     */
+    public RowBuilder newRow() {
+        checkLatest();
+        return new RowBuilder(store.appendRow());
+    }
+
+    /**
+     * @param morePages <code>true</code> if there is more data to load
+     * @return a new cursor with the rows of this cursor followed by the rows appended with
+     * {@link #newRow()}
+     */
+    public ColumnarPartialCursor commit(boolean morePages) {
+        checkLatest();
+        return new ColumnarPartialCursor(store, store.rowCount, morePages);
+    }
+
+    /**
+     * Copies all rows of the page and commits them. Columns are matched by name, the columns
+     * missing in the page are null. The page is not closed.
+     *
+     * @param page cursor with the rows of the new page
+     * @param morePages <code>true</code> if there is more data to load
+     * @return a new cursor with the rows of this cursor followed by the rows of the page
+     */
+    public ColumnarPartialCursor appendPage(Cursor page, boolean morePages) {
+        if (page == null)
+            throw new IllegalArgumentException("page == null");
+
+        checkLatest();
+        int[] pageColumns = new int[store.columns.length];
+
+        for (int i = 0; i < pageColumns.length; i++) {
+            pageColumns[i] = page.getColumnIndex(store.columnNames[i]);
+        }
+
+        if (page.moveToFirst()) {
+            do {
+                int row = store.appendRow();
+
+                for (int i = 0; i < pageColumns.length; i++) {
+                    int pageColumn = pageColumns[i];
+
+                    if (pageColumn >= 0 && !page.isNull(pageColumn)) {
+                        store.columns[i].copy(row, page, pageColumn);
+                    }
+                }
+            } while (page.moveToNext());
+        }
+
+        return commit(morePages);
+    }
+
+    /**
+     * @return type of the column, one of TYPE_LONG, TYPE_INT, TYPE_DOUBLE, TYPE_STRING or
+     * TYPE_BLOB
+     */
+    public int getColumnType(int column) {
+        return store.columns[column].getColumnType();
+    }
+
+    private void checkLatest() {
+        if (store.latest != this)
+            throw new IllegalStateException("Rows can be appended to the most recent cursor only");
+
+        if (isClosed())
+            throw new IllegalStateException("cursor is closed");
+    }
+
+    @Override
+    public boolean isCursorPartial() {
+        return partial;
+    }
+
+    @Override
+    public void setCursorPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return store.columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        checkPosition();
+        Column c = store.columns[column];
+        return c.isNull(mPos) ? null : c.getString(mPos);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        checkPosition();
+        Column c = store.columns[column];
+        return c.isNull(mPos) ? 0 : c.getLong(mPos);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        checkPosition();
+        Column c = store.columns[column];
+        return c.isNull(mPos) ? 0 : c.getDouble(mPos);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        checkPosition();
+        return store.columns[column].isNull(mPos);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        checkPosition();
+        Column c = store.columns[column];
+        return c.isNull(mPos) ? null : c.getBlob(mPos);
+    }
+
+    @Override
+    public int getType(int column) {
+        checkPosition();
+        Column c = store.columns[column];
+        return c.isNull(mPos) ? FIELD_TYPE_NULL : c.getFieldType();
+    }
+
+    private static Column createColumn(int type) {
+        switch (type) {
+            case TYPE_LONG:
+                return new LongColumn();
+            case TYPE_INT:
+                return new IntColumn();
+            case TYPE_DOUBLE:
+                return new DoubleColumn();
+            case TYPE_STRING:
+                return new StringColumn();
+            case TYPE_BLOB:
+                return new BlobColumn();
+            default:
+                throw new IllegalArgumentException("Unknown column type " + type);
+        }
+    }
+
+    /**
+     * Values of a column. The arrays are replaced with larger copies as rows are appended, so
+     * they are volatile to let readers see the copied values.
+     */
+    private abstract static class Column {
+        private volatile long[] nulls = new long[0];
+
+        final void grow(int capacity) {
+            long[] newNulls = new long[(capacity + 63) >>> 6];
+            System.arraycopy(nulls, 0, newNulls, 0, nulls.length);
+            nulls = newNulls;
+            growValues(capacity);
+        }
+
+        final boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        final void setNull(int row) {
+            nulls[row >>> 6] |= 1L << row;
+            clearValue(row);
+        }
+
+        final void setNotNull(int row) {
+            nulls[row >>> 6] &= ~(1L << row);
+        }
+
+        abstract void growValues(int capacity);
+
+        abstract void clearValue(int row);
+
+        abstract int getColumnType();
+
+        abstract int getFieldType();
+
+        abstract void copy(int row, Cursor page, int pageColumn);
+
+        abstract long getLong(int row);
+
+        abstract double getDouble(int row);
+
+        abstract String getString(int row);
+
+        byte[] getBlob(int row) {
+            try {
+                return getString(row).getBytes(CHARSET);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(CHARSET + " is not supported");
+            }
+        }
+
+        abstract void setLong(int row, long value);
+
+        abstract void setDouble(int row, double value);
+
+        abstract void setString(int row, String value);
+
+        void setBlob(int row, byte[] value) {
+            throw new IllegalArgumentException("Not a blob column");
+        }
+    }
+
+    private static class LongColumn extends Column {
+        private volatile long[] values = new long[0];
+
+        @Override
+        void growValues(int capacity) {
+            long[] newValues = new long[capacity];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+
+        @Override
+        void clearValue(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        int getColumnType() {
+            return TYPE_LONG;
+        }
+
+        @Override
+        int getFieldType() {
+            return FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        void copy(int row, Cursor page, int pageColumn) {
+            setLong(row, page.getLong(pageColumn));
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        String getString(int row) {
+            return Long.toString(values[row]);
+        }
+
+        @Override
+        void setLong(int row, long value) {
+            values[row] = value;
+            setNotNull(row);
+        }
+
+        @Override
+        void setDouble(int row, double value) {
+            setLong(row, (long) value);
+        }
+
+        @Override
+        void setString(int row, String value) {
+            setLong(row, Long.parseLong(value));
+        }
+    }
+
+    private static class IntColumn extends Column {
+        private volatile int[] values = new int[0];
+
+        @Override
+        void growValues(int capacity) {
+            int[] newValues = new int[capacity];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+
+        @Override
+        void clearValue(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        int getColumnType() {
+            return TYPE_INT;
+        }
+
+        @Override
+        int getFieldType() {
+            return FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        void copy(int row, Cursor page, int pageColumn) {
+            setLong(row, page.getInt(pageColumn));
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        String getString(int row) {
+            return Integer.toString(values[row]);
+        }
+
+        @Override
+        void setLong(int row, long value) {
+            values[row] = (int) value;
+            setNotNull(row);
+        }
+
+        @Override
+        void setDouble(int row, double value) {
+            setLong(row, (long) value);
+        }
+
+        @Override
+        void setString(int row, String value) {
+            setLong(row, Integer.parseInt(value));
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        private volatile double[] values = new double[0];
+
+        @Override
+        void growValues(int capacity) {
+            double[] newValues = new double[capacity];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+
+        @Override
+        void clearValue(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        int getColumnType() {
+            return TYPE_DOUBLE;
+        }
+
+        @Override
+        int getFieldType() {
+            return FIELD_TYPE_FLOAT;
+        }
+
+        @Override
+        void copy(int row, Cursor page, int pageColumn) {
+            setDouble(row, page.getDouble(pageColumn));
+        }
+
+        @Override
+        long getLong(int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        String getString(int row) {
+            return Double.toString(values[row]);
+        }
+
+        @Override
+        void setLong(int row, long value) {
+            setDouble(row, value);
+        }
+
+        @Override
+        void setDouble(int row, double value) {
+            values[row] = value;
+            setNotNull(row);
+        }
+
+        @Override
+        void setString(int row, String value) {
+            setDouble(row, Double.parseDouble(value));
+        }
+    }
+
+    /**
+     * Strings are stored as codes into the dictionary of distinct values of the column. Once the
+     * dictionary grows beyond MAX_DICTIONARY_SIZE the column switches to plain strings for good
+     * and the dictionary is freed.
+     */
+    private static class StringColumn extends Column {
+        private volatile int[] codes = new int[0];
+        private volatile String[] dictionary = new String[INITIAL_CAPACITY];
+        private HashMap<String, Integer> dictionaryIndex = new HashMap<String, Integer>();
+        // the values of a column without a dictionary
+        private volatile String[] values;
+
+        @Override
+        void growValues(int capacity) {
+            if (values != null) {
+                String[] newValues = new String[capacity];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+                return;
+            }
+
+            int[] newCodes = new int[capacity];
+            System.arraycopy(codes, 0, newCodes, 0, codes.length);
+            codes = newCodes;
+        }
+
+        @Override
+        void clearValue(int row) {
+            if (values != null) {
+                values[row] = null;
+            } else {
+                codes[row] = 0;
+            }
+        }
+
+        @Override
+        int getColumnType() {
+            return TYPE_STRING;
+        }
+
+        @Override
+        int getFieldType() {
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        void copy(int row, Cursor page, int pageColumn) {
+            setString(row, page.getString(pageColumn));
+        }
+
+        @Override
+        long getLong(int row) {
+            try {
+                return Long.parseLong(getString(row));
+            } catch (NumberFormatException e) {
+                // SQLite converts non-numeric text to 0 as well
+                return 0;
+            }
+        }
+
+        @Override
+        double getDouble(int row) {
+            try {
+                return Double.parseDouble(getString(row));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        String getString(int row) {
+            String[] values = this.values;
+
+            if (values != null)
+                return values[row];
+
+            int[] codes = this.codes;
+            String[] dictionary = this.dictionary;
+
+            // the dictionary has been dropped since values were read
+            if (codes == null || dictionary == null)
+                return this.values[row];
+
+            return dictionary[codes[row]];
+        }
+
+        @Override
+        void setLong(int row, long value) {
+            setString(row, Long.toString(value));
+        }
+
+        @Override
+        void setDouble(int row, double value) {
+            setString(row, Double.toString(value));
+        }
+
+        @Override
+        void setString(int row, String value) {
+            if (values != null) {
+                values[row] = value;
+                setNotNull(row);
+                return;
+            }
+
+            Integer code = dictionaryIndex.get(value);
+
+            if (code == null) {
+                code = dictionaryIndex.size();
+
+                if (code == MAX_DICTIONARY_SIZE) {
+                    dropDictionary();
+                    setString(row, value);
+                    return;
+                }
+
+                if (code == dictionary.length) {
+                    String[] newDictionary = new String[dictionary.length * 2];
+                    System.arraycopy(dictionary, 0, newDictionary, 0, dictionary.length);
+                    newDictionary[code] = value;
+                    dictionary = newDictionary;
+                } else {
+                    dictionary[code] = value;
+                }
+
+                dictionaryIndex.put(value, code);
+            }
+
+            codes[row] = code;
+            setNotNull(row);
+        }
+
+        private void dropDictionary() {
+            int[] codes = this.codes;
+            String[] dictionary = this.dictionary;
+            String[] newValues = new String[codes.length];
+
+            for (int i = 0; i < codes.length; i++) {
+                newValues[i] = dictionary[codes[i]];
+            }
+
+            // readers see the values before the dictionary goes away
+            values = newValues;
+            this.codes = null;
+            this.dictionary = null;
+            dictionaryIndex = null;
+        }
+    }
+
+    private static class BlobColumn extends Column {
+        private volatile byte[][] values = new byte[0][];
+
+        @Override
+        void growValues(int capacity) {
+            byte[][] newValues = new byte[capacity][];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            values = newValues;
+        }
+
+        @Override
+        void clearValue(int row) {
+            values[row] = null;
+        }
+
+        @Override
+        int getColumnType() {
+            return TYPE_BLOB;
+        }
+
+        @Override
+        int getFieldType() {
+            return FIELD_TYPE_BLOB;
+        }
+
+        @Override
+        void copy(int row, Cursor page, int pageColumn) {
+            setBlob(row, page.getBlob(pageColumn));
+        }
+
+        @Override
+        long getLong(int row) {
+            throw new IllegalStateException("Blob column can't be read as a number");
+        }
+
+        @Override
+        double getDouble(int row) {
+            throw new IllegalStateException("Blob column can't be read as a number");
+        }
+
+        @Override
+        String getString(int row) {
+            throw new IllegalStateException("Blob column can't be read as a string");
+        }
+
+        @Override
+        byte[] getBlob(int row) {
+            return values[row];
+        }
+
+        @Override
+        void setLong(int row, long value) {
+            throw new IllegalArgumentException("Not a numeric column");
+        }
+
+        @Override
+        void setDouble(int row, double value) {
+            throw new IllegalArgumentException("Not a numeric column");
+        }
+
+        @Override
+        void setString(int row, String value) {
+            throw new IllegalArgumentException("Not a string column");
+        }
+
+        @Override
+        void setBlob(int row, byte[] value) {
+            values[row] = value;
+            setNotNull(row);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.view.View;
+
+import com.furdei.furdroid.components.R;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * <p>
+ * Binds cursor rows to views without looking anything up by name on every row. Column indexes
+ * are resolved once per cursor in {@link #resolveColumns(android.database.Cursor)}, child views
+ * are found once per view in {@link #createHolder(android.view.View)} and kept in a view
+ * holder, and {@link #bind(android.database.Cursor, Object)} only copies values with typed
+ * getters:
+ * </p>
+ * <pre>
+ * class ContactBinder extends CursorRowBinder&lt;ContactBinder.Holder&gt; {
+ *     static class Holder { TextView name; TextView phone; }
+ *
+ *     private int nameIndex, phoneIndex;
+ *
+ *     protected void resolveColumns(Cursor cursor) {
+ *         nameIndex = cursor.getColumnIndexOrThrow("name");
+ *         phoneIndex = cursor.getColumnIndexOrThrow("phone");
+ *     }
+ *
+ *     protected Holder createHolder(View view) {
+ *         Holder holder = new Holder();
+ *         holder.name = (TextView) view.findViewById(R.id.name);
+ *         holder.phone = (TextView) view.findViewById(R.id.phone);
+ *         return holder;
+ *     }
+ *
+ *     protected void bind(Cursor cursor, Holder holder) {
+ *         holder.name.setText(cursor.getString(nameIndex));
+ *         holder.phone.setText(cursor.getString(phoneIndex));
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Binders plug into {@link RowBinderFullCursorAdapter} and into {@link RowBinderCursorAdapter}
+ * which can be wrapped by {@link PartialLoadingAdapter}, or can be called from any
+ * <code>bindView</code> implementation through {@link #bindView(android.database.Cursor, android.view.View)}.
+ * The view holder is kept as a keyed tag of the view, so the plain tag stays free. Note that
+ * before Android 4.0 keyed tags are kept in a static map which holds the view as long as the
+ * holder references its children.
+ * </p><p>
+ * Instead of writing a binder by hand you can annotate the fields of a view holder with
+ * {@link BindColumn} and let the annotation processor of the
+ * <code>furdroid-components-processor</code> module generate the binder.
+ * </p>
+ *
+ * @param <H> view holder type
+ * @author Stepan Furdey
+ */
+public abstract class CursorRowBinder<H> {
+
+    private WeakReference<Cursor> resolvedCursor;
+
+    /**
+     * Binds the current row of the cursor to the view, resolving column indexes if the cursor
+     * has changed since the previous call and creating a view holder if the view has none yet.
+     *
+     * @param cursor cursor moved to the row
+     * @param view a view created for rows of this binder
+     */
+    @SuppressWarnings("unchecked")
+    public final void bindView(Cursor cursor, View view) {
+        if (resolvedCursor == null || resolvedCursor.get() != cursor) {
+            resolveColumns(cursor);
+            resolvedCursor = new WeakReference<Cursor>(cursor);
+        }
+
+        H holder = (H) view.getTag(R.id.furdroid_row_binder_holder);
+
+        if (holder == null) {
+            holder = createHolder(view);
+            view.setTag(R.id.furdroid_row_binder_holder, holder);
+        }
+
+        bind(cursor, holder);
+    }
+
+    /**
+     * Makes the binder resolve column indexes again on the next row, e.g. after a cursor has
+     * been requeried with a different projection.
+     */
+    public void invalidateColumns() {
+        resolvedCursor = null;
+    }
+
+    /**
+     * Looks up and stores the indexes of the columns to bind. Called once per cursor.
+     */
+    protected abstract void resolveColumns(Cursor cursor);
+
+    /**
+     * Finds the child views to bind and stores them in a new holder. Called once per view.
+     */
+    protected abstract H createHolder(View view);
+
+    /**
+     * Copies values of the current row of the cursor into the views of the holder.
+     */
+    protected abstract void bind(Cursor cursor, H holder);
+}
@@ -0,0 +1,239 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * <p>
+ * An immutable in-memory copy of some columns of a cursor. Numeric columns are kept in
+ * primitive arrays and column indexes of the source cursor are resolved only once, so taking
+ * a snapshot is cheap and the snapshot takes much less memory than a CursorWindow holding
+ * the same rows.
+ * </p><p>
+ * A snapshot is a read-only {@link android.database.Cursor} itself, so it can be bound
+ * the same way as the source cursor. Only the columns declared in the {@link Schema} are
+ * available.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class CursorSnapshot extends AbstractCursor {
+
+    private static final int TYPE_LONG   = 1;
+    private static final int TYPE_DOUBLE = 2;
+    private static final int TYPE_STRING = 3;
+
+    /**
+     * Declares which columns of a cursor should be copied into a snapshot and how they should
+     * be stored.
+     */
+    public static class Schema {
+        private final ArrayList<String> names = new ArrayList<String>();
+        private final ArrayList<Integer> types = new ArrayList<Integer>();
+
+        /**
+         * Declares an integer column. Use it for INTEGER columns read by
+         * <code>getLong</code>, <code>getInt</code> or <code>getShort</code>.
+         */
+        public Schema longColumn(String name) {
+            return addColumn(name, TYPE_LONG);
+        }
+
+        /**
+         * Declares a floating point column. Use it for REAL columns read by
+         * <code>getDouble</code> or <code>getFloat</code>.
+         */
+        public Schema doubleColumn(String name) {
+            return addColumn(name, TYPE_DOUBLE);
+        }
+
+        /**
+         * Declares a text column.
+         */
+        public Schema stringColumn(String name) {
+            return addColumn(name, TYPE_STRING);
+        }
+
+        public boolean hasColumn(String name) {
+            return names.contains(name);
+        }
+
+        private Schema addColumn(String name, int type) {
+            if (name == null)
+                throw new IllegalArgumentException("name == null");
+
+            if (names.contains(name))
+                throw new IllegalArgumentException("Column " + name + " is already declared");
+
+            names.add(name);
+            types.add(type);
+            return this;
+        }
+    }
+
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int count;
+    private final long[][] longValues;
+    private final double[][] doubleValues;
+    private final String[][] stringValues;
+    private final BitSet[] nulls;
+
+    /**
+     * Copies all rows of the cursor. This method moves the cursor and may take a while
+     * for a large cursor, so it is better to call it on a background thread.
+     *
+     * @param cursor source cursor
+     * @param schema columns to copy
+     * @return the snapshot
+     * @throws IllegalArgumentException if a declared column does not exist in the cursor
+     */
+    public static CursorSnapshot create(Cursor cursor, Schema schema) {
+        return new CursorSnapshot(cursor, schema);
+    }
+
+    private CursorSnapshot(Cursor cursor, Schema schema) {
+        int columnCount = schema.names.size();
+        columnNames = schema.names.toArray(new String[columnCount]);
+        columnTypes = new int[columnCount];
+        count = cursor.getCount();
+        longValues = new long[columnCount][];
+        doubleValues = new double[columnCount][];
+        stringValues = new String[columnCount][];
+        nulls = new BitSet[columnCount];
+
+        int[] sourceIndexes = new int[columnCount];
+
+        for (int column = 0; column < columnCount; column++) {
+            sourceIndexes[column] = cursor.getColumnIndexOrThrow(columnNames[column]);
+            columnTypes[column] = schema.types.get(column);
+
+            switch (columnTypes[column]) {
+                case TYPE_LONG:
+                    longValues[column] = new long[count];
+                    nulls[column] = new BitSet(count);
+                    break;
+                case TYPE_DOUBLE:
+                    doubleValues[column] = new double[count];
+                    nulls[column] = new BitSet(count);
+                    break;
+                default:
+                    stringValues[column] = new String[count];
+                    break;
+            }
+        }
+
+        for (int row = 0; row < count && cursor.moveToPosition(row); row++) {
+            for (int column = 0; column < columnCount; column++) {
+                int sourceIndex = sourceIndexes[column];
+
+                switch (columnTypes[column]) {
+                    case TYPE_LONG:
+                        if (cursor.isNull(sourceIndex)) {
+                            nulls[column].set(row);
+                        } else {
+                            longValues[column][row] = cursor.getLong(sourceIndex);
+                        }
+                        break;
+                    case TYPE_DOUBLE:
+                        if (cursor.isNull(sourceIndex)) {
+                            nulls[column].set(row);
+                        } else {
+                            doubleValues[column][row] = cursor.getDouble(sourceIndex);
+                        }
+                        break;
+                    default:
+                        stringValues[column][row] = cursor.getString(sourceIndex);
+                        break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (columnTypes[column]) {
+            case TYPE_LONG:
+                return isNull(column) ? null : Long.toString(longValues[column][mPos]);
+            case TYPE_DOUBLE:
+                return isNull(column) ? null : Double.toString(doubleValues[column][mPos]);
+            default:
+                return stringValues[column][mPos];
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (columnTypes[column]) {
+            case TYPE_LONG:
+                return longValues[column][mPos];
+            case TYPE_DOUBLE:
+                return (long) doubleValues[column][mPos];
+            default:
+                String value = stringValues[column][mPos];
+                return value != null ? Long.parseLong(value) : 0L;
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        switch (columnTypes[column]) {
+            case TYPE_LONG:
+                return longValues[column][mPos];
+            case TYPE_DOUBLE:
+                return doubleValues[column][mPos];
+            default:
+                String value = stringValues[column][mPos];
+                return value != null ? Double.parseDouble(value) : 0.0;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        BitSet columnNulls = nulls[column];
+        return columnNulls != null ? columnNulls.get(mPos) : stringValues[column][mPos] == null;
+    }
+
+    @Override
+    public int getType(int column) {
+        if (isNull(column))
+            return FIELD_TYPE_NULL;
+
+        switch (columnTypes[column]) {
+            case TYPE_LONG:
+                return FIELD_TYPE_INTEGER;
+            case TYPE_DOUBLE:
+                return FIELD_TYPE_FLOAT;
+            default:
+                return FIELD_TYPE_STRING;
+        }
+    }
+}
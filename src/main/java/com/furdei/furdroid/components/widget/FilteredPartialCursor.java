@@ -0,0 +1,163 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * <p>
+ * A filtered result shown by {@link PartialLoadingAdapter} in the filtering mode. It shows
+ * either all rows of a query result or the rows at the given positions of it, when the result
+ * has been narrowed from the result of a shorter constraint.
+ * </p><p>
+ * Several cursors and the cache of the filter share a query result, which is closed when the
+ * last of them releases it. Every access moves the shared cursor while holding its lock, so the
+ * result can be narrowed on a background thread while it is being shown.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+class FilteredPartialCursor extends AbstractCursor implements PartialCursor {
+
+    /**
+     * A query result shared by reference counting.
+     */
+    static class Source {
+        final Cursor cursor;
+        private int references = 1;
+
+        Source(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        synchronized void retain() {
+            ++references;
+        }
+
+        synchronized void release() {
+            if (--references == 0) {
+                cursor.close();
+            }
+        }
+    }
+
+    private final Source source;
+    // positions of the rows in the source cursor or null for all rows
+    private final int[] positions;
+    private boolean partial;
+    private boolean released;
+
+    FilteredPartialCursor(Source source, int[] positions, boolean partial) {
+        this.source = source;
+        this.positions = positions;
+        this.partial = partial;
+        source.retain();
+    }
+
+    @Override
+    public boolean isCursorPartial() {
+        return partial;
+    }
+
+    @Override
+    public void setCursorPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    @Override
+    public int getCount() {
+        return positions != null ? positions.length : source.cursor.getCount();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return source.cursor.getColumnNames();
+    }
+
+    /**
+     * Moves the source cursor to the current row. Must be called holding the source lock.
+     */
+    private Cursor moveSource() {
+        checkPosition();
+        int position = positions != null ? positions[mPos] : mPos;
+        Cursor cursor = source.cursor;
+
+        if (cursor.getPosition() != position) {
+            cursor.moveToPosition(position);
+        }
+
+        return cursor;
+    }
+
+    @Override
+    public String getString(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getString(column);
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getShort(column);
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getInt(column);
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getLong(column);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getFloat(column);
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getDouble(column);
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        synchronized (source.cursor) {
+            return moveSource().isNull(column);
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getBlob(column);
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        synchronized (source.cursor) {
+            return moveSource().getType(column);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        if (!released) {
+            released = true;
+            source.release();
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package com.furdei.furdroid.components.widget;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+import android.support.v4.view.ViewCompat;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
+ * <p>
  * An adapter that produces a view for all the rows in a cursor. Unlike the standard Android
  * {@link android.widget.Adapter}, this implementation creates views for every row in a cursor
  * at once. It is helpful when you are sure that there will always be a few of rows and your app
@@ -13,16 +27,178 @@ import android.view.ViewGroup;
  * do not provide neither scrolling nor view recycling because all views are always visible.
  * However you can include such view into a ScrollView just in case some child views wouldn't fit
  * on some small screens.
+ * </p><p>
+ * By default every {@link #swapCursor(android.database.Cursor)} removes all views and creates
+ * them again. Call {@link #setDiffRebuildEnabled(boolean) setDiffRebuildEnabled(true)} to match
+ * old and new rows by their <code>_id</code> column instead. In this mode views of the rows that
+ * are still present in the new cursor are kept and only rebound, while views are inserted,
+ * moved or removed only for the rows that were actually added, reordered or deleted.
+ * </p><p>
+ * Views detached during a rebuild are kept in a scrap heap split by view type, see
+ * {@link #getItemViewType(android.database.Cursor)} and {@link #getViewTypeCount()}, and handed
+ * back through the <code>convertView</code> argument of
+ * {@link #createView(android.database.Cursor, android.view.View, android.view.ViewGroup)}.
+ * The number of views kept for every type is limited, see {@link #setMaxScrapViews(int, int)}.
+ * </p><p>
+ * Call {@link #setSnapshotEnabled(boolean) setSnapshotEnabled(true)} to read the cursor on a
+ * background thread. In this mode the adapter copies the columns declared by
+ * {@link #onCreateSnapshotSchema(android.database.Cursor)} into an immutable
+ * {@link CursorSnapshot} and binds views to the snapshot, so the CursorWindow is never filled
+ * on the UI thread and the cursor can be closed as soon as the snapshot is taken, see
+ * {@link #setCloseCursorAfterSnapshot(boolean)}.
+ * </p><p>
+ * Call {@link #setIncrementalRebuildEnabled(boolean) setIncrementalRebuildEnabled(true)} to
+ * spread a rebuild of a long cursor over several frames instead of blocking the UI thread.
+ * </p><p>
+ * Call {@link #setAutoRefreshQuery(CursorQuery)} to let the adapter re-query and rebuild itself
+ * whenever the cursor reports a content change, instead of calling
+ * {@link #swapCursor(android.database.Cursor)} manually.
+ * </p><p>
+ * Declare row layouts with {@link #getItemLayout(int)} and call
+ * {@link #setPreInflationEnabled(boolean) setPreInflationEnabled(true)} to inflate them on a
+ * background thread while the data is loading, see {@link #preInflate(int)}. Rows created with
+ * {@link #inflate(int, android.view.ViewGroup)} then take views from a
+ * {@link PreInflatedViewPool} and a layout is inflated on the UI thread only when the pool runs
+ * dry.
+ * </p><p>
+ * Override {@link #getItemContentVersion(android.database.Cursor)} to let views implementing
+ * {@link MeasureCachingFullCursorView} skip measuring rows whose content hasn't changed.
+ * </p><p>
+ * Install an {@link OnRebuildMetricsListener}, e.g. a {@link RebuildMetricsAggregator}, to find
+ * out where the time goes when the target view is rebuilt. Nothing is measured while no
+ * listener is installed.
+ * </p>
  *
  * @author Stepan Furdey
  */
 public abstract class FullCursorAdapter {
 
+    /**
+     * A query that produces a fresh cursor for the auto-refresh mode.
+     */
+    public interface CursorQuery {
+
+        /**
+         * Runs the query again. This method is called on a background thread.
+         *
+         * @return a new cursor or <code>null</code>
+         */
+        Cursor query();
+    }
+
+    /**
+     * Interface definition for a callback to be invoked while the target view is being rebuilt.
+     */
+    public interface OnRebuildProgressListener {
+
+        /**
+         * Callback method to be invoked after every chunk of rows has been built in the
+         * incremental mode and after the whole rebuild has finished.
+         *
+         * @param adapter the adapter rebuilding its target view
+         * @param rowsBuilt number of cursor rows processed so far
+         * @param rowCount total number of rows in the cursor
+         */
+        void onRebuildProgress(FullCursorAdapter adapter, int rowsBuilt, int rowCount);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked with the timings of every rebuild.
+     */
+    public interface OnRebuildMetricsListener {
+
+        /**
+         * Callback method to be invoked on the UI thread after a rebuild has finished and the
+         * target view has been laid out, or right before the next rebuild starts if the target
+         * view has not been laid out by then.
+         *
+         * @param adapter the adapter that rebuilt its target view
+         * @param metrics timings and counters of the rebuild
+         */
+        void onRebuildMetrics(FullCursorAdapter adapter, RebuildMetrics metrics);
+    }
+
+    /**
+     * The content version of a row which content can't be versioned, see
+     * {@link #getItemContentVersion(android.database.Cursor)}.
+     */
+    public static final long UNKNOWN_CONTENT_VERSION = Long.MIN_VALUE;
+
     private static final String ID_COLUMN = "_id";
+    private static final long DEFAULT_FRAME_BUDGET_MILLIS = 4;
+    private static final long DEFAULT_REFRESH_COALESCE_MILLIS = 300;
+
+    private static final int DEFAULT_EXECUTOR_THREADS = 2;
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newFixedThreadPool(DEFAULT_EXECUTOR_THREADS,
+            new BackgroundThreadFactory("FullCursorAdapter"));
 
     private Context context;
+    private Executor executor = DEFAULT_EXECUTOR;
     private Cursor cursor;
+    private CursorSnapshot snapshot;
+    private boolean snapshotEnabled;
+    private boolean closeCursorAfterSnapshot;
+    private volatile int snapshotGeneration;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean incrementalRebuildEnabled;
+    private long frameBudgetMillis = DEFAULT_FRAME_BUDGET_MILLIS;
+    private OnRebuildProgressListener rebuildProgressListener;
+    private Rebuild rebuild;
+    private CursorQuery autoRefreshQuery;
+    private long refreshCoalesceMillis = DEFAULT_REFRESH_COALESCE_MILLIS;
+    private Cursor observedCursor;
+    private boolean refreshScheduled;
+    private boolean refreshInFlight;
+    private boolean refreshPending;
+    private int refreshGeneration;
+
+    private final ContentObserver contentObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleRefresh();
+        }
+    };
+
+    private final Runnable refreshRunnable = new Runnable() {
+        public void run() {
+            refreshScheduled = false;
+            startRefresh();
+        }
+    };
+
     private FullCursorView targetView;
+    private boolean diffRebuildEnabled;
+    private final ArrayList<ChildRecord> children = new ArrayList<ChildRecord>();
+    private final ScrapHeap scrapHeap = new ScrapHeap();
+    private PreInflatedViewPool preInflatedViewPool;
+    private OnRebuildMetricsListener rebuildMetricsListener;
+    // metrics of the last rebuild waiting for the target view to be laid out
+    private RebuildMetrics pendingMetrics;
+    private ViewTreeObserver metricsObserver;
+
+    private final ViewTreeObserver.OnPreDrawListener metricsPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            dispatchPendingMetrics();
+            return true;
+        }
+    };
+
+    private static class ChildRecord {
+        private View view;
+        private long id;
+        private int viewType;
+        private boolean kept;
+        // index among the kept children at the beginning of a diff rebuild
+        private int keptIndex;
+
+        private ChildRecord(View view, long id, int viewType) {
+            this.view = view;
+            this.id = id;
+            this.viewType = viewType;
+        }
+    }
 
     public FullCursorAdapter(Context context) {
         this.context = context;
@@ -33,10 +209,37 @@ public abstract class FullCursorAdapter {
         this.cursor = cursor;
     }
 
+    /**
+     * Swaps the cursor and rebuilds the target view. In the snapshot mode the view is rebuilt
+     * asynchronously as soon as the snapshot of the new cursor is taken. In the auto-refresh mode
+     * the result of a refresh in flight is dropped, so it never replaces the given cursor.
+     *
+     * @return the previous cursor
+     */
     public Cursor swapCursor(Cursor cursor) {
+        if (refreshInFlight || refreshScheduled) {
+            ++refreshGeneration;
+            refreshInFlight = false;
+            refreshPending = false;
+            refreshScheduled = false;
+            handler.removeCallbacks(refreshRunnable);
+        }
+
+        return swapCursorInternal(cursor);
+    }
+
+    private Cursor swapCursorInternal(Cursor cursor) {
         Cursor oldCursor = this.cursor;
         this.cursor = cursor;
-        rebuildView();
+        updateObservedCursor();
+
+        if (snapshotEnabled) {
+            takeSnapshot(cursor);
+        } else {
+            snapshot = null;
+            rebuildView();
+        }
+
         return oldCursor;
     }
 
@@ -44,37 +247,1105 @@ public abstract class FullCursorAdapter {
         return cursor;
     }
 
+    /**
+     * @return the snapshot the views are bound to in the snapshot mode or <code>null</code>
+     */
+    public CursorSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isDiffRebuildEnabled() {
+        return diffRebuildEnabled;
+    }
+
+    /**
+     * Turns the keyed diff rebuild on or off. Rows are matched by the <code>_id</code> column,
+     * so the ids should be unique within a cursor. Only rows with duplicate ids get new views.
+     */
+    public void setDiffRebuildEnabled(boolean diffRebuildEnabled) {
+        this.diffRebuildEnabled = diffRebuildEnabled;
+    }
+
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    /**
+     * Turns the snapshot mode on or off. The mode is applied to the next
+     * {@link #swapCursor(android.database.Cursor)}.
+     */
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+
+    public boolean isCloseCursorAfterSnapshot() {
+        return closeCursorAfterSnapshot;
+    }
+
+    /**
+     * Makes the adapter close the cursor as soon as its snapshot is taken. Don't turn it on if
+     * the cursor is managed by a loader which relies on the cursor to be open to track data
+     * changes. The default value is <code>false</code>.
+     */
+    public void setCloseCursorAfterSnapshot(boolean closeCursorAfterSnapshot) {
+        this.closeCursorAfterSnapshot = closeCursorAfterSnapshot;
+    }
+
+    /**
+     * Returns the columns to copy into a snapshot. This method is called on a background thread.
+     * The default implementation copies <code>_id</code> as a long column and all the other
+     * columns as strings. Override it to copy only the columns you bind and to keep numeric
+     * columns in primitive arrays. The <code>_id</code> column is always added if missing.
+     *
+     * @param cursor the cursor to take a snapshot of
+     * @return columns to copy
+     */
+    protected CursorSnapshot.Schema onCreateSnapshotSchema(Cursor cursor) {
+        CursorSnapshot.Schema schema = new CursorSnapshot.Schema();
+
+        for (String name : cursor.getColumnNames()) {
+            if (!ID_COLUMN.equals(name)) {
+                schema.stringColumn(name);
+            }
+        }
+
+        return schema;
+    }
+
+    public CursorQuery getAutoRefreshQuery() {
+        return autoRefreshQuery;
+    }
+
+    /**
+     * <p>
+     * Turns the auto-refresh mode on or off. In this mode the adapter observes its cursor for
+     * content changes and re-runs the query on a background thread when the cursor reports one.
+     * Notifications arriving within the coalesce window, see
+     * {@link #setRefreshCoalesceMillis(long)}, are merged into a single query and a single
+     * rebuild, and a new query never starts while the previous one is still in flight.
+     * </p><p>
+     * The adapter closes the cursor replaced by a refreshed one. Don't close the cursor right
+     * after a snapshot in this mode, otherwise there is nothing to observe.
+     * </p>
+     *
+     * @param query the query to re-run, or <code>null</code> to turn the mode off
+     */
+    public void setAutoRefreshQuery(CursorQuery query) {
+        autoRefreshQuery = query;
+        ++refreshGeneration;
+        refreshInFlight = false;
+        refreshPending = false;
+        refreshScheduled = false;
+        handler.removeCallbacks(refreshRunnable);
+        updateObservedCursor();
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor snapshots are taken and auto-refresh queries are run on. Pass
+     * <code>null</code> to use the default pool of background priority threads, which is shared
+     * by all the adapters.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : DEFAULT_EXECUTOR;
+    }
+
+    public long getRefreshCoalesceMillis() {
+        return refreshCoalesceMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds the adapter waits after the first change notification
+     * before re-running the query. The default value is 300 ms.
+     */
+    public void setRefreshCoalesceMillis(long refreshCoalesceMillis) {
+        if (refreshCoalesceMillis < 0)
+            throw new IllegalArgumentException("refreshCoalesceMillis < 0");
+
+        this.refreshCoalesceMillis = refreshCoalesceMillis;
+    }
+
+    private void updateObservedCursor() {
+        Cursor cursorToObserve = autoRefreshQuery != null ? cursor : null;
+
+        if (observedCursor == cursorToObserve)
+            return;
+
+        if (observedCursor != null && !observedCursor.isClosed()) {
+            observedCursor.unregisterContentObserver(contentObserver);
+        }
+
+        observedCursor = cursorToObserve;
+
+        if (observedCursor != null) {
+            observedCursor.registerContentObserver(contentObserver);
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (autoRefreshQuery == null)
+            return;
+
+        if (refreshInFlight) {
+            // run once more as soon as the current query is finished
+            refreshPending = true;
+        } else if (!refreshScheduled) {
+            refreshScheduled = true;
+            handler.postDelayed(refreshRunnable, refreshCoalesceMillis);
+        }
+    }
+
+    private void startRefresh() {
+        final CursorQuery query = autoRefreshQuery;
+        final int generation = refreshGeneration;
+
+        if (query == null)
+            return;
+
+        refreshInFlight = true;
+
+        executor.execute(new Runnable() {
+            public void run() {
+                final Cursor newCursor;
+
+                try {
+                    newCursor = query.query();
+
+                    if (newCursor != null) {
+                        // fill the window here rather than on the UI thread
+                        newCursor.getCount();
+                    }
+                } catch (final RuntimeException e) {
+                    handler.post(new Runnable() {
+                        public void run() {
+                            onRefreshFailed(generation, e);
+                        }
+                    });
+                    return;
+                }
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        onRefreshFinished(generation, newCursor);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRefreshFinished(int generation, Cursor newCursor) {
+        if (generation != refreshGeneration) {
+            if (newCursor != null) {
+                newCursor.close();
+            }
+            return;
+        }
+
+        refreshInFlight = false;
+        Cursor oldCursor = swapCursorInternal(newCursor);
+
+        if (oldCursor != null && oldCursor != newCursor) {
+            oldCursor.close();
+        }
+
+        runPendingRefresh();
+    }
+
+    private void onRefreshFailed(int generation, RuntimeException error) {
+        if (generation != refreshGeneration)
+            return;
+
+        refreshInFlight = false;
+        onRefreshFailed(error);
+        runPendingRefresh();
+    }
+
+    private void runPendingRefresh() {
+        if (refreshPending) {
+            refreshPending = false;
+            scheduleRefresh();
+        }
+    }
+
+    /**
+     * Called on the UI thread when the query of the auto-refresh mode throws an exception. The
+     * adapter keeps showing the current cursor and runs the query again on the next change
+     * notification. The default implementation does nothing, override it to report the error.
+     *
+     * @param error the exception thrown by {@link CursorQuery#query()}
+     */
+    protected void onRefreshFailed(RuntimeException error) {
+    }
+
+    public boolean isIncrementalRebuildEnabled() {
+        return incrementalRebuildEnabled;
+    }
+
+    /**
+     * Turns the incremental rebuild on or off. In this mode rows are built in chunks, each
+     * chunk taking no more than the frame budget, see {@link #setFrameBudgetMillis(long)}.
+     * The first chunk is built right away, so the rows at the top come first, and the rest
+     * are built on the next animation frames. {@link FullCursorView#onViewRebuilt()} is called
+     * after the last chunk. A rebuild in progress is cancelled by the next
+     * {@link #swapCursor(android.database.Cursor)}.
+     */
+    public void setIncrementalRebuildEnabled(boolean incrementalRebuildEnabled) {
+        this.incrementalRebuildEnabled = incrementalRebuildEnabled;
+    }
+
+    public long getFrameBudgetMillis() {
+        return frameBudgetMillis;
+    }
+
+    /**
+     * Sets the time in milliseconds the incremental rebuild may spend on a single frame.
+     * At least one row is built per frame anyway. The default value is 4 ms.
+     */
+    public void setFrameBudgetMillis(long frameBudgetMillis) {
+        if (frameBudgetMillis < 0)
+            throw new IllegalArgumentException("frameBudgetMillis < 0");
+
+        this.frameBudgetMillis = frameBudgetMillis;
+    }
+
+    public OnRebuildProgressListener getOnRebuildProgressListener() {
+        return rebuildProgressListener;
+    }
+
+    public void setOnRebuildProgressListener(OnRebuildProgressListener listener) {
+        this.rebuildProgressListener = listener;
+    }
+
+    /**
+     * @return <code>true</code> if an incremental rebuild is still in progress
+     */
+    public boolean isRebuilding() {
+        return rebuild != null;
+    }
+
+    public boolean isPreInflationEnabled() {
+        return preInflatedViewPool != null;
+    }
+
+    /**
+     * Turns the pre-inflation pool on or off. Turning it off throws away all pre-inflated views.
+     */
+    public void setPreInflationEnabled(boolean preInflationEnabled) {
+        if (preInflationEnabled && preInflatedViewPool == null) {
+            preInflatedViewPool = new PreInflatedViewPool(context);
+        } else if (!preInflationEnabled && preInflatedViewPool != null) {
+            preInflatedViewPool.clear();
+            preInflatedViewPool = null;
+        }
+    }
+
+    /**
+     * @return the pool of pre-inflated views with its hit and miss counters, or
+     * <code>null</code> if pre-inflation is off
+     */
+    public PreInflatedViewPool getPreInflatedViewPool() {
+        return preInflatedViewPool;
+    }
+
+    /**
+     * Starts inflating views for the expected number of rows on a background thread. Call it
+     * when you start loading the data, e.g. when a loader is created.
+     * The rows are split evenly between the view types which declare a layout, see
+     * {@link #getItemLayout(int)}. Does nothing if pre-inflation is off.
+     *
+     * @param expectedRowCount the number of rows the next cursor is expected to have
+     */
+    public void preInflate(int expectedRowCount) {
+        int layoutCount = 0;
+
+        for (int viewType = 0; viewType < getViewTypeCount(); viewType++) {
+            if (getItemLayout(viewType) != 0) {
+                ++layoutCount;
+            }
+        }
+
+        if (layoutCount == 0)
+            return;
+
+        int countPerType = (expectedRowCount + layoutCount - 1) / layoutCount;
+
+        for (int viewType = 0; viewType < getViewTypeCount(); viewType++) {
+            preInflate(viewType, countPerType);
+        }
+    }
+
+    /**
+     * Starts inflating views of the given type on a background thread until the pool holds
+     * <code>count</code> of them. Does nothing if pre-inflation is off or the type declares
+     * no layout.
+     */
+    public void preInflate(int viewType, int count) {
+        int layoutResId = getItemLayout(viewType);
+
+        if (preInflatedViewPool == null || layoutResId == 0)
+            return;
+
+        if (targetView == null)
+            throw new IllegalStateException("Target view is not set");
+
+        preInflatedViewPool.preInflate(layoutResId, targetView.getRoot(), count);
+    }
+
+    /**
+     * Returns the layout of the rows of the given view type. Declared layouts can be inflated in
+     * advance, see {@link #setPreInflationEnabled(boolean)}, so implement
+     * {@link #createView(android.database.Cursor, android.view.ViewGroup)} with
+     * {@link #inflate(int, android.view.ViewGroup)} to take views from the pool.
+     * The default implementation returns 0, e.g. no layout is declared.
+     *
+     * @param viewType view type, see {@link #getItemViewType(android.database.Cursor)}
+     * @return a layout resource id or 0
+     */
+    public int getItemLayout(int viewType) {
+        return 0;
+    }
+
+    /**
+     * Returns a new view of the given layout. The view is taken from the pre-inflation pool if
+     * pre-inflation is on, otherwise it is inflated right away.
+     *
+     * @param layoutResId layout to inflate
+     * @param root parent view used to generate layout params
+     * @return a view that is not attached to the parent
+     */
+    protected View inflate(int layoutResId, ViewGroup root) {
+        if (preInflatedViewPool != null)
+            return preInflatedViewPool.obtain(layoutResId, root);
+
+        return LayoutInflater.from(context).inflate(layoutResId, root, false);
+    }
+
+    public OnRebuildMetricsListener getOnRebuildMetricsListener() {
+        return rebuildMetricsListener;
+    }
+
+    /**
+     * Installs a listener to be notified with the timings of every rebuild, or removes it if
+     * <code>null</code> is passed.
+     */
+    public void setOnRebuildMetricsListener(OnRebuildMetricsListener listener) {
+        this.rebuildMetricsListener = listener;
+
+        if (listener == null) {
+            cancelPendingMetrics();
+        }
+    }
+
+    /**
+     * Called by the target view before its measure or layout pass.
+     *
+     * @return a timestamp to pass to {@link #endLayoutTiming(long)} or 0 if nothing is measured
+     */
+    long beginLayoutTiming() {
+        return pendingMetrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Called by the target view after its measure or layout pass.
+     */
+    void endLayoutTiming(long startNanos) {
+        if (startNanos != 0 && pendingMetrics != null) {
+            pendingMetrics.layoutNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    private void postMetrics(RebuildMetrics metrics) {
+        cancelPendingMetrics();
+        pendingMetrics = metrics;
+        metricsObserver = targetView.getRoot().getViewTreeObserver();
+        metricsObserver.addOnPreDrawListener(metricsPreDrawListener);
+    }
+
+    private void dispatchPendingMetrics() {
+        RebuildMetrics metrics = pendingMetrics;
+        cancelPendingMetrics();
+
+        if (metrics != null && rebuildMetricsListener != null) {
+            rebuildMetricsListener.onRebuildMetrics(this, metrics);
+        }
+    }
+
+    private void cancelPendingMetrics() {
+        pendingMetrics = null;
+
+        if (metricsObserver != null) {
+            if (metricsObserver.isAlive()) {
+                metricsObserver.removeOnPreDrawListener(metricsPreDrawListener);
+            } else if (targetView != null) {
+                targetView.getRoot().getViewTreeObserver().removeOnPreDrawListener(metricsPreDrawListener);
+            }
+
+            metricsObserver = null;
+        }
+    }
+
+    private void takeSnapshot(final Cursor cursor) {
+        final int generation = ++snapshotGeneration;
+
+        if (cursor == null) {
+            snapshot = null;
+            rebuildView();
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                if (generation != snapshotGeneration)
+                    return;
+
+                final CursorSnapshot newSnapshot;
+
+                try {
+                    CursorSnapshot.Schema schema = onCreateSnapshotSchema(cursor);
+
+                    if (!schema.hasColumn(ID_COLUMN)) {
+                        schema.longColumn(ID_COLUMN);
+                    }
+
+                    newSnapshot = CursorSnapshot.create(cursor, schema);
+                } catch (final RuntimeException e) {
+                    handler.post(new Runnable() {
+                        public void run() {
+                            onSnapshotFailed(generation, e);
+                        }
+                    });
+                    return;
+                }
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        onSnapshotTaken(generation, cursor, newSnapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSnapshotTaken(int generation, Cursor cursor, CursorSnapshot newSnapshot) {
+        if (generation != snapshotGeneration)
+            return;
+
+        snapshot = newSnapshot;
+
+        if (closeCursorAfterSnapshot) {
+            cursor.close();
+        }
+
+        rebuildView();
+    }
+
+    private void onSnapshotFailed(int generation, RuntimeException error) {
+        // the cursor may have been swapped out and closed while we were reading it
+        if (generation != snapshotGeneration)
+            return;
+
+        onSnapshotFailed(error);
+    }
+
+    /**
+     * Called on the UI thread when a snapshot can't be taken, e.g. when the schema returned by
+     * {@link #onCreateSnapshotSchema(android.database.Cursor)} reads a blob column as a string.
+     * The target view keeps showing the previous snapshot, and the cursor is left open. The
+     * default implementation does nothing, override it to report the error.
+     *
+     * @param error the exception thrown while taking the snapshot
+     */
+    protected void onSnapshotFailed(RuntimeException error) {
+    }
+
     private void rebuildView() {
-        targetView.removeAllViews();
+        if (rebuild != null) {
+            rebuild.cancel();
+            rebuild = null;
+        }
+
+        // report the previous rebuild even if the target view has not been laid out since then
+        dispatchPendingMetrics();
+
+        if (targetView instanceof VirtualFullCursorView && ((VirtualFullCursorView) targetView).isVirtual()) {
+            // the target view asks for its views on demand
+            children.clear();
+            targetView.onViewRebuilt();
+            return;
+        }
+
+        if (targetView == null)
+            throw new IllegalStateException("Target view is not set");
+
+        // only a materialized view can keep and move single views
+        rebuild = new Rebuild(targetView, getRows(),
+                diffRebuildEnabled && targetView instanceof MaterializedFullCursorView);
+        rebuild.begin();
+
+        if (incrementalRebuildEnabled) {
+            rebuild.run();
+        } else {
+            rebuild.buildAll();
+        }
+    }
+
+    /**
+     * A single rebuild of the target view. Rows are built one by one, so a rebuild can be
+     * spread over several frames.
+     */
+    private class Rebuild implements Runnable {
+        private final FullCursorView targetView;
+        // the target view if it is materialized, otherwise null
+        private final MaterializedFullCursorView materializedView;
+        private final Cursor cursor;
+        private final boolean diff;
+        private final int count;
+        private final int idIndex;
+        private ChildRecord[] matches;
+        private int[] viewTypes;
+        // Fenwick tree over the kept children counting the ones that are not in place yet
+        private int[] unplaced;
+        private int position;
+        // children with index less than childIndex are already in place
+        private int childIndex;
+        private boolean cancelled;
+        // views of the full rebuild are attached in batches, see flushBatch()
+        private View[] batchViews;
+        private int[] batchPositions;
+        private long[] batchIds;
+        private int batchCount;
+        // null unless a metrics listener is installed
+        private final RebuildMetrics metrics;
+        private final long startNanos;
+
+        private Rebuild(FullCursorView targetView, Cursor cursor, boolean diff) {
+            this.targetView = targetView;
+            this.materializedView = targetView instanceof MaterializedFullCursorView ?
+                    (MaterializedFullCursorView) targetView : null;
+            this.cursor = cursor;
+            this.diff = diff;
+            this.count = cursor != null ? cursor.getCount() : 0;
+            this.idIndex = cursor != null ? cursor.getColumnIndex(ID_COLUMN) : -1;
+            this.metrics = rebuildMetricsListener != null ? new RebuildMetrics(diff) : null;
+            this.startNanos = metrics != null ? System.nanoTime() : 0;
+
+            if (metrics != null) {
+                metrics.rowCount = count;
+            }
+        }
+
+        private void begin() {
+            if (diff) {
+                beginDiff();
+            } else {
+                for (ChildRecord child : children) {
+                    scrapHeap.addScrapView(child.view, child.viewType);
+                }
+
+                long time = metrics != null ? System.nanoTime() : 0;
+                targetView.removeAllViews();
+
+                if (metrics != null) {
+                    metrics.addAddViewTime(time);
+                }
+
+                children.clear();
+                batchViews = new View[count];
+                batchPositions = new int[count];
+                batchIds = new long[count];
+            }
+        }
+
+        private void beginDiff() {
+            LongSparseArray<ChildRecord> oldChildren = new LongSparseArray<ChildRecord>(children.size());
+
+            for (ChildRecord child : children) {
+                child.kept = false;
+
+                if (oldChildren.get(child.id) == null) {
+                    oldChildren.put(child.id, child);
+                }
+            }
+
+            matches = new ChildRecord[count];
+            viewTypes = new int[count];
+            long time = metrics != null ? System.nanoTime() : 0;
+
+            // match new rows against the existing children first
+            for (int position = 0; position < count && cursor.moveToPosition(position); position++) {
+                long id = cursor.getLong(idIndex);
+                ChildRecord child = oldChildren.get(id);
+                viewTypes[position] = getItemViewType(cursor);
+
+                if (child != null && child.viewType == viewTypes[position]) {
+                    oldChildren.remove(id);
+                    child.kept = true;
+                    matches[position] = child;
+                }
+            }
+
+            if (metrics != null) {
+                time = metrics.addTraversalTime(time);
+            }
+
+            // drop children which are not present in the new cursor, so their views can be reused
+            for (int i = children.size() - 1; i >= 0; --i) {
+                ChildRecord child = children.get(i);
+
+                if (!child.kept) {
+                    materializedView.removeViewAt(i);
+                    children.remove(i);
+                    scrapHeap.addScrapView(child.view, child.viewType);
+                }
+            }
+
+            int keptCount = children.size();
+            unplaced = new int[keptCount + 1];
+
+            for (int i = 1; i <= keptCount; i++) {
+                children.get(i - 1).keptIndex = i - 1;
+                unplaced[i] += 1;
+                int parent = i + (i & -i);
+
+                if (parent <= keptCount) {
+                    unplaced[parent] += unplaced[i];
+                }
+            }
+
+            if (metrics != null) {
+                metrics.addAddViewTime(time);
+            }
+        }
+
+        /**
+         * Marks the kept child as being put in place and returns its current index. Children in
+         * place are followed by the kept children not in place yet in their original order, so
+         * the current index is the number of children in place plus the number of children not
+         * in place which were in front of it.
+         */
+        private int placeKeptChild(ChildRecord child) {
+            int index = childIndex;
+
+            for (int i = child.keptIndex; i > 0; i -= i & -i) {
+                index += unplaced[i];
+            }
+
+            for (int i = child.keptIndex + 1; i < unplaced.length; i += i & -i) {
+                --unplaced[i];
+            }
+
+            return index;
+        }
+
+        private void buildAll() {
+            while (position < count) {
+                buildRow();
+            }
+
+            flushBatch();
+            finish();
+        }
+
+        private void buildRow() {
+            long time = metrics != null ? System.nanoTime() : 0;
+            int position = this.position++;
+
+            if (!cursor.moveToPosition(position))
+                return;
+
+            long id = cursor.getLong(idIndex);
+            ChildRecord child = diff ? matches[position] : null;
+
+            if (child != null) {
+                int currentIndex = placeKeptChild(child);
+
+                if (metrics != null) {
+                    time = metrics.addTraversalTime(time);
+                    ++metrics.viewsKept;
+                }
+
+                if (currentIndex != childIndex) {
+                    materializedView.moveView(currentIndex, childIndex);
+                    children.remove(currentIndex);
+                    children.add(childIndex, child);
+                }
+
+                if (metrics != null) {
+                    time = metrics.addAddViewTime(time);
+                }
+
+                bindRow(cursor, child.view, id);
+
+                if (metrics != null) {
+                    time = metrics.addBindViewTime(time);
+                }
+
+                materializedView.updateView(childIndex, position, id);
+
+                if (metrics != null) {
+                    metrics.addAddViewTime(time);
+                }
+
+                ++childIndex;
+            } else {
+                int viewType = diff ? viewTypes[position] : getItemViewType(cursor);
+
+                if (metrics != null) {
+                    time = metrics.addTraversalTime(time);
+                }
 
-        if (cursor != null) {
-            int idIndex = cursor.getColumnIndex(ID_COLUMN);
+                View view = obtainView(cursor, viewType, metrics);
 
-            for(boolean cursorRowExists = cursor.moveToFirst(); cursorRowExists; cursorRowExists = cursor.moveToNext()) {
-                View view = createView(cursor, targetView.getRoot());
+                if (metrics != null) {
+                    time = metrics.addCreateViewTime(time);
+                }
 
                 if (view != null) {
-                    bindView(cursor, view);
-                    targetView.addView(view, cursor.getPosition(), cursor.getLong(idIndex));
+                    bindRow(cursor, view, id);
+
+                    if (metrics != null) {
+                        time = metrics.addBindViewTime(time);
+                    }
+
+                    if (diff) {
+                        materializedView.insertView(view, childIndex, position, id);
+
+                        if (metrics != null) {
+                            metrics.addAddViewTime(time);
+                        }
+                    } else {
+                        batchViews[batchCount] = view;
+                        batchPositions[batchCount] = position;
+                        batchIds[batchCount] = id;
+                        ++batchCount;
+                    }
+
+                    children.add(childIndex, new ChildRecord(view, id, viewType));
+                    ++childIndex;
                 }
             }
         }
 
-        targetView.onViewRebuilt();
+        /**
+         * Builds as many rows as fit into the frame budget and schedules the rest for
+         * the next frame.
+         */
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+
+            long deadline = SystemClock.uptimeMillis() + frameBudgetMillis;
+
+            // always build at least one row per frame to make progress
+            while (position < count) {
+                buildRow();
+
+                if (SystemClock.uptimeMillis() >= deadline)
+                    break;
+            }
+
+            flushBatch();
+
+            if (position < count) {
+                if (rebuildProgressListener != null) {
+                    rebuildProgressListener.onRebuildProgress(FullCursorAdapter.this, position, count);
+                }
+
+                ViewCompat.postOnAnimation(targetView.getRoot(), this);
+            } else {
+                finish();
+            }
+        }
+
+        /**
+         * Attaches the views built since the previous flush with a single layout pass.
+         */
+        private void flushBatch() {
+            if (batchCount > 0) {
+                long time = metrics != null ? System.nanoTime() : 0;
+                if (materializedView != null) {
+                    materializedView.addViews(batchViews, batchPositions, batchIds, batchCount);
+                } else {
+                    for (int i = 0; i < batchCount; i++) {
+                        targetView.addView(batchViews[i], batchPositions[i], batchIds[i]);
+                    }
+                }
+
+                if (metrics != null) {
+                    metrics.addAddViewTime(time);
+                }
+
+                Arrays.fill(batchViews, 0, batchCount, null);
+                batchCount = 0;
+            }
+        }
+
+        private void finish() {
+            rebuild = null;
+            targetView.onViewRebuilt();
+
+            if (metrics != null) {
+                metrics.totalNanos = System.nanoTime() - startNanos;
+                postMetrics(metrics);
+            }
+
+            if (rebuildProgressListener != null) {
+                rebuildProgressListener.onRebuildProgress(FullCursorAdapter.this, count, count);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            targetView.getRoot().removeCallbacks(this);
+        }
+    }
+
+    private void bindRow(Cursor cursor, View view, long id) {
+        bindView(cursor, view);
+
+        if (targetView instanceof MeasureCachingFullCursorView) {
+            ((MeasureCachingFullCursorView) targetView).setItemContentVersion(view, id, getItemContentVersion(cursor));
+        }
+    }
+
+    /**
+     * Returns the version of the content of the current row of the cursor, e.g. a modification
+     * timestamp or a hash of the bound columns. Views implementing
+     * {@link MeasureCachingFullCursorView} don't measure a row again while its version stays the
+     * same. The default implementation returns {@link #UNKNOWN_CONTENT_VERSION}, so rows are
+     * measured every time.
+     *
+     * @param cursor cursor moved to the row
+     * @return the content version of the row
+     */
+    public long getItemContentVersion(Cursor cursor) {
+        return UNKNOWN_CONTENT_VERSION;
+    }
+
+    /**
+     * Makes the target view measure the row with the given id again, e.g. when its size has
+     * changed without a change of its content version.
+     */
+    public void invalidateItemMeasurement(long id) {
+        if (targetView instanceof MeasureCachingFullCursorView) {
+            ((MeasureCachingFullCursorView) targetView).invalidateMeasureCache(id);
+        }
+    }
+
+    /**
+     * Makes the target view measure all rows again.
+     */
+    public void invalidateItemMeasurements() {
+        if (targetView instanceof MeasureCachingFullCursorView) {
+            ((MeasureCachingFullCursorView) targetView).invalidateMeasureCache();
+        }
+    }
+
+    private Cursor getRows() {
+        return snapshot != null ? snapshot : cursor;
+    }
+
+    /**
+     * @return the number of rows views are bound to
+     */
+    public int getCount() {
+        Cursor rows = getRows();
+        return rows != null ? rows.getCount() : 0;
+    }
+
+    /**
+     * @return the <code>_id</code> of the row at the given position
+     */
+    public long getItemId(int position) {
+        Cursor rows = moveToPosition(position);
+        return rows.getLong(rows.getColumnIndex(ID_COLUMN));
+    }
+
+    /**
+     * @return the view type of the row at the given position
+     * @see #getItemViewType(android.database.Cursor)
+     */
+    public int getItemViewType(int position) {
+        return getItemViewType(moveToPosition(position));
+    }
+
+    /**
+     * Creates or reuses a view for the row at the given position and binds it. This method is
+     * used by {@link VirtualFullCursorView} implementations which create their views on demand.
+     *
+     * @param position position of the row
+     * @param convertView a detached view of the same type to reuse, or <code>null</code>
+     * @param root parent view
+     * @return a bound view, or <code>null</code> if the row should not be shown
+     */
+    public View getView(int position, View convertView, ViewGroup root) {
+        Cursor rows = moveToPosition(position);
+        View view = createView(rows, convertView, root);
+
+        if (view != null) {
+            bindView(rows, view);
+        }
+
+        return view;
+    }
+
+    /**
+     * Creates or reuses a row renderer for the row at the given position. This method is used
+     * by {@link FullCursorListView} in the flat mode.
+     *
+     * @param position position of the row
+     * @param factory factory of the renderers set up by the list
+     * @param convertRenderer a renderer of a previous row to reuse, or <code>null</code>
+     * @return a renderer for the row, or <code>null</code> if the row should not be shown
+     */
+    public FullCursorRowRenderer getRowRenderer(int position, FullCursorRowRenderer.Factory factory,
+                                                FullCursorRowRenderer convertRenderer) {
+        if (factory == null)
+            throw new IllegalArgumentException("factory == null");
+
+        return factory.createRowRenderer(moveToPosition(position), convertRenderer);
+    }
+
+    private Cursor moveToPosition(int position) {
+        Cursor rows = getRows();
+
+        if (rows == null || !rows.moveToPosition(position))
+            throw new IllegalStateException("couldn't move cursor to position " + position);
+
+        return rows;
+    }
+
+    private View obtainView(Cursor cursor, int viewType, RebuildMetrics metrics) {
+        View convertView = scrapHeap.getScrapView(viewType);
+        View view = createView(cursor, convertView, targetView.getRoot());
+
+        if (convertView != null && view != convertView) {
+            // the recycled view has been refused, keep it for the next rows
+            scrapHeap.addScrapView(convertView, viewType);
+        }
+
+        if (metrics != null && view != null) {
+            if (view == convertView) {
+                ++metrics.viewsRecycled;
+            } else {
+                ++metrics.viewsCreated;
+            }
+        }
+
+        return view;
+    }
+
+    /**
+     * Returns the view type of the current row of the cursor. Views are recycled only
+     * between the rows of the same type. The default implementation returns 0, e.g. all rows
+     * share the same type.
+     *
+     * @param cursor cursor moved to the row
+     * @return an integer between 0 and {@link #getViewTypeCount()} - 1, or
+     * {@link android.widget.Adapter#IGNORE_ITEM_VIEW_TYPE} if the view should not be recycled
+     */
+    public int getItemViewType(Cursor cursor) {
+        return 0;
+    }
+
+    /**
+     * Returns the number of view types that {@link #getItemViewType(android.database.Cursor)}
+     * can return. The default implementation returns 1.
+     */
+    public int getViewTypeCount() {
+        return 1;
+    }
+
+    /**
+     * Returns the maximum number of detached views of the given type kept for reuse.
+     */
+    public int getMaxScrapViews(int viewType) {
+        return scrapHeap.getMaxScrapViews(viewType);
+    }
+
+    /**
+     * Sets the maximum number of detached views of the given type kept for reuse. Set it to 0
+     * to turn recycling off for this view type.
+     */
+    public void setMaxScrapViews(int viewType, int maxScrapViews) {
+        scrapHeap.setMaxScrapViews(viewType, maxScrapViews);
+    }
+
+    /**
+     * Sets the maximum number of detached views kept for reuse for every view type that has no
+     * limit of its own. The default value is 10.
+     */
+    public void setDefaultMaxScrapViews(int maxScrapViews) {
+        scrapHeap.setDefaultMaxScrapViews(maxScrapViews);
+    }
+
+    /**
+     * Throws away all detached views kept for reuse.
+     */
+    public void clearScrapViews() {
+        scrapHeap.clear();
     }
 
     public FullCursorView getTargetView() {
         return targetView;
     }
 
+    /**
+     * Sets the view to show the rows in. Usually called by the view itself, see
+     * {@link FullCursorView#setAdapter(FullCursorAdapter)}.
+     *
+     * @param targetView the view, a plain FullCursorView is rebuilt by removing all its views
+     *                   and adding them again, see {@link MaterializedFullCursorView}
+     */
     public void setTargetView(FullCursorView targetView) {
+        if (rebuild != null) {
+            rebuild.cancel();
+            rebuild = null;
+        }
+
+        cancelPendingMetrics();
+
         this.targetView = targetView;
+        children.clear();
+        scrapHeap.clear();
+
+        if (preInflatedViewPool != null) {
+            // pre-inflated views have layout params generated by the previous target view
+            preInflatedViewPool.clear();
+        }
     }
 
     public Context getContext() {
         return context;
     }
 
+    /**
+     * Returns a view for the current row of the cursor, reusing a detached view of the same
+     * type if there is one. Override this method to make use of <code>convertView</code>.
+     * The default implementation ignores <code>convertView</code> and calls
+     * {@link #createView(android.database.Cursor, android.view.ViewGroup)}.
+     *
+     * @param cursor cursor moved to the row
+     * @param convertView a detached view of the same type to reuse, or <code>null</code>
+     * @param root parent view
+     * @return a view to bind the row to, or <code>null</code> to skip the row
+     */
+    protected View createView(Cursor cursor, View convertView, ViewGroup root) {
+        return createView(cursor, root);
+    }
+
+    /**
+     * Returns a new view for the current row of the cursor. Call
+     * {@link #inflate(int, android.view.ViewGroup)} here to make use of pre-inflated views.
+     *
+     * @param cursor cursor moved to the row
+     * @param root parent view
+     * @return a view to bind the row to, or <code>null</code> to skip the row
+     */
     protected abstract View createView(Cursor cursor, ViewGroup root);
 
     protected abstract void bindView(Cursor cursor, View view);
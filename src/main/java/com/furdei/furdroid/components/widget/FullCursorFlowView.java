@@ -0,0 +1,268 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * <p>
+ * A view that displays a full cursor, e.g. all rows in a cursor, as a flow: children are
+ * placed from left to right and wrapped to the next line when there is no room left, like words
+ * in a paragraph. Every child is measured only once per measure pass and is not measured again
+ * as long as the available width stays the same and the child doesn't request a layout.
+ * </p><p>
+ * Like {@link FullCursorListView}, this implementation creates views for every row in a cursor
+ * at once, so it is helpful when you are sure that there will always be a few of rows.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class FullCursorFlowView extends ViewGroup implements MaterializedFullCursorView {
+
+    private FullCursorViewHelper helper;
+    private int horizontalSpacing;
+    private int verticalSpacing;
+
+    // the width spec the children have been measured with last time, -1 before the first pass
+    // since 0 is a valid spec: UNSPECIFIED of size 0
+    private int lastChildWidthSpec = -1;
+    // top of every line and the index of the first child in it, filled by onMeasure
+    private int[] lineTops = new int[0];
+    private int[] lineStarts = new int[0];
+    private int lineCount;
+
+    public FullCursorFlowView(Context context) {
+        super(context);
+        init();
+    }
+
+    public FullCursorFlowView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public FullCursorFlowView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        helper = new FullCursorViewHelper(this, new FullCursorViewHelper.ViewGroupAccess() {
+            @Override
+            public ViewGroup.LayoutParams generateDefaultLayoutParams() {
+                return FullCursorFlowView.this.generateDefaultLayoutParams();
+            }
+
+            @Override
+            public void addViewInLayout(View child, ViewGroup.LayoutParams params) {
+                FullCursorFlowView.this.addViewInLayout(child, -1, params, true);
+            }
+
+            @Override
+            public void detachViewFromParent(int index) {
+                FullCursorFlowView.this.detachViewFromParent(index);
+            }
+
+            @Override
+            public void attachViewToParent(View child, int index, ViewGroup.LayoutParams params) {
+                FullCursorFlowView.this.attachViewToParent(child, index, params);
+            }
+        });
+    }
+
+    public int getHorizontalSpacing() {
+        return horizontalSpacing;
+    }
+
+    public void setHorizontalSpacing(int horizontalSpacing) {
+        this.horizontalSpacing = horizontalSpacing;
+        requestLayout();
+    }
+
+    public int getVerticalSpacing() {
+        return verticalSpacing;
+    }
+
+    public void setVerticalSpacing(int verticalSpacing) {
+        this.verticalSpacing = verticalSpacing;
+        requestLayout();
+    }
+
+    @Override
+    public ViewGroup getRoot() {
+        return this;
+    }
+
+    @Override
+    public void setAdapter(FullCursorAdapter adapter) {
+        helper.setAdapter(adapter);
+    }
+
+    @Override
+    public void addView(View child, int position, long id) {
+        helper.addView(child, position, id);
+    }
+
+    @Override
+    public void addViews(View[] views, int[] positions, long[] ids, int count) {
+        helper.addViews(views, positions, ids, count);
+    }
+
+    @Override
+    public void insertView(View child, int index, int position, long id) {
+        helper.insertView(child, index, position, id);
+    }
+
+    @Override
+    public void moveView(int fromIndex, int toIndex) {
+        helper.moveView(fromIndex, toIndex);
+    }
+
+    @Override
+    public void removeViewAt(int index) {
+        helper.removeViewAt(index);
+    }
+
+    @Override
+    public void removeView(View view) {
+        helper.removeView(view);
+    }
+
+    @Override
+    public void removeAllViews() {
+        helper.removeAllViews();
+    }
+
+    @Override
+    public void updateView(int index, int position, long id) {
+        helper.setItem(index, position, id);
+    }
+
+    @Override
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        helper.setOnItemClickListener(listener);
+    }
+
+    @Override
+    public OnItemClickListener getOnItemClickListener() {
+        return helper.getOnItemClickListener();
+    }
+
+    @Override
+    public View getEmptyView() {
+        return helper.getEmptyView();
+    }
+
+    @Override
+    public void setEmptyView(View view) {
+        helper.setEmptyView(view);
+    }
+
+    @Override
+    public void onViewRebuilt() {
+        helper.updateEmptyViewVisibility();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long startNanos = helper.beginLayoutTiming();
+        measureContent(widthMeasureSpec, heightMeasureSpec);
+        helper.endLayoutTiming(startNanos);
+    }
+
+    private void measureContent(int widthMeasureSpec, int heightMeasureSpec) {
+        int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int maxLineWidth = widthMode == MeasureSpec.UNSPECIFIED ? Integer.MAX_VALUE :
+                Math.max(MeasureSpec.getSize(widthMeasureSpec) - horizontalPadding, 0);
+        int childWidthSpec = widthMode == MeasureSpec.UNSPECIFIED ?
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED) :
+                MeasureSpec.makeMeasureSpec(maxLineWidth, MeasureSpec.AT_MOST);
+        boolean specChanged = childWidthSpec != lastChildWidthSpec;
+        lastChildWidthSpec = childWidthSpec;
+
+        int count = getChildCount();
+
+        if (lineTops.length < count + 1) {
+            lineTops = new int[count + 1];
+            lineStarts = new int[count + 1];
+        }
+
+        lineCount = 0;
+        int lineWidth = 0;
+        int lineHeight = 0;
+        int top = 0;
+        int width = 0;
+
+        for (int i = 0; i < count; i++) {
+            View child = getChildAt(i);
+
+            if (child.getVisibility() == GONE)
+                continue;
+
+            if (specChanged || child.isLayoutRequested()) {
+                LayoutParams params = child.getLayoutParams();
+                child.measure(getChildMeasureSpec(childWidthSpec, 0, params.width),
+                        getChildMeasureSpec(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED), 0, params.height));
+            }
+
+            int childWidth = child.getMeasuredWidth();
+
+            if (lineCount == 0 || (lineWidth > 0 && lineWidth + horizontalSpacing + childWidth > maxLineWidth)) {
+                // start a new line
+                if (lineCount > 0) {
+                    top += lineHeight + verticalSpacing;
+                }
+
+                lineTops[lineCount] = top;
+                lineStarts[lineCount] = i;
+                ++lineCount;
+                lineWidth = childWidth;
+                lineHeight = child.getMeasuredHeight();
+            } else {
+                lineWidth += horizontalSpacing + childWidth;
+                lineHeight = Math.max(lineHeight, child.getMeasuredHeight());
+            }
+
+            width = Math.max(width, lineWidth);
+        }
+
+        int height = lineCount > 0 ? top + lineHeight : 0;
+        lineStarts[lineCount] = count;
+
+        setMeasuredDimension(
+                resolveSize(Math.max(width + horizontalPadding, getSuggestedMinimumWidth()), widthMeasureSpec),
+                resolveSize(Math.max(height + getPaddingTop() + getPaddingBottom(), getSuggestedMinimumHeight()),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        long startNanos = helper.beginLayoutTiming();
+        layoutContent();
+        helper.endLayoutTiming(startNanos);
+    }
+
+    private void layoutContent() {
+        for (int line = 0; line < lineCount; line++) {
+            int left = getPaddingLeft();
+            int top = getPaddingTop() + lineTops[line];
+
+            for (int i = lineStarts[line]; i < lineStarts[line + 1]; i++) {
+                View child = getChildAt(i);
+
+                if (child.getVisibility() == GONE)
+                    continue;
+
+                child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+                left += child.getMeasuredWidth() + horizontalSpacing;
+            }
+        }
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+}
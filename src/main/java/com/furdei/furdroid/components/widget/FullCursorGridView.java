@@ -0,0 +1,309 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * <p>
+ * A view that displays a full cursor, e.g. all rows in a cursor, in a grid. Unlike nested
+ * LinearLayouts with weights, this implementation measures every child only once: all cells
+ * get the same width, either a fixed one or the available width divided by the number of
+ * columns, and either the same fixed height or the height of the tallest cell. Children are
+ * not measured again as long as the cell specs stay the same and they don't request a layout.
+ * </p><p>
+ * Like {@link FullCursorListView}, this implementation creates views for every row in a cursor
+ * at once, so it is helpful when you are sure that there will always be a few of rows.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class FullCursorGridView extends ViewGroup implements MaterializedFullCursorView {
+
+    private static final int DEFAULT_NUM_COLUMNS = 2;
+
+    private FullCursorViewHelper helper;
+    private int numColumns = DEFAULT_NUM_COLUMNS;
+    private int cellWidth;
+    private int cellHeight;
+    private int horizontalSpacing;
+    private int verticalSpacing;
+
+    // the specs the children have been measured with last time, -1 before the first pass since
+    // 0 is a valid spec: UNSPECIFIED of size 0
+    private int lastCellWidthSpec = -1;
+    private int lastCellHeightSpec = -1;
+    // actual cell size after the last measure pass
+    private int actualCellWidth;
+    private int actualCellHeight;
+
+    public FullCursorGridView(Context context) {
+        super(context);
+        init();
+    }
+
+    public FullCursorGridView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public FullCursorGridView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        helper = new FullCursorViewHelper(this, new FullCursorViewHelper.ViewGroupAccess() {
+            @Override
+            public ViewGroup.LayoutParams generateDefaultLayoutParams() {
+                return FullCursorGridView.this.generateDefaultLayoutParams();
+            }
+
+            @Override
+            public void addViewInLayout(View child, ViewGroup.LayoutParams params) {
+                FullCursorGridView.this.addViewInLayout(child, -1, params, true);
+            }
+
+            @Override
+            public void detachViewFromParent(int index) {
+                FullCursorGridView.this.detachViewFromParent(index);
+            }
+
+            @Override
+            public void attachViewToParent(View child, int index, ViewGroup.LayoutParams params) {
+                FullCursorGridView.this.attachViewToParent(child, index, params);
+            }
+        });
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    public void setNumColumns(int numColumns) {
+        if (numColumns < 1)
+            throw new IllegalArgumentException("numColumns < 1");
+
+        this.numColumns = numColumns;
+        requestLayout();
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    /**
+     * Sets a fixed cell width in pixels. The default value is 0 which means that the available
+     * width is divided equally between the columns.
+     */
+    public void setCellWidth(int cellWidth) {
+        if (cellWidth < 0)
+            throw new IllegalArgumentException("cellWidth < 0");
+
+        this.cellWidth = cellWidth;
+        requestLayout();
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+
+    /**
+     * Sets a fixed cell height in pixels. The default value is 0 which means that all cells get
+     * the height of the tallest cell.
+     */
+    public void setCellHeight(int cellHeight) {
+        if (cellHeight < 0)
+            throw new IllegalArgumentException("cellHeight < 0");
+
+        this.cellHeight = cellHeight;
+        requestLayout();
+    }
+
+    public int getHorizontalSpacing() {
+        return horizontalSpacing;
+    }
+
+    public void setHorizontalSpacing(int horizontalSpacing) {
+        this.horizontalSpacing = horizontalSpacing;
+        requestLayout();
+    }
+
+    public int getVerticalSpacing() {
+        return verticalSpacing;
+    }
+
+    public void setVerticalSpacing(int verticalSpacing) {
+        this.verticalSpacing = verticalSpacing;
+        requestLayout();
+    }
+
+    @Override
+    public ViewGroup getRoot() {
+        return this;
+    }
+
+    @Override
+    public void setAdapter(FullCursorAdapter adapter) {
+        helper.setAdapter(adapter);
+    }
+
+    @Override
+    public void addView(View child, int position, long id) {
+        helper.addView(child, position, id);
+    }
+
+    @Override
+    public void addViews(View[] views, int[] positions, long[] ids, int count) {
+        helper.addViews(views, positions, ids, count);
+    }
+
+    @Override
+    public void insertView(View child, int index, int position, long id) {
+        helper.insertView(child, index, position, id);
+    }
+
+    @Override
+    public void moveView(int fromIndex, int toIndex) {
+        helper.moveView(fromIndex, toIndex);
+    }
+
+    @Override
+    public void removeViewAt(int index) {
+        helper.removeViewAt(index);
+    }
+
+    @Override
+    public void removeView(View view) {
+        helper.removeView(view);
+    }
+
+    @Override
+    public void removeAllViews() {
+        helper.removeAllViews();
+    }
+
+    @Override
+    public void updateView(int index, int position, long id) {
+        helper.setItem(index, position, id);
+    }
+
+    @Override
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        helper.setOnItemClickListener(listener);
+    }
+
+    @Override
+    public OnItemClickListener getOnItemClickListener() {
+        return helper.getOnItemClickListener();
+    }
+
+    @Override
+    public View getEmptyView() {
+        return helper.getEmptyView();
+    }
+
+    @Override
+    public void setEmptyView(View view) {
+        helper.setEmptyView(view);
+    }
+
+    @Override
+    public void onViewRebuilt() {
+        helper.updateEmptyViewVisibility();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long startNanos = helper.beginLayoutTiming();
+        measureContent(widthMeasureSpec, heightMeasureSpec);
+        helper.endLayoutTiming(startNanos);
+    }
+
+    private void measureContent(int widthMeasureSpec, int heightMeasureSpec) {
+        int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int cellWidth = this.cellWidth;
+
+        if (cellWidth == 0) {
+            int available = MeasureSpec.getSize(widthMeasureSpec) - horizontalPadding
+                    - horizontalSpacing * (numColumns - 1);
+            cellWidth = widthMode == MeasureSpec.UNSPECIFIED ? 0 : Math.max(available / numColumns, 0);
+        }
+
+        int cellWidthSpec = cellWidth > 0 ?
+                MeasureSpec.makeMeasureSpec(cellWidth, MeasureSpec.EXACTLY) :
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        int cellHeightSpec = cellHeight > 0 ?
+                MeasureSpec.makeMeasureSpec(cellHeight, MeasureSpec.EXACTLY) :
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        boolean specsChanged = cellWidthSpec != lastCellWidthSpec || cellHeightSpec != lastCellHeightSpec;
+        lastCellWidthSpec = cellWidthSpec;
+        lastCellHeightSpec = cellHeightSpec;
+
+        int maxChildWidth = 0;
+        int maxChildHeight = 0;
+        int count = getChildCount();
+        int visibleCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            View child = getChildAt(i);
+
+            if (child.getVisibility() == GONE)
+                continue;
+
+            if (specsChanged || child.isLayoutRequested()) {
+                child.measure(cellWidthSpec, cellHeightSpec);
+            }
+
+            maxChildWidth = Math.max(maxChildWidth, child.getMeasuredWidth());
+            maxChildHeight = Math.max(maxChildHeight, child.getMeasuredHeight());
+            ++visibleCount;
+        }
+
+        actualCellWidth = cellWidth > 0 ? cellWidth : maxChildWidth;
+        actualCellHeight = cellHeight > 0 ? cellHeight : maxChildHeight;
+
+        int rows = (visibleCount + numColumns - 1) / numColumns;
+        int columns = Math.min(visibleCount, numColumns);
+        int width = columns > 0 ? columns * actualCellWidth + (columns - 1) * horizontalSpacing : 0;
+        int height = rows > 0 ? rows * actualCellHeight + (rows - 1) * verticalSpacing : 0;
+
+        setMeasuredDimension(
+                resolveSize(Math.max(width + horizontalPadding, getSuggestedMinimumWidth()), widthMeasureSpec),
+                resolveSize(Math.max(height + getPaddingTop() + getPaddingBottom(), getSuggestedMinimumHeight()),
+                        heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        long startNanos = helper.beginLayoutTiming();
+        layoutContent();
+        helper.endLayoutTiming(startNanos);
+    }
+
+    private void layoutContent() {
+        int count = getChildCount();
+        int cell = 0;
+
+        for (int i = 0; i < count; i++) {
+            View child = getChildAt(i);
+
+            if (child.getVisibility() == GONE)
+                continue;
+
+            int column = cell % numColumns;
+            int row = cell / numColumns;
+            int left = getPaddingLeft() + column * (actualCellWidth + horizontalSpacing);
+            int top = getPaddingTop() + row * (actualCellHeight + verticalSpacing);
+            child.layout(left, top, left + child.getMeasuredWidth(), top + child.getMeasuredHeight());
+            ++cell;
+        }
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+    }
+}
@@ -1,33 +1,70 @@
 package com.furdei.furdroid.components.widget;
 
 import android.content.Context;
+import android.graphics.Canvas;
+import android.support.v4.util.LongSparseArray;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
+import java.util.ArrayList;
+
 /**
+ * <p>
  * A view that displays a full cursor, e.g. all rows in a cursor.
  * This implementation displays all items in a plain list.
  * The list can be either horizontal or vertical. Unlike the standard Android
  * {@link android.widget.ListView ListView}, this implementation creates views for every row in
  * a cursor at once. It is helpful when you are sure that there will always be a few of rows and
  * your app will not run out of memory because of creating too many views.
+ * </p><p>
+ * For read-only rows such as labels, badges and icons you can turn the flat mode on by passing a
+ * {@link FullCursorRowRenderer.Factory} to
+ * {@link #setRowRendererFactory(FullCursorRowRenderer.Factory)}. In this mode the factory
+ * produces a lightweight {@link FullCursorRowRenderer} for every row instead of a view and the
+ * list draws all rows itself. Clicks are dispatched by hit-testing the row bounds and
+ * the clicked view passed to the {@link OnItemClickListener} is the list itself.
+ * The flat mode supports the vertical orientation only.
+ * </p><p>
+ * The list caches the measured size of its rows by row id and content version, see
+ * {@link FullCursorAdapter#getItemContentVersion(android.database.Cursor)}. A row whose view,
+ * bound data and measure specs haven't changed since the previous measure pass is not measured
+ * again. Call {@link FullCursorAdapter#invalidateItemMeasurement(long)} when a row changes its
+ * size without changing its content version.
+ * </p>
  *
  * @author Stepan Furdey
  */
-public class FullCursorListView extends LinearLayout implements FullCursorView {
+public class FullCursorListView extends LinearLayout
+        implements MaterializedFullCursorView, VirtualFullCursorView, MeasureCachingFullCursorView {
+
+    private FullCursorViewHelper helper;
 
-    private static final int ITEM_TAG = FullCursorListView.class.getCanonicalName().hashCode();
+    private FullCursorRowRenderer.Factory rowRendererFactory;
+    private boolean flatModeEnabled;
+    private final ArrayList<FullCursorRowRenderer> rowRenderers = new ArrayList<FullCursorRowRenderer>();
+    private long[] rowIds = new long[0];
+    private int[] rowPositions = new int[0];
+    // rowTops[i] is the top of the i-th row, rowTops[rowCount] is the total height
+    private int[] rowTops = new int[1];
+    private int rowWidth;
+    private int pressedRow = -1;
 
-    private FullCursorAdapter adapter;
-    private OnClickListener clickListener;
-    private OnItemClickListener itemClickListener;
-    private View emptyView;
+    private final LongSparseArray<MeasureCacheEntry> measureCache = new LongSparseArray<MeasureCacheEntry>();
+    // index of the child LinearLayout is expected to measure next, saves a lookup by indexOfChild
+    private int nextMeasureIndex;
 
-    private static class ItemTag {
-        private int position;
-        private long id;
+    private static class MeasureCacheEntry {
+        private View view;
+        private long version;
+        private boolean measured;
+        private int widthMeasureSpec;
+        private int heightMeasureSpec;
+        private int measuredWidth;
+        private int measuredHeight;
     }
 
     public FullCursorListView(Context context) {
@@ -46,16 +83,56 @@ public class FullCursorListView extends LinearLayout implements FullCursorView {
     }
 
     private void init() {
-        clickListener = new OnClickListener() {
+        helper = new FullCursorViewHelper(this, new FullCursorViewHelper.ViewGroupAccess() {
             @Override
-            public void onClick(View v) {
-                if (itemClickListener != null) {
-                    ItemTag itemTag = (ItemTag) v.getTag(ITEM_TAG);
-                    itemClickListener.onItemClick(FullCursorListView.this, v,
-                            itemTag.position, itemTag.id);
-                }
+            public ViewGroup.LayoutParams generateDefaultLayoutParams() {
+                return FullCursorListView.this.generateDefaultLayoutParams();
+            }
+
+            @Override
+            public void addViewInLayout(View child, ViewGroup.LayoutParams params) {
+                FullCursorListView.this.addViewInLayout(child, -1, params, true);
+            }
+
+            @Override
+            public void detachViewFromParent(int index) {
+                FullCursorListView.this.detachViewFromParent(index);
             }
-        };
+
+            @Override
+            public void attachViewToParent(View child, int index, ViewGroup.LayoutParams params) {
+                FullCursorListView.this.attachViewToParent(child, index, params);
+            }
+        });
+    }
+
+    public boolean isFlatModeEnabled() {
+        return flatModeEnabled;
+    }
+
+    public FullCursorRowRenderer.Factory getRowRendererFactory() {
+        return rowRendererFactory;
+    }
+
+    /**
+     * Turns the flat mode on with the given factory of row renderers, or off when the factory is
+     * <code>null</code>. An adapter drawing its rows itself can implement the factory too. The
+     * mode is applied to the next rebuild of the list, so it is better to set it up before the
+     * adapter gets its cursor.
+     */
+    public void setRowRendererFactory(FullCursorRowRenderer.Factory rowRendererFactory) {
+        this.rowRendererFactory = rowRendererFactory;
+        flatModeEnabled = rowRendererFactory != null;
+        setWillNotDraw(!flatModeEnabled);
+
+        if (!flatModeEnabled) {
+            rowRenderers.clear();
+        }
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return flatModeEnabled;
     }
 
     @Override
@@ -65,49 +142,351 @@ public class FullCursorListView extends LinearLayout implements FullCursorView {
 
     @Override
     public void setAdapter(FullCursorAdapter adapter) {
-        this.adapter = adapter;
-        adapter.setTargetView(this);
+        helper.setAdapter(adapter);
     }
 
     @Override
     public void addView(View child, int position, long id) {
-        super.addView(child);
-        ItemTag itemTag = new ItemTag();
-        itemTag.position = position;
-        itemTag.id = id;
-        child.setTag(ITEM_TAG, itemTag);
-        child.setOnClickListener(clickListener);
+        helper.addView(child, position, id);
+    }
+
+    @Override
+    public void addViews(View[] views, int[] positions, long[] ids, int count) {
+        helper.addViews(views, positions, ids, count);
+    }
+
+    @Override
+    public void insertView(View child, int index, int position, long id) {
+        helper.insertView(child, index, position, id);
+    }
+
+    @Override
+    public void moveView(int fromIndex, int toIndex) {
+        helper.moveView(fromIndex, toIndex);
+    }
+
+    @Override
+    public void removeViewAt(int index) {
+        helper.removeViewAt(index);
+    }
+
+    @Override
+    public void removeView(View view) {
+        helper.removeView(view);
+    }
+
+    @Override
+    public void removeAllViews() {
+        helper.removeAllViews();
+    }
+
+    @Override
+    public void updateView(int index, int position, long id) {
+        helper.setItem(index, position, id);
+    }
+
+    @Override
+    public void setItemContentVersion(View child, long id, long version) {
+        if (version == FullCursorAdapter.UNKNOWN_CONTENT_VERSION) {
+            measureCache.remove(id);
+            return;
+        }
+
+        MeasureCacheEntry entry = measureCache.get(id);
+
+        if (entry == null) {
+            entry = new MeasureCacheEntry();
+            measureCache.put(id, entry);
+        } else if (entry.view == child && entry.version == version) {
+            return;
+        }
+
+        entry.view = child;
+        entry.version = version;
+        entry.measured = false;
+    }
+
+    @Override
+    public void invalidateMeasureCache(long id) {
+        MeasureCacheEntry entry = measureCache.get(id);
+
+        if (entry != null) {
+            entry.measured = false;
+            requestLayout();
+        }
+    }
+
+    @Override
+    public void invalidateMeasureCache() {
+        for (int i = 0; i < measureCache.size(); i++) {
+            measureCache.valueAt(i).measured = false;
+        }
+
+        requestLayout();
     }
 
     @Override
     public void setOnItemClickListener(OnItemClickListener listener) {
-        itemClickListener = listener;
+        helper.setOnItemClickListener(listener);
     }
 
     @Override
     public OnItemClickListener getOnItemClickListener() {
-        return itemClickListener;
+        return helper.getOnItemClickListener();
     }
 
     @Override
     public View getEmptyView() {
-        return emptyView;
+        return helper.getEmptyView();
     }
 
     @Override
     public void setEmptyView(View view) {
-        emptyView = view;
+        helper.setEmptyView(view);
         updateEmptyViewVisibility();
     }
 
     @Override
     public void onViewRebuilt() {
+        if (flatModeEnabled) {
+            rebuildRows();
+        }
+
+        pruneMeasureCache();
         updateEmptyViewVisibility();
     }
 
+    /**
+     * Drops cache entries of the rows which are not displayed anymore.
+     */
+    private void pruneMeasureCache() {
+        for (int i = measureCache.size() - 1; i >= 0; --i) {
+            if (measureCache.valueAt(i).view.getParent() != this) {
+                measureCache.removeAt(i);
+            }
+        }
+    }
+
     private void updateEmptyViewVisibility() {
-        if (emptyView != null) {
-            emptyView.setVisibility(adapter == null || getChildCount() == 0 ? VISIBLE : GONE);
+        if (flatModeEnabled) {
+            helper.updateEmptyViewVisibility(rowRenderers.size());
+        } else {
+            helper.updateEmptyViewVisibility();
+        }
+    }
+
+    private void rebuildRows() {
+        removeAllViews();
+
+        FullCursorAdapter adapter = helper.getAdapter();
+        int count = adapter != null ? adapter.getCount() : 0;
+        ArrayList<FullCursorRowRenderer> oldRenderers = new ArrayList<FullCursorRowRenderer>(rowRenderers);
+        rowRenderers.clear();
+
+        if (rowIds.length < count) {
+            rowIds = new long[count];
+            rowPositions = new int[count];
+        }
+
+        for (int position = 0; position < count; position++) {
+            FullCursorRowRenderer convertRenderer = position < oldRenderers.size() ? oldRenderers.get(position) : null;
+            FullCursorRowRenderer renderer = adapter.getRowRenderer(position, rowRendererFactory, convertRenderer);
+
+            if (renderer != null) {
+                rowIds[rowRenderers.size()] = adapter.getItemId(position);
+                rowPositions[rowRenderers.size()] = position;
+                rowRenderers.add(renderer);
+            }
+        }
+
+        rowTops = new int[rowRenderers.size() + 1];
+        pressedRow = -1;
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (!flatModeEnabled) {
+            long startNanos = helper.beginLayoutTiming();
+            nextMeasureIndex = 0;
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            helper.endLayoutTiming(startNanos);
+            return;
         }
+
+        int width = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED ?
+                getSuggestedMinimumWidth() : MeasureSpec.getSize(widthMeasureSpec);
+        rowWidth = Math.max(width - getPaddingLeft() - getPaddingRight(), 0);
+
+        int count = rowRenderers.size();
+
+        for (int i = 0; i < count; i++) {
+            rowTops[i + 1] = rowTops[i] + rowRenderers.get(i).measure(rowWidth);
+        }
+
+        int height = rowTops[count] + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        long startNanos = helper.beginLayoutTiming();
+        super.onLayout(changed, l, t, r, b);
+        helper.endLayoutTiming(startNanos);
+    }
+
+    @Override
+    protected void measureChildWithMargins(View child, int parentWidthMeasureSpec, int widthUsed,
+                                           int parentHeightMeasureSpec, int heightUsed) {
+        MeasureCacheEntry entry = findMeasureCacheEntry(child);
+
+        if (entry == null) {
+            super.measureChildWithMargins(child, parentWidthMeasureSpec, widthUsed, parentHeightMeasureSpec, heightUsed);
+            return;
+        }
+
+        MarginLayoutParams params = (MarginLayoutParams) child.getLayoutParams();
+        int childWidthMeasureSpec = getChildMeasureSpec(parentWidthMeasureSpec,
+                getPaddingLeft() + getPaddingRight() + params.leftMargin + params.rightMargin + widthUsed,
+                params.width);
+        int childHeightMeasureSpec = getChildMeasureSpec(parentHeightMeasureSpec,
+                getPaddingTop() + getPaddingBottom() + params.topMargin + params.bottomMargin + heightUsed,
+                params.height);
+
+        if (entry.measured
+                && !child.isLayoutRequested()
+                && isSameConstraint(entry.widthMeasureSpec, childWidthMeasureSpec, entry.measuredWidth)
+                && isSameConstraint(entry.heightMeasureSpec, childHeightMeasureSpec, entry.measuredHeight)
+                && entry.measuredWidth == child.getMeasuredWidth()
+                && entry.measuredHeight == child.getMeasuredHeight()) {
+            // same view, same content, same constraints: the previous size is still valid
+            return;
+        }
+
+        child.measure(childWidthMeasureSpec, childHeightMeasureSpec);
+        entry.measured = true;
+        entry.widthMeasureSpec = childWidthMeasureSpec;
+        entry.heightMeasureSpec = childHeightMeasureSpec;
+        entry.measuredWidth = child.getMeasuredWidth();
+        entry.measuredHeight = child.getMeasuredHeight();
+    }
+
+    /**
+     * LinearLayout passes the size of the rows before a child as widthUsed or heightUsed, and
+     * below API 23 an UNSPECIFIED spec carries the remaining size as a hint. So an insertion at
+     * the top changes the spec of every row below even though the rows are not constrained.
+     * Only a bound that the row actually hits makes it measure again.
+     */
+    private static boolean isSameConstraint(int cachedMeasureSpec, int measureSpec, int measuredSize) {
+        if (cachedMeasureSpec == measureSpec)
+            return true;
+
+        int mode = MeasureSpec.getMode(measureSpec);
+
+        if (mode != MeasureSpec.getMode(cachedMeasureSpec))
+            return false;
+
+        if (mode == MeasureSpec.UNSPECIFIED)
+            return true;
+
+        // the row didn't reach the previous bound and fits into the new one
+        return mode == MeasureSpec.AT_MOST
+                && measuredSize < MeasureSpec.getSize(cachedMeasureSpec)
+                && measuredSize <= MeasureSpec.getSize(measureSpec);
+    }
+
+    private MeasureCacheEntry findMeasureCacheEntry(View child) {
+        if (measureCache.size() == 0)
+            return null;
+
+        int index = nextMeasureIndex < getChildCount() && getChildAt(nextMeasureIndex) == child ?
+                nextMeasureIndex : indexOfChild(child);
+        nextMeasureIndex = index + 1;
+
+        if (index < 0 || index >= helper.getItemCount())
+            return null;
+
+        MeasureCacheEntry entry = measureCache.get(helper.getItemId(index));
+        return entry != null && entry.view == child ? entry : null;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (!flatModeEnabled)
+            return;
+
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+
+        for (int i = 0; i < rowRenderers.size(); i++) {
+            int rowTop = top + rowTops[i];
+            int rowBottom = top + rowTops[i + 1];
+
+            if (canvas.quickReject(left, rowTop, left + rowWidth, rowBottom, Canvas.EdgeType.BW))
+                continue;
+
+            int saveCount = canvas.save();
+            canvas.translate(left, rowTop);
+            rowRenderers.get(i).draw(canvas, rowWidth, rowBottom - rowTop);
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!flatModeEnabled || getOnItemClickListener() == null)
+            return super.onTouchEvent(event);
+
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                pressedRow = findRow((int) event.getY());
+                return pressedRow >= 0 || super.onTouchEvent(event);
+
+            case MotionEvent.ACTION_UP:
+                int row = pressedRow;
+                pressedRow = -1;
+
+                if (row >= 0 && findRow((int) event.getY()) == row) {
+                    playSoundEffect(SoundEffectConstants.CLICK);
+                    getOnItemClickListener().onItemClick(this, this, rowPositions[row], rowIds[row]);
+                    return true;
+                }
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                pressedRow = -1;
+                break;
+        }
+
+        return super.onTouchEvent(event);
+    }
+
+    /**
+     * @return index of the row at the given vertical coordinate or -1
+     */
+    private int findRow(int y) {
+        int rowY = y - getPaddingTop();
+        int count = rowRenderers.size();
+
+        if (count == 0 || rowY < 0 || rowY >= rowTops[count])
+            return -1;
+
+        int low = 0;
+        int high = count - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (rowTops[middle] <= rowY) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
     }
 }
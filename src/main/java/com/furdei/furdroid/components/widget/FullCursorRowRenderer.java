@@ -0,0 +1,49 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.graphics.Canvas;
+
+/**
+ * A lightweight replacement of a row view for read-only rows. Renderers are drawn by
+ * {@link FullCursorListView} itself in the flat mode, so a row costs neither a view subtree nor
+ * its measure and layout passes.
+ *
+ * @author Stepan Furdey
+ */
+public interface FullCursorRowRenderer {
+
+    /**
+     * Produces row renderers for {@link FullCursorListView} in the flat mode, see
+     * {@link FullCursorListView#setRowRendererFactory(Factory)}.
+     */
+    interface Factory {
+
+        /**
+         * Returns a renderer for the current row of the cursor.
+         *
+         * @param cursor cursor moved to the row
+         * @param convertRenderer a renderer of a previous row to reuse, or <code>null</code>.
+         *                        Check its type before reusing it.
+         * @return a renderer for the row, or <code>null</code> if the row should not be shown
+         */
+        FullCursorRowRenderer createRowRenderer(Cursor cursor, FullCursorRowRenderer convertRenderer);
+    }
+
+    /**
+     * Measures the row. This method is called on every measure pass of the list, so cache
+     * whatever is expensive to compute, e.g. text layouts.
+     *
+     * @param width the width of the row in pixels
+     * @return the height of the row in pixels
+     */
+    int measure(int width);
+
+    /**
+     * Draws the row. The canvas is translated so that the top left corner of the row is at (0, 0).
+     *
+     * @param canvas canvas to draw into
+     * @param width the width of the row in pixels
+     * @param height the height of the row returned by {@link #measure(int)}
+     */
+    void draw(Canvas canvas, int width, int height);
+}
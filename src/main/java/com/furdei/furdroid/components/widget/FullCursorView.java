@@ -4,7 +4,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 /**
- * A view that displays a full cursor, e.g. all rows in a cursor.
+ * A view that displays a full cursor, e.g. all rows in a cursor. The adapter rebuilds a plain
+ * FullCursorView by removing all its views and adding them again. Implement
+ * {@link MaterializedFullCursorView} to let the adapter keep, move and batch child views, or
+ * {@link VirtualFullCursorView} to build the content on demand.
  *
  * @author Stepan Furdey
  */
@@ -0,0 +1,292 @@
+package com.furdei.furdroid.components.widget;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Item positions and ids, click handling, empty view handling and the child operations of
+ * {@link MaterializedFullCursorView} shared by {@link FullCursorView} implementations. Positions
+ * and ids are stored in parallel primitive arrays indexed by child index, so neither storing them
+ * nor looking them up on click allocates anything.
+ *
+ * @author Stepan Furdey
+ */
+class FullCursorViewHelper {
+
+    /**
+     * The protected methods of a view the helper needs to manage its children. Views implement
+     * it with an anonymous class that only calls the methods of the same names, so that the
+     * methods don't become part of their public API.
+     */
+    interface ViewGroupAccess {
+        /**
+         * See ViewGroup.generateDefaultLayoutParams().
+         */
+        ViewGroup.LayoutParams generateDefaultLayoutParams();
+
+        /**
+         * Adds a child after the last one without requesting a layout, see
+         * ViewGroup.addViewInLayout(). It converts the params the view doesn't accept.
+         */
+        void addViewInLayout(View child, ViewGroup.LayoutParams params);
+
+        /**
+         * See ViewGroup.detachViewFromParent().
+         */
+        void detachViewFromParent(int index);
+
+        /**
+         * See ViewGroup.attachViewToParent().
+         */
+        void attachViewToParent(View child, int index, ViewGroup.LayoutParams params);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final FullCursorView fullCursorView;
+    private final ViewGroupAccess access;
+    private FullCursorAdapter adapter;
+    private View.OnClickListener clickListener;
+    private FullCursorView.OnItemClickListener itemClickListener;
+    private View emptyView;
+
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int itemCount;
+
+    /**
+     * Creates a helper for a view which adds and removes children by itself.
+     */
+    FullCursorViewHelper(FullCursorView fullCursorView) {
+        this(fullCursorView, null);
+    }
+
+    /**
+     * Creates a helper for a {@link MaterializedFullCursorView} which delegates its child
+     * operations to the helper.
+     */
+    FullCursorViewHelper(FullCursorView fullCursorView, ViewGroupAccess access) {
+        this.fullCursorView = fullCursorView;
+        this.access = access;
+        clickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (itemClickListener != null) {
+                    int index = FullCursorViewHelper.this.fullCursorView.getRoot().indexOfChild(v);
+
+                    if (index >= 0 && index < itemCount) {
+                        itemClickListener.onItemClick(FullCursorViewHelper.this.fullCursorView, v,
+                                positions[index], ids[index]);
+                    }
+                }
+            }
+        };
+    }
+
+    FullCursorAdapter getAdapter() {
+        return adapter;
+    }
+
+    void setAdapter(FullCursorAdapter adapter) {
+        this.adapter = adapter;
+        adapter.setTargetView(fullCursorView);
+    }
+
+    /**
+     * See {@link MaterializedFullCursorView#addView(android.view.View, int, long)}.
+     */
+    void addView(View child, int position, long id) {
+        ViewGroup root = fullCursorView.getRoot();
+        root.addView(child);
+        onChildAdded(child, root.getChildCount() - 1, position, id);
+    }
+
+    /**
+     * See {@link MaterializedFullCursorView#addViews(android.view.View[], int[], long[], int)}.
+     */
+    void addViews(View[] views, int[] positions, long[] ids, int count) {
+        ViewGroup root = fullCursorView.getRoot();
+
+        // attach all children without requesting a layout for each of them
+        for (int i = 0; i < count; i++) {
+            ViewGroup.LayoutParams params = views[i].getLayoutParams();
+            access.addViewInLayout(views[i], params != null ? params : access.generateDefaultLayoutParams());
+            onChildAdded(views[i], root.getChildCount() - 1, positions[i], ids[i]);
+        }
+
+        root.requestLayout();
+        root.invalidate();
+    }
+
+    /**
+     * See {@link MaterializedFullCursorView#insertView(android.view.View, int, int, long)}.
+     */
+    void insertView(View child, int index, int position, long id) {
+        fullCursorView.getRoot().addView(child, index);
+        onChildAdded(child, index, position, id);
+    }
+
+    /**
+     * See {@link MaterializedFullCursorView#moveView(int, int)}.
+     */
+    void moveView(int fromIndex, int toIndex) {
+        ViewGroup root = fullCursorView.getRoot();
+        // detaching keeps the child attached to the window, unlike removing it
+        View child = root.getChildAt(fromIndex);
+        access.detachViewFromParent(fromIndex);
+        access.attachViewToParent(child, toIndex, child.getLayoutParams());
+        onChildMoved(fromIndex, toIndex);
+        root.requestLayout();
+        root.invalidate();
+    }
+
+    /**
+     * Removes the child at the index. Views overriding ViewGroup.removeViewAt() delegate to this
+     * method, so it removes the child with ViewGroup.removeViews() which they don't override.
+     */
+    void removeViewAt(int index) {
+        fullCursorView.getRoot().removeViews(index, 1);
+        onChildRemoved(index);
+    }
+
+    void removeView(View view) {
+        int index = fullCursorView.getRoot().indexOfChild(view);
+
+        if (index >= 0) {
+            removeViewAt(index);
+        }
+    }
+
+    void removeAllViews() {
+        ViewGroup root = fullCursorView.getRoot();
+        root.removeViews(0, root.getChildCount());
+        onAllChildrenRemoved();
+    }
+
+    /**
+     * Must be called right after a child has been added at the given index.
+     */
+    void onChildAdded(View child, int index, int position, long id) {
+        ensureCapacity(itemCount + 1);
+        System.arraycopy(positions, index, positions, index + 1, itemCount - index);
+        System.arraycopy(ids, index, ids, index + 1, itemCount - index);
+        positions[index] = position;
+        ids[index] = id;
+        ++itemCount;
+        child.setOnClickListener(clickListener);
+    }
+
+    /**
+     * Must be called right after a child has been removed from the given index.
+     */
+    void onChildRemoved(int index) {
+        if (index < 0 || index >= itemCount)
+            return;
+
+        System.arraycopy(positions, index + 1, positions, index, itemCount - index - 1);
+        System.arraycopy(ids, index + 1, ids, index, itemCount - index - 1);
+        --itemCount;
+    }
+
+    /**
+     * Must be called right after a child has been moved.
+     */
+    void onChildMoved(int fromIndex, int toIndex) {
+        int position = positions[fromIndex];
+        long id = ids[fromIndex];
+        onChildRemoved(fromIndex);
+        ensureCapacity(itemCount + 1);
+        System.arraycopy(positions, toIndex, positions, toIndex + 1, itemCount - toIndex);
+        System.arraycopy(ids, toIndex, ids, toIndex + 1, itemCount - toIndex);
+        positions[toIndex] = position;
+        ids[toIndex] = id;
+        ++itemCount;
+    }
+
+    /**
+     * Must be called right after all children have been removed.
+     */
+    void onAllChildrenRemoved() {
+        itemCount = 0;
+    }
+
+    /**
+     * See {@link MaterializedFullCursorView#updateView(int, int, long)}.
+     */
+    void setItem(int index, int position, long id) {
+        if (index >= 0 && index < itemCount) {
+            positions[index] = position;
+            ids[index] = id;
+        }
+    }
+
+    /**
+     * Must be called by the view before its measure or layout pass to report the layout time of
+     * a rebuild, see {@link RebuildMetrics#getLayoutNanos()}.
+     *
+     * @return a timestamp to pass to {@link #endLayoutTiming(long)}
+     */
+    long beginLayoutTiming() {
+        return adapter != null ? adapter.beginLayoutTiming() : 0;
+    }
+
+    /**
+     * Must be called by the view after its measure or layout pass.
+     */
+    void endLayoutTiming(long startNanos) {
+        if (adapter != null) {
+            adapter.endLayoutTiming(startNanos);
+        }
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    int getItemPosition(int index) {
+        return positions[index];
+    }
+
+    long getItemId(int index) {
+        return ids[index];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (positions.length < capacity) {
+            int newCapacity = Math.max(capacity, positions.length * 2);
+            int[] newPositions = new int[newCapacity];
+            long[] newIds = new long[newCapacity];
+            System.arraycopy(positions, 0, newPositions, 0, itemCount);
+            System.arraycopy(ids, 0, newIds, 0, itemCount);
+            positions = newPositions;
+            ids = newIds;
+        }
+    }
+
+    FullCursorView.OnItemClickListener getOnItemClickListener() {
+        return itemClickListener;
+    }
+
+    void setOnItemClickListener(FullCursorView.OnItemClickListener listener) {
+        itemClickListener = listener;
+    }
+
+    View getEmptyView() {
+        return emptyView;
+    }
+
+    void setEmptyView(View view) {
+        emptyView = view;
+        updateEmptyViewVisibility();
+    }
+
+    void updateEmptyViewVisibility() {
+        updateEmptyViewVisibility(fullCursorView.getRoot().getChildCount());
+    }
+
+    void updateEmptyViewVisibility(int itemCount) {
+        if (emptyView != null) {
+            emptyView.setVisibility(adapter == null || itemCount == 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+}
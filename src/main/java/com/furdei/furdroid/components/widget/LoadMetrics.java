@@ -0,0 +1,179 @@
+package com.furdei.furdroid.components.widget;
+
+/**
+ * <p>
+ * Timings and counters of a single load of a portion or a page by a
+ * {@link PartialLoadingAdapter}, see
+ * {@link PartialLoadingAdapter#setOnLoadMetricsListener(PartialLoadingAdapter.OnLoadMetricsListener)}.
+ * All times are in nanoseconds and are counted from the moment the load has been triggered.
+ * </p><p>
+ * The loading item is counted as shown when the adapter returns it from getView, which a list
+ * view does for visible items only. The time it has been shown lasts until the load ends.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class LoadMetrics {
+
+    /**
+     * What has started a load.
+     */
+    public enum Trigger {
+        /**
+         * The fixed threshold set by setCursorPositionLoadingThreshold has been crossed.
+         */
+        THRESHOLD,
+        /**
+         * The predictive prefetch expects the user to reach the end soon.
+         */
+        PREDICTIVE,
+        /**
+         * A failed load has been retried.
+         */
+        RETRY,
+        /**
+         * A page has been requested in the pipelined mode.
+         */
+        PIPELINE,
+        /**
+         * A page has been requested in the placeholder mode.
+         */
+        PLACEHOLDER
+    }
+
+    Trigger trigger;
+    int pageIndex;
+    int triggerPosition;
+    int rowsAhead;
+    int thresholdCrossings;
+    long triggerTime;
+    long queueNanos;
+    long callNanos;
+    long swapNanos;
+    int rowsLoaded;
+    boolean loadingViewShown;
+    long loadingViewShownNanos;
+    boolean failed;
+    boolean callDone;
+    boolean swapDone;
+
+    LoadMetrics(Trigger trigger, int pageIndex, int triggerPosition, int rowsAhead, int thresholdCrossings) {
+        this.trigger = trigger;
+        this.pageIndex = pageIndex;
+        this.triggerPosition = triggerPosition;
+        this.rowsAhead = rowsAhead;
+        this.thresholdCrossings = thresholdCrossings;
+        this.triggerTime = System.nanoTime();
+    }
+
+    void setCallTime(long started, long finished) {
+        queueNanos = started - triggerTime;
+        callNanos = finished - started;
+        callDone = true;
+    }
+
+    void setSwapTime(int rowsLoaded, boolean failed) {
+        this.swapNanos = System.nanoTime() - triggerTime;
+        this.rowsLoaded = rowsLoaded;
+        this.failed = failed;
+        this.swapDone = true;
+    }
+
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    /**
+     * @return index of the loaded page or -1 if a portion has been loaded with
+     * loadNextPortionOfData
+     */
+    public int getPageIndex() {
+        return pageIndex;
+    }
+
+    /**
+     * @return position of the last item shown when the load has been triggered or -1 if unknown
+     */
+    public int getTriggerPosition() {
+        return triggerPosition;
+    }
+
+    /**
+     * @return the number of loaded items after the trigger position, e.g. how early the load has
+     * been started
+     */
+    public int getRowsAhead() {
+        return rowsAhead;
+    }
+
+    /**
+     * @return the number of threshold crossings counted since the previous load
+     */
+    public int getThresholdCrossings() {
+        return thresholdCrossings;
+    }
+
+    /**
+     * @return time the load has been waiting for an executor thread
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * @return duration of the loadNextPortionOfData or loadPage call
+     */
+    public long getCallNanos() {
+        return callNanos;
+    }
+
+    /**
+     * @return time until the loaded rows have been swapped in, or until the failure
+     */
+    public long getSwapNanos() {
+        return swapNanos;
+    }
+
+    /**
+     * @return the number of rows added by the load
+     */
+    public int getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    /**
+     * @return <code>true</code> if the user has seen the loading item during the load
+     */
+    public boolean isLoadingViewShown() {
+        return loadingViewShown;
+    }
+
+    /**
+     * @return how long the loading item has been shown during the load
+     */
+    public long getLoadingViewShownNanos() {
+        return loadingViewShownNanos;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadMetrics{" +
+                "trigger=" + trigger +
+                ", pageIndex=" + pageIndex +
+                ", triggerPosition=" + triggerPosition +
+                ", rowsAhead=" + rowsAhead +
+                ", thresholdCrossings=" + thresholdCrossings +
+                ", queueNanos=" + queueNanos +
+                ", callNanos=" + callNanos +
+                ", swapNanos=" + swapNanos +
+                ", rowsLoaded=" + rowsLoaded +
+                ", loadingViewShown=" + loadingViewShown +
+                ", loadingViewShownNanos=" + loadingViewShownNanos +
+                ", failed=" + failed +
+                '}';
+    }
+}
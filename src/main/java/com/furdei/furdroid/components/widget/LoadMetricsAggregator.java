@@ -0,0 +1,157 @@
+package com.furdei.furdroid.components.widget;
+
+/**
+ * <p>
+ * A {@link PartialLoadingAdapter.OnLoadMetricsListener} that collects load timings into
+ * {@link PercentileHistogram}s. Times are recorded in milliseconds. Install it with
+ * {@link PartialLoadingAdapter#setOnLoadMetricsListener(PartialLoadingAdapter.OnLoadMetricsListener)}
+ * and print {@link #dump()} from a debug screen. One aggregator can be shared by several
+ * adapters.
+ * </p><p>
+ * The share of loads during which the loading item has been shown tells whether the loading
+ * threshold or the page size is too small, while a large number of rows ahead with the loading
+ * item never shown means that loading starts too early.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class LoadMetricsAggregator implements PartialLoadingAdapter.OnLoadMetricsListener {
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final PercentileHistogram queueTimes = new PercentileHistogram();
+    private final PercentileHistogram callTimes = new PercentileHistogram();
+    private final PercentileHistogram swapTimes = new PercentileHistogram();
+    private final PercentileHistogram loadingViewShownTimes = new PercentileHistogram();
+    private final PercentileHistogram rowsAhead = new PercentileHistogram();
+    private final PercentileHistogram rowsLoaded = new PercentileHistogram();
+    private final long[] triggerCounts = new long[LoadMetrics.Trigger.values().length];
+    private long loads;
+    private long failures;
+    private long loadingViewShownCount;
+    private long thresholdCrossings;
+
+    @Override
+    public synchronized void onLoadMetrics(PartialLoadingAdapter adapter, LoadMetrics metrics) {
+        ++loads;
+        ++triggerCounts[metrics.getTrigger().ordinal()];
+        thresholdCrossings += metrics.getThresholdCrossings();
+        queueTimes.record(metrics.getQueueNanos() / NANOS_PER_MILLI);
+        callTimes.record(metrics.getCallNanos() / NANOS_PER_MILLI);
+
+        if (metrics.isFailed()) {
+            ++failures;
+        } else {
+            swapTimes.record(metrics.getSwapNanos() / NANOS_PER_MILLI);
+            rowsLoaded.record(Math.max(metrics.getRowsLoaded(), 0));
+        }
+
+        if (metrics.getTriggerPosition() >= 0) {
+            rowsAhead.record(Math.max(metrics.getRowsAhead(), 0));
+        }
+
+        if (metrics.isLoadingViewShown()) {
+            ++loadingViewShownCount;
+            loadingViewShownTimes.record(metrics.getLoadingViewShownNanos() / NANOS_PER_MILLI);
+        }
+    }
+
+    public PercentileHistogram getQueueTimes() {
+        return queueTimes;
+    }
+
+    public PercentileHistogram getCallTimes() {
+        return callTimes;
+    }
+
+    public PercentileHistogram getSwapTimes() {
+        return swapTimes;
+    }
+
+    public PercentileHistogram getLoadingViewShownTimes() {
+        return loadingViewShownTimes;
+    }
+
+    public PercentileHistogram getRowsAhead() {
+        return rowsAhead;
+    }
+
+    public PercentileHistogram getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of loads started by the given trigger
+     */
+    public synchronized long getTriggerCount(LoadMetrics.Trigger trigger) {
+        return triggerCounts[trigger.ordinal()];
+    }
+
+    /**
+     * @return the number of loads during which the loading item has been shown
+     */
+    public synchronized long getLoadingViewShownCount() {
+        return loadingViewShownCount;
+    }
+
+    /**
+     * @return the number of threshold crossings counted by the adapters, compare it with
+     * the number of loads started by {@link LoadMetrics.Trigger#THRESHOLD}
+     */
+    public synchronized long getThresholdCrossings() {
+        return thresholdCrossings;
+    }
+
+    public synchronized void reset() {
+        queueTimes.reset();
+        callTimes.reset();
+        swapTimes.reset();
+        loadingViewShownTimes.reset();
+        rowsAhead.reset();
+        rowsLoaded.reset();
+
+        for (int i = 0; i < triggerCounts.length; i++) {
+            triggerCounts[i] = 0;
+        }
+
+        loads = 0;
+        failures = 0;
+        loadingViewShownCount = 0;
+        thresholdCrossings = 0;
+    }
+
+    /**
+     * @return a human readable summary of all collected metrics, one line per histogram
+     */
+    public synchronized String dump() {
+        StringBuilder triggers = new StringBuilder();
+
+        for (LoadMetrics.Trigger trigger : LoadMetrics.Trigger.values()) {
+            if (triggers.length() > 0) {
+                triggers.append(", ");
+            }
+
+            triggers.append(trigger).append('=').append(triggerCounts[trigger.ordinal()]);
+        }
+
+        return "loads: " + loads + ", failed: " + failures + "\n" +
+                "triggers: " + triggers + "\n" +
+                "threshold crossings counted/acted on: " + thresholdCrossings + "/" +
+                triggerCounts[LoadMetrics.Trigger.THRESHOLD.ordinal()] + "\n" +
+                "loading item shown: " + loadingViewShownCount + "/" + loads + "\n" +
+                "loading item shown ms: " + loadingViewShownTimes + "\n" +
+                "rows ahead: " + rowsAhead + "\n" +
+                "rows loaded: " + rowsLoaded + "\n" +
+                "queue ms: " + queueTimes + "\n" +
+                "call ms: " + callTimes + "\n" +
+                "swap ms: " + swapTimes;
+    }
+}
@@ -0,0 +1,785 @@
+package com.furdei.furdroid.components.widget;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * An append-only store of rows in a memory-mapped file, used by {@link MappedPartialCursor}.
+ * It doesn't depend on Android, so it can be used and tested on a plain JVM.
+ * </p><p>
+ * The data file starts with a header describing the columns, followed by rows. A row is a null
+ * bitmap followed by the values of its non-null columns: 8 bytes for longs and doubles, 4 bytes
+ * for ints, and a 4 byte length followed by the bytes for strings, in UTF-8, and blobs, see
+ * {@link #TYPE_LONG} and the other column types. The index file, named after the data
+ * file with an ".idx" suffix, holds the number of committed rows and the offset of every row.
+ * Rows never cross a segment boundary, so every row can be read from a single mapped segment.
+ * </p><p>
+ * Both files are mapped in segments, and the store holds on to a few recently used segments
+ * only. Java can't unmap a segment explicitly, so a dropped segment stays mapped until it is
+ * garbage collected. The mapped pages are backed by the file, so the system can reclaim the
+ * ones far from the viewport under memory pressure without swapping. Rows are written with plain
+ * file writes and become visible on {@link #commit(boolean)}, which forces the rows to the disk
+ * before it updates the index header. A store interrupted before the commit is reopened with the rows committed before.
+ * Rows must be written by one thread at a time, while committed rows can be read by any thread.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class MappedPageStore {
+
+    public static final int TYPE_LONG   = 0;
+    public static final int TYPE_INT    = 1;
+    public static final int TYPE_DOUBLE = 2;
+    public static final int TYPE_STRING = 3;
+    public static final int TYPE_BLOB   = 4;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_MAPPED_SEGMENTS = 8;
+
+    private static final int DATA_MAGIC = 0x46504344;
+    private static final int INDEX_MAGIC = 0x46504349;
+    private static final int VERSION = 1;
+    // magic, version, row count, partial flag, data end
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    private static final int INDEX_SEGMENT_SIZE = 64 * 1024;
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Values of a row read from a mapped segment. Numbers are read straight from the mapped
+     * buffer, strings and blobs are copied out of it. Reuse an instance when reading many rows.
+     */
+    public static class Row {
+        private final int[] columnTypes;
+        private final int[] positions;
+        private ByteBuffer buffer;
+        private byte[] scratch = new byte[64];
+
+        Row(int[] columnTypes) {
+            this.columnTypes = columnTypes;
+            this.positions = new int[columnTypes.length];
+        }
+
+        public boolean isNull(int column) {
+            return positions[column] < 0;
+        }
+
+        public long getLong(int column) {
+            int position = positions[column];
+
+            if (position < 0)
+                return 0;
+
+            switch (columnTypes[column]) {
+                case TYPE_LONG:
+                    return buffer.getLong(position);
+                case TYPE_INT:
+                    return buffer.getInt(position);
+                case TYPE_DOUBLE:
+                    return (long) buffer.getDouble(position);
+                case TYPE_STRING:
+                    try {
+                        return Long.parseLong(getString(column));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                default:
+                    throw new IllegalStateException("Blob column can't be read as a number");
+            }
+        }
+
+        public double getDouble(int column) {
+            int position = positions[column];
+
+            if (position < 0)
+                return 0;
+
+            switch (columnTypes[column]) {
+                case TYPE_DOUBLE:
+                    return buffer.getDouble(position);
+                case TYPE_STRING:
+                    try {
+                        return Double.parseDouble(getString(column));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                default:
+                    return getLong(column);
+            }
+        }
+
+        public String getString(int column) {
+            int position = positions[column];
+
+            if (position < 0)
+                return null;
+
+            switch (columnTypes[column]) {
+                case TYPE_LONG:
+                    return Long.toString(buffer.getLong(position));
+                case TYPE_INT:
+                    return Integer.toString(buffer.getInt(position));
+                case TYPE_DOUBLE:
+                    return Double.toString(buffer.getDouble(position));
+                case TYPE_STRING:
+                    int length = buffer.getInt(position);
+
+                    if (scratch.length < length) {
+                        scratch = new byte[Math.max(length, scratch.length * 2)];
+                    }
+
+                    copyBytes(position + 4, scratch, length);
+                    return decode(scratch, length);
+                default:
+                    throw new IllegalStateException("Blob column can't be read as a string");
+            }
+        }
+
+        public byte[] getBlob(int column) {
+            int position = positions[column];
+
+            if (position < 0)
+                return null;
+
+            if (columnTypes[column] != TYPE_BLOB
+                    && columnTypes[column] != TYPE_STRING)
+                throw new IllegalStateException("Numeric column can't be read as a blob");
+
+            byte[] blob = new byte[buffer.getInt(position)];
+            copyBytes(position + 4, blob, blob.length);
+            return blob;
+        }
+
+        /**
+         * @return the type of the column, one of TYPE_LONG, TYPE_INT, TYPE_DOUBLE, TYPE_STRING or
+         * TYPE_BLOB
+         */
+        public int getColumnType(int column) {
+            return columnTypes[column];
+        }
+
+        private void copyBytes(int position, byte[] destination, int length) {
+            // a duplicate keeps the shared buffer's position intact
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(destination, 0, length);
+        }
+
+        void read(ByteBuffer buffer, int start) {
+            this.buffer = buffer;
+            int bitmapSize = getNullBitmapSize(columnTypes.length);
+            int position = start + bitmapSize;
+
+            for (int i = 0; i < columnTypes.length; i++) {
+                if ((buffer.get(start + (i >>> 3)) & (1 << (i & 7))) != 0) {
+                    positions[i] = -1;
+                    continue;
+                }
+
+                positions[i] = position;
+
+                switch (columnTypes[i]) {
+                    case TYPE_INT:
+                        position += 4;
+                        break;
+                    case TYPE_LONG:
+                    case TYPE_DOUBLE:
+                        position += 8;
+                        break;
+                    default:
+                        position += 4 + buffer.getInt(position);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A file mapped in segments. The least recently used segments are dropped and get unmapped
+     * once they are garbage collected.
+     */
+    private static class Segments {
+        private final FileChannel channel;
+        private final int segmentSize;
+        private final LinkedHashMap<Long, MappedByteBuffer> mapped;
+
+        Segments(FileChannel channel, int segmentSize, final int maxMappedSegments) {
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+            this.mapped = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                    return size() > maxMappedSegments;
+                }
+            };
+        }
+
+        /**
+         * @param offset offset in the file
+         * @param end end of the committed part of the file
+         * @return the segment containing the offset, mapped at least up to the end of the
+         * segment or the end of the committed part
+         */
+        synchronized ByteBuffer get(long offset, long end) throws IOException {
+            long segment = offset / segmentSize;
+            long start = segment * segmentSize;
+            long size = Math.min(segmentSize, end - start);
+            MappedByteBuffer buffer = mapped.get(segment);
+
+            // the last segment grows as rows are committed
+            if (buffer == null || buffer.capacity() < size) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                mapped.put(segment, buffer);
+            }
+
+            return buffer;
+        }
+
+        synchronized void clear() {
+            mapped.clear();
+        }
+    }
+
+    private final RandomAccessFile dataFile;
+    private final RandomAccessFile indexFile;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int segmentSize;
+    private final Segments dataSegments;
+    private final Segments indexSegments;
+    private volatile int rowCount;
+    private volatile long dataEnd;
+    private volatile boolean partial;
+    private volatile boolean closed;
+    // rows written since the last commit
+    private ByteBuffer pendingRows = ByteBuffer.allocate(4096);
+    private ByteBuffer pendingIndex = ByteBuffer.allocate(1024);
+    private int pendingRowCount;
+    // values of the row being written
+    private final long[] rowNumbers;
+    private final byte[][] rowBytes;
+    private final boolean[] rowSet;
+    private boolean inRow;
+
+    private MappedPageStore(RandomAccessFile dataFile, RandomAccessFile indexFile, String[] columnNames,
+                            int[] columnTypes, int segmentSize, int maxMappedSegments) {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.segmentSize = segmentSize;
+        this.dataSegments = new Segments(dataFile.getChannel(), segmentSize, maxMappedSegments);
+        this.indexSegments = new Segments(indexFile.getChannel(), INDEX_SEGMENT_SIZE, maxMappedSegments);
+        this.rowNumbers = new long[columnTypes.length];
+        this.rowBytes = new byte[columnTypes.length][];
+        this.rowSet = new boolean[columnTypes.length];
+    }
+
+    /**
+     * Creates an empty store with the default segment size, replacing the existing files.
+     */
+    public static MappedPageStore create(File file, String[] columnNames, int[] columnTypes) throws IOException {
+        return create(file, columnNames, columnTypes, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_MAPPED_SEGMENTS);
+    }
+
+    /**
+     * Creates an empty store, replacing the existing files.
+     *
+     * @param file the data file, the index file is created next to it
+     * @param columnNames names of the columns
+     * @param columnTypes types of the columns, one of TYPE_LONG, TYPE_INT, TYPE_DOUBLE,
+     *                    TYPE_STRING or TYPE_BLOB
+     * @param segmentSize size of a mapped segment, which is also the maximum size of a row
+     * @param maxMappedSegments the number of recently used segments of each file to hold on to
+     */
+    public static MappedPageStore create(File file, String[] columnNames, int[] columnTypes, int segmentSize,
+                                         int maxMappedSegments) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("file == null");
+
+        if (columnNames == null)
+            throw new IllegalArgumentException("columnNames == null");
+
+        if (columnTypes == null)
+            throw new IllegalArgumentException("columnTypes == null");
+
+        if (columnNames.length != columnTypes.length)
+            throw new IllegalArgumentException("columnNames.length != columnTypes.length");
+
+        if (maxMappedSegments < 1)
+            throw new IllegalArgumentException("maxMappedSegments < 1");
+
+        for (int type : columnTypes) {
+            if (type < TYPE_LONG || type > TYPE_BLOB)
+                throw new IllegalArgumentException("Unknown column type " + type);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(DATA_MAGIC).putInt(VERSION).putInt(segmentSize).putInt(columnNames.length);
+
+        for (int i = 0; i < columnNames.length; i++) {
+            byte[] name = encode(columnNames[i]);
+            header = ensureCapacity(header, 5 + name.length);
+            header.put((byte) columnTypes[i]).putInt(name.length).put(name);
+        }
+
+        if (segmentSize < header.position())
+            throw new IllegalArgumentException("segmentSize is less than the header size");
+
+        RandomAccessFile dataFile = new RandomAccessFile(file, "rw");
+        RandomAccessFile indexFile;
+
+        try {
+            indexFile = new RandomAccessFile(getIndexFile(file), "rw");
+        } catch (IOException e) {
+            dataFile.close();
+            throw e;
+        }
+
+        MappedPageStore store = new MappedPageStore(dataFile, indexFile, columnNames.clone(),
+                columnTypes.clone(), segmentSize, maxMappedSegments);
+
+        try {
+            dataFile.setLength(0);
+            indexFile.setLength(0);
+            header.flip();
+            store.write(dataFile.getChannel(), header, 0);
+            store.dataEnd = header.limit();
+            store.partial = true;
+            store.writeIndexHeader(0, true, store.dataEnd);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+
+        return store;
+    }
+
+    /**
+     * Opens a store created before with the default number of mapped segments.
+     */
+    public static MappedPageStore open(File file) throws IOException {
+        return open(file, DEFAULT_MAX_MAPPED_SEGMENTS);
+    }
+
+    /**
+     * Opens a store created before, e.g. by the previous run of the process. The rows written
+     * after the last commit are dropped.
+     *
+     * @param file the data file
+     * @param maxMappedSegments the number of recently used segments of each file to hold on to
+     */
+    public static MappedPageStore open(File file, int maxMappedSegments) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("file == null");
+
+        if (maxMappedSegments < 1)
+            throw new IllegalArgumentException("maxMappedSegments < 1");
+
+        if (!file.exists())
+            throw new FileNotFoundException(file.getPath());
+
+        RandomAccessFile dataFile = new RandomAccessFile(file, "rw");
+        RandomAccessFile indexFile = null;
+
+        try {
+            indexFile = new RandomAccessFile(getIndexFile(file), "rw");
+
+            if (dataFile.readInt() != DATA_MAGIC || dataFile.readInt() != VERSION)
+                throw new IOException("Not a page store: " + file);
+
+            int segmentSize = dataFile.readInt();
+            int columnCount = dataFile.readInt();
+            String[] columnNames = new String[columnCount];
+            int[] columnTypes = new int[columnCount];
+
+            for (int i = 0; i < columnCount; i++) {
+                columnTypes[i] = dataFile.readByte();
+                byte[] name = new byte[dataFile.readInt()];
+                dataFile.readFully(name);
+                columnNames[i] = decode(name, name.length);
+            }
+
+            if (indexFile.readInt() != INDEX_MAGIC || indexFile.readInt() != VERSION)
+                throw new IOException("Not a page store index: " + file);
+
+            MappedPageStore store = new MappedPageStore(dataFile, indexFile, columnNames, columnTypes,
+                    segmentSize, maxMappedSegments);
+            store.rowCount = indexFile.readInt();
+            store.partial = indexFile.readInt() != 0;
+            store.dataEnd = indexFile.readLong();
+            return store;
+        } catch (IOException e) {
+            dataFile.close();
+
+            if (indexFile != null) {
+                indexFile.close();
+            }
+
+            throw e;
+        }
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return the type of the column, one of TYPE_LONG, TYPE_INT, TYPE_DOUBLE, TYPE_STRING or
+     * TYPE_BLOB
+     */
+    public int getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * @return the number of committed rows
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the partial flag of the last commit
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Starts writing a new row, the columns left unset are null.
+     */
+    public void beginRow() {
+        checkOpen();
+
+        if (inRow)
+            throw new IllegalStateException("Previous row is not ended");
+
+        inRow = true;
+
+        for (int i = 0; i < rowSet.length; i++) {
+            rowSet[i] = false;
+            rowBytes[i] = null;
+        }
+    }
+
+    public void setLong(int column, long value) {
+        checkInRow();
+
+        switch (columnTypes[column]) {
+            case TYPE_DOUBLE:
+                rowNumbers[column] = Double.doubleToRawLongBits(value);
+                break;
+            case TYPE_STRING:
+                rowBytes[column] = encode(Long.toString(value));
+                break;
+            case TYPE_BLOB:
+                throw new IllegalArgumentException("Not a numeric column");
+            default:
+                rowNumbers[column] = value;
+                break;
+        }
+
+        rowSet[column] = true;
+    }
+
+    public void setDouble(int column, double value) {
+        checkInRow();
+
+        switch (columnTypes[column]) {
+            case TYPE_DOUBLE:
+                rowNumbers[column] = Double.doubleToRawLongBits(value);
+                break;
+            case TYPE_STRING:
+                rowBytes[column] = encode(Double.toString(value));
+                break;
+            case TYPE_BLOB:
+                throw new IllegalArgumentException("Not a numeric column");
+            default:
+                rowNumbers[column] = (long) value;
+                break;
+        }
+
+        rowSet[column] = true;
+    }
+
+    public void setString(int column, String value) {
+        checkInRow();
+
+        if (value == null) {
+            rowSet[column] = false;
+            return;
+        }
+
+        switch (columnTypes[column]) {
+            case TYPE_STRING:
+                rowBytes[column] = encode(value);
+                break;
+            case TYPE_DOUBLE:
+                rowNumbers[column] = Double.doubleToRawLongBits(Double.parseDouble(value));
+                break;
+            case TYPE_BLOB:
+                throw new IllegalArgumentException("Not a string column");
+            default:
+                rowNumbers[column] = Long.parseLong(value);
+                break;
+        }
+
+        rowSet[column] = true;
+    }
+
+    public void setBlob(int column, byte[] value) {
+        checkInRow();
+
+        if (columnTypes[column] != TYPE_BLOB)
+            throw new IllegalArgumentException("Not a blob column");
+
+        rowBytes[column] = value;
+        rowSet[column] = value != null;
+    }
+
+    /**
+     * Ends the row started with {@link #beginRow()}. The row is written on the next commit.
+     */
+    public void endRow() {
+        checkInRow();
+        inRow = false;
+
+        int bitmapSize = getNullBitmapSize(columnTypes.length);
+        int rowSize = bitmapSize;
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (rowSet[i]) {
+                rowSize += getValueSize(i);
+            }
+        }
+
+        if (rowSize > segmentSize)
+            throw new IllegalArgumentException("Row of " + rowSize + " bytes doesn't fit into a segment");
+
+        long offset = dataEnd + pendingRows.position();
+        long segmentEnd = (offset / segmentSize + 1) * segmentSize;
+
+        // rows never cross a segment boundary
+        if (offset + rowSize > segmentEnd) {
+            int padding = (int) (segmentEnd - offset);
+            pendingRows = ensureCapacity(pendingRows, padding);
+            pendingRows.position(pendingRows.position() + padding);
+            offset = segmentEnd;
+        }
+
+        pendingRows = ensureCapacity(pendingRows, rowSize);
+        int bitmapStart = pendingRows.position();
+
+        for (int i = 0; i < bitmapSize; i++) {
+            pendingRows.put((byte) 0);
+        }
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (!rowSet[i]) {
+                int index = bitmapStart + (i >>> 3);
+                pendingRows.put(index, (byte) (pendingRows.get(index) | (1 << (i & 7))));
+                continue;
+            }
+
+            switch (columnTypes[i]) {
+                case TYPE_INT:
+                    pendingRows.putInt((int) rowNumbers[i]);
+                    break;
+                case TYPE_LONG:
+                case TYPE_DOUBLE:
+                    pendingRows.putLong(rowNumbers[i]);
+                    break;
+                default:
+                    pendingRows.putInt(rowBytes[i].length).put(rowBytes[i]);
+                    break;
+            }
+        }
+
+        pendingIndex = ensureCapacity(pendingIndex, INDEX_ENTRY_SIZE);
+        pendingIndex.putLong(offset);
+        ++pendingRowCount;
+    }
+
+    /**
+     * Writes the rows ended since the last commit and makes them visible.
+     *
+     * @param partial <code>true</code> if there is more data to load
+     */
+    public void commit(boolean partial) throws IOException {
+        checkOpen();
+
+        if (inRow)
+            throw new IllegalStateException("Row is not ended");
+
+        pendingRows.flip();
+        pendingIndex.flip();
+        long newDataEnd = dataEnd + pendingRows.limit();
+
+        int newRowCount = rowCount + pendingRowCount;
+
+        try {
+            write(dataFile.getChannel(), pendingRows, dataEnd);
+            write(indexFile.getChannel(), pendingIndex, getIndexOffset(rowCount));
+            // the header goes last, so the new rows don't count until they reach the disk
+            dataFile.getChannel().force(false);
+            indexFile.getChannel().force(false);
+            writeIndexHeader(newRowCount, partial, newDataEnd);
+            indexFile.getChannel().force(false);
+        } finally {
+            // the rows of a failed commit are dropped
+            pendingRows.clear();
+            pendingIndex.clear();
+            pendingRowCount = 0;
+        }
+
+        this.partial = partial;
+        this.dataEnd = newDataEnd;
+        this.rowCount = newRowCount;
+    }
+
+    /**
+     * Drops the row in progress and the rows ended since the last commit, so the store can go on
+     * from the last commit after a failed append.
+     */
+    public void rollback() {
+        inRow = false;
+        pendingRows.clear();
+        pendingIndex.clear();
+        pendingRowCount = 0;
+    }
+
+    /**
+     * Reads a committed row.
+     *
+     * @param row index of the row
+     * @param reuse a row to read into or <code>null</code>
+     * @return the row
+     */
+    public Row readRow(int row, Row reuse) throws IOException {
+        checkOpen();
+
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("row " + row + ", count " + rowCount);
+
+        long indexOffset = getIndexOffset(row);
+        long indexEnd = getIndexOffset(rowCount);
+        ByteBuffer index = indexSegments.get(indexOffset, indexEnd);
+        long offset = index.getLong((int) (indexOffset % INDEX_SEGMENT_SIZE));
+        ByteBuffer data = dataSegments.get(offset, dataEnd);
+        Row result = reuse != null ? reuse : new Row(columnTypes);
+        result.read(data, (int) (offset % segmentSize));
+        return result;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the files. The store can be reopened with {@link #open(java.io.File)}.
+     */
+    public void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        dataSegments.clear();
+        indexSegments.clear();
+
+        try {
+            dataFile.close();
+        } catch (IOException e) {
+            // nothing to do with it
+        }
+
+        try {
+            indexFile.close();
+        } catch (IOException e) {
+            // nothing to do with it
+        }
+    }
+
+    private int getValueSize(int column) {
+        switch (columnTypes[column]) {
+            case TYPE_INT:
+                return 4;
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                return 8;
+            default:
+                return 4 + rowBytes[column].length;
+        }
+    }
+
+    private void writeIndexHeader(int rowCount, boolean partial, long dataEnd) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        header.putInt(INDEX_MAGIC).putInt(VERSION).putInt(rowCount).putInt(partial ? 1 : 0).putLong(dataEnd);
+        header.flip();
+        write(indexFile.getChannel(), header, 0);
+    }
+
+    private void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Store is closed");
+    }
+
+    private void checkInRow() {
+        if (!inRow)
+            throw new IllegalStateException("Row is not started");
+    }
+
+    private static long getIndexOffset(int row) {
+        return INDEX_HEADER_SIZE + (long) row * INDEX_ENTRY_SIZE;
+    }
+
+    private static int getNullBitmapSize(int columnCount) {
+        return (columnCount + 7) >>> 3;
+    }
+
+    private static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int required) {
+        if (buffer.remaining() >= required)
+            return buffer;
+
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + required));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(CHARSET + " is not supported");
+        }
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        try {
+            return new String(bytes, 0, length, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(CHARSET + " is not supported");
+        }
+    }
+}
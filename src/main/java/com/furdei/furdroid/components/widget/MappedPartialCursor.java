@@ -0,0 +1,263 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>
+ * A {@link PartialCursor} over a {@link MappedPageStore}, for feeds too large to be kept in
+ * SQLite cursors or on the heap. Rows are read from the memory-mapped file on demand, so only
+ * the segments near the viewport are resident, and the feed survives process restarts:
+ * {@link #open(java.io.File)} brings back all the rows committed by the previous run along with
+ * the partial flag, without fetching anything again.
+ * </p><p>
+ * Like {@link PagedPartialCursor}, every {@link #appendPage(android.database.Cursor, boolean)}
+ * returns a new cursor which sees the new rows too, so pass it to swapCursor of
+ * {@link PartialLoadingAdapter}. Closing the most recent cursor closes the store, while closing
+ * a cursor superseded by appendPage leaves it open.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class MappedPartialCursor extends AbstractCursor implements PartialCursor {
+
+    /**
+     * Cursors sharing the same store.
+     */
+    private static class Chain {
+        private volatile MappedPartialCursor latest;
+    }
+
+    private final MappedPageStore store;
+    private final int count;
+    private final Chain chain;
+    private MappedPageStore.Row currentRow;
+    private boolean partial;
+
+    /**
+     * Creates a cursor over the committed rows of the store.
+     */
+    public MappedPartialCursor(MappedPageStore store) {
+        this(store, store.getRowCount(), store.isPartial(), new Chain());
+    }
+
+    private MappedPartialCursor(MappedPageStore store, int count, boolean partial, Chain chain) {
+        if (store == null)
+            throw new IllegalArgumentException("store == null");
+
+        this.store = store;
+        this.count = count;
+        this.partial = partial;
+        this.chain = chain;
+        chain.latest = this;
+    }
+
+    /**
+     * Creates an empty feed in the file, replacing the existing one.
+     *
+     * @param file the data file, the index file is created next to it
+     * @param columnNames names of the columns
+     * @param columnTypes types of the columns, see MappedPageStore
+     */
+    public static MappedPartialCursor create(File file, String[] columnNames, int[] columnTypes) throws IOException {
+        return new MappedPartialCursor(MappedPageStore.create(file, columnNames, columnTypes));
+    }
+
+    /**
+     * Opens the feed persisted in the file.
+     */
+    public static MappedPartialCursor open(File file) throws IOException {
+        return new MappedPartialCursor(MappedPageStore.open(file));
+    }
+
+    public MappedPageStore getStore() {
+        return store;
+    }
+
+    /**
+     * Writes all rows of the page to the store. Columns are matched by name, the columns missing
+     * in the page are null. The page is not closed. If the page fails to be read or written,
+     * none of its rows are kept.
+     *
+     * @param page cursor with the rows of the new page
+     * @param morePages <code>true</code> if there are more pages to load
+     * @return a new cursor with the rows of this cursor followed by the rows of the page
+     */
+    public MappedPartialCursor appendPage(Cursor page, boolean morePages) throws IOException {
+        if (page == null)
+            throw new IllegalArgumentException("page == null");
+
+        if (chain.latest != this)
+            throw new IllegalStateException("Rows can be appended to the most recent cursor only");
+
+        if (isClosed())
+            throw new IllegalStateException("cursor is closed");
+
+        String[] columnNames = store.getColumnNames();
+        int[] pageColumns = new int[columnNames.length];
+
+        for (int i = 0; i < pageColumns.length; i++) {
+            pageColumns[i] = page.getColumnIndex(columnNames[i]);
+        }
+
+        boolean committed = false;
+
+        try {
+            if (page.moveToFirst()) {
+                do {
+                    store.beginRow();
+
+                    for (int i = 0; i < pageColumns.length; i++) {
+                        int pageColumn = pageColumns[i];
+
+                        if (pageColumn >= 0 && !page.isNull(pageColumn)) {
+                            copyValue(page, pageColumn, i);
+                        }
+                    }
+
+                    store.endRow();
+                } while (page.moveToNext());
+            }
+
+            store.commit(morePages);
+            committed = true;
+        } finally {
+            // a page failing halfway leaves no rows behind, so the next page can be appended
+            if (!committed) {
+                store.rollback();
+            }
+        }
+
+        return new MappedPartialCursor(store, store.getRowCount(), morePages, chain);
+    }
+
+    private void copyValue(Cursor page, int pageColumn, int column) {
+        switch (store.getColumnType(column)) {
+            case MappedPageStore.TYPE_LONG:
+            case MappedPageStore.TYPE_INT:
+                store.setLong(column, page.getLong(pageColumn));
+                break;
+            case MappedPageStore.TYPE_DOUBLE:
+                store.setDouble(column, page.getDouble(pageColumn));
+                break;
+            case MappedPageStore.TYPE_STRING:
+                store.setString(column, page.getString(pageColumn));
+                break;
+            default:
+                store.setBlob(column, page.getBlob(pageColumn));
+                break;
+        }
+    }
+
+    @Override
+    public boolean isCursorPartial() {
+        return partial;
+    }
+
+    @Override
+    public void setCursorPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return store.getColumnNames();
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        try {
+            currentRow = store.readRow(newPosition, currentRow);
+            return true;
+        } catch (IOException e) {
+            currentRow = null;
+            return false;
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        return getRow().getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getRow().getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getRow().getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return getRow().getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getRow().getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getRow().getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getRow().isNull(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return getRow().getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        MappedPageStore.Row row = getRow();
+
+        if (row.isNull(column))
+            return FIELD_TYPE_NULL;
+
+        switch (row.getColumnType(column)) {
+            case MappedPageStore.TYPE_LONG:
+            case MappedPageStore.TYPE_INT:
+                return FIELD_TYPE_INTEGER;
+            case MappedPageStore.TYPE_DOUBLE:
+                return FIELD_TYPE_FLOAT;
+            case MappedPageStore.TYPE_STRING:
+                return FIELD_TYPE_STRING;
+            default:
+                return FIELD_TYPE_BLOB;
+        }
+    }
+
+    private MappedPageStore.Row getRow() {
+        checkPosition();
+
+        if (currentRow == null)
+            throw new IllegalStateException("Row " + mPos + " can't be read");
+
+        return currentRow;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        if (chain.latest == this) {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.furdei.furdroid.components.widget;
+
+import android.view.View;
+
+/**
+ * A {@link FullCursorView} that shows a child view for every row and lets the adapter attach
+ * them in batches and keep, move or remove single views in the diff rebuild, see
+ * {@link FullCursorAdapter#setDiffRebuildEnabled(boolean)}.
+ *
+ * @author Stepan Furdey
+ */
+public interface MaterializedFullCursorView extends FullCursorView {
+
+    /**
+     * Adds several views at the end at once. Implementations should attach all of them with
+     * a single layout pass rather than requesting a layout for every view.
+     *
+     * @param views views to add
+     * @param positions positions of the views in the adapter
+     * @param ids row ids of the views
+     * @param count number of views to add from the beginning of the arrays
+     */
+    void addViews(View[] views, int[] positions, long[] ids, int count);
+
+    /**
+     * Inserts a view at the given child index. Used by the diff rebuild for rows that were
+     * added to the cursor.
+     */
+    void insertView(View view, int index, int position, long id);
+
+    /**
+     * Moves a child view to another child index. Used by the diff rebuild for rows that
+     * changed their order.
+     */
+    void moveView(int fromIndex, int toIndex);
+
+    /**
+     * Removes a child view. Used by the diff rebuild for rows that were deleted from the cursor.
+     */
+    void removeViewAt(int index);
+
+    /**
+     * Updates the position and id of a view that has been kept by the diff rebuild.
+     *
+     * @param index the child index of the view
+     */
+    void updateView(int index, int position, long id);
+}
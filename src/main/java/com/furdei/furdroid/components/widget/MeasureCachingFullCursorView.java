@@ -0,0 +1,34 @@
+package com.furdei.furdroid.components.widget;
+
+import android.view.View;
+
+/**
+ * A {@link FullCursorView} that caches the measured size of its rows by row id and content
+ * version. A row is not measured again as long as it keeps the same view, the same content
+ * version and the same measure specs. The adapter reports content versions after binding
+ * every row, see {@link FullCursorAdapter#getItemContentVersion(android.database.Cursor)}.
+ *
+ * @author Stepan Furdey
+ */
+public interface MeasureCachingFullCursorView extends FullCursorView {
+
+    /**
+     * Callback method to be invoked after a row has been bound.
+     *
+     * @param child the view the row has been bound to
+     * @param id the row id
+     * @param version the content version of the row or
+     *                {@link FullCursorAdapter#UNKNOWN_CONTENT_VERSION} to measure the row every time
+     */
+    void setItemContentVersion(View child, long id, long version);
+
+    /**
+     * Makes the view measure the row with the given id on the next layout pass.
+     */
+    void invalidateMeasureCache(long id);
+
+    /**
+     * Makes the view measure all rows on the next layout pass.
+     */
+    void invalidateMeasureCache();
+}
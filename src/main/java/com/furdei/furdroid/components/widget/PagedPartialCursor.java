@@ -0,0 +1,223 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * <p>
+ * A {@link PartialCursor} composed of immutable page cursors. Instead of writing every new page
+ * into a database and querying all rows loaded so far again, query only the new page and call
+ * {@link #appendPage(android.database.Cursor, boolean)}, which returns a new cursor wrapping the
+ * same pages plus the new one. Positions are mapped to pages through an offset index, so moving
+ * to a position takes O(log(pages)).
+ * </p><p>
+ * All pages must have the same columns in the same order. The cursor owns its pages: closing
+ * the most recent cursor of a chain closes all the pages, while closing a cursor that has been
+ * superseded by {@link #appendPage(android.database.Cursor, boolean)} leaves them open, so the
+ * cursor returned by <code>swapCursor</code> can be closed as usual.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class PagedPartialCursor extends AbstractCursor implements PartialCursor {
+
+    /**
+     * Cursors sharing the same pages.
+     */
+    private static class Chain {
+        private volatile PagedPartialCursor latest;
+    }
+
+    private final String[] columnNames;
+    private final Cursor[] pages;
+    // offsets[i] is the position of the first row of the i-th page, offsets[pages.length] is the count
+    private final int[] offsets;
+    private final Chain chain;
+    private boolean partial;
+    private Cursor currentPage;
+
+    /**
+     * Creates an empty partial cursor to append pages to.
+     *
+     * @param columnNames columns of the pages
+     */
+    public PagedPartialCursor(String[] columnNames) {
+        this(columnNames, new Cursor[0], true, new Chain());
+    }
+
+    /**
+     * Creates a cursor of the given pages. The columns are taken from the first page.
+     *
+     * @param pages page cursors, <code>null</code> elements are skipped
+     * @param partial <code>true</code> if there are more pages to load
+     */
+    public PagedPartialCursor(Cursor[] pages, boolean partial) {
+        this(null, pages, partial, new Chain());
+    }
+
+    private PagedPartialCursor(String[] columnNames, Cursor[] pages, boolean partial, Chain chain) {
+        int count = 0;
+
+        for (Cursor page : pages) {
+            if (page != null) {
+                ++count;
+            }
+        }
+
+        this.pages = new Cursor[count];
+        this.offsets = new int[count + 1];
+        int index = 0;
+
+        for (Cursor page : pages) {
+            if (page != null) {
+                this.pages[index] = page;
+                this.offsets[index + 1] = offsets[index] + page.getCount();
+                ++index;
+            }
+        }
+
+        if (columnNames == null) {
+            if (count == 0)
+                throw new IllegalArgumentException("pages are empty, use PagedPartialCursor(String[]) instead");
+
+            columnNames = this.pages[0].getColumnNames();
+        }
+
+        this.columnNames = columnNames;
+        this.partial = partial;
+        this.chain = chain;
+        chain.latest = this;
+    }
+
+    /**
+     * Returns a new cursor with the rows of this cursor followed by the rows of the given page.
+     * This cursor keeps its rows but no longer owns the pages, so it can be closed.
+     *
+     * @param page cursor with the rows of the new page
+     * @param morePages <code>true</code> if there are more pages to load
+     * @return a new cursor
+     */
+    public PagedPartialCursor appendPage(Cursor page, boolean morePages) {
+        if (page == null)
+            throw new IllegalArgumentException("page == null");
+
+        if (isClosed())
+            throw new IllegalStateException("cursor is closed");
+
+        Cursor[] newPages = new Cursor[pages.length + 1];
+        System.arraycopy(pages, 0, newPages, 0, pages.length);
+        newPages[pages.length] = page;
+        return new PagedPartialCursor(columnNames, newPages, morePages, chain);
+    }
+
+    /**
+     * @return the number of pages in this cursor
+     */
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    @Override
+    public boolean isCursorPartial() {
+        return partial;
+    }
+
+    @Override
+    public void setCursorPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    @Override
+    public int getCount() {
+        return offsets[pages.length];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int page = findPage(newPosition);
+        currentPage = pages[page];
+        return currentPage.moveToPosition(newPosition - offsets[page]);
+    }
+
+    /**
+     * @return index of the last page starting at or before the given position, which skips
+     * empty pages sharing the same offset
+     */
+    private int findPage(int position) {
+        int low = 0;
+        int high = pages.length - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (offsets[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    @Override
+    public String getString(int column) {
+        return currentPage.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return currentPage.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return currentPage.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return currentPage.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return currentPage.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return currentPage.getDouble(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return currentPage.isNull(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return currentPage.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return currentPage.getType(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        if (chain.latest == this) {
+            for (Cursor page : pages) {
+                page.close();
+            }
+        }
+    }
+}
@@ -2,6 +2,12 @@ package com.furdei.furdroid.components.widget;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.support.v4.widget.CursorAdapter;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,8 +16,19 @@ import android.widget.BaseAdapter;
 import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.ListAdapter;
+import android.widget.ListView;
 import android.widget.WrapperListAdapter;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 /**
  * <p>
  * Adapter for loading large cursors backed by RESTful services with a local cache in a database.
@@ -22,7 +39,10 @@ import android.widget.WrapperListAdapter;
  * Adapter does NOT provide any functionality for loading data itself, calling supplied listener
  * PartialLoadingListener to start a loading process. loadNextPortionOfData method is called
  * on the background thread by default unless you change this by calling
- * setLoadNextPortionOnBackgroundThread(false).
+ * setLoadNextPortionOnBackgroundThread(false). Background loads run on a small shared pool of
+ * background priority threads unless you supply your own executor by calling setExecutor.
+ * A portion that is already being loaded is never requested again, and getPendingLoadCount
+ * reports how many portions are queued or running.
  * </p><p>
  * Adapter always tries to load one more portion of data while user is looking through the end
  * of the already shown portion. The threshold of "the end" can be configured through the
@@ -31,6 +51,57 @@ import android.widget.WrapperListAdapter;
  * records. Note that loading doesn't start immediately. It is required that the threshold is
  * crossed 3 times at least. It prevents us from reacting to "false" views when a ListView
  * triggers adapter's getView method to determine it's length for example.
+ * </p><p>
+ * Call setPredictivePrefetchEnabled(true) to replace the fixed threshold with a prediction.
+ * In this mode the adapter tracks the scroll velocity by the timing of getView calls and
+ * measures how long it takes to load a portion, from the loadNextPortionOfData call to the
+ * swapCursor call with a longer cursor. Loading starts as soon as the user is expected to reach
+ * the end of the cursor within the measured load time, so a fling starts loading early while
+ * slow reading doesn't load anything until the end is near.
+ * </p><p>
+ * Call setPageLoader to keep several portions, or pages, in flight at the same time. In this
+ * mode the adapter calls {@link PageLoader#loadPage(int, int)} with a page index instead of
+ * PartialLoadingListener, and appends the returned page cursors to the cursor set by swapCursor
+ * strictly in page order, even if pages are loaded out of order. A page shorter than the page
+ * size marks the end of the data.
+ * </p><p>
+ * Call setWindowedMode to keep no more than a given number of pages in the pipelined mode.
+ * Pages far above the viewport are evicted while the user scrolls down and loaded again when
+ * the user scrolls back up, with a loading item shown at the top of the list, while pages far
+ * below the viewport are evicted on the way up. The list view is scrolled along with every
+ * change at the top, so the visible items stay in place, and item ids stay the same as long as
+ * the wrapped adapter has stable ids.
+ * </p><p>
+ * A load fails when loadNextPortionOfData or loadPage throws an exception, or when the app
+ * calls notifyLoadFailed. The adapter then retries with an exponential backoff and a random
+ * jitter, see setRetryPolicy. When the automatic retries are exhausted, the error view set by
+ * setErrorView is shown instead of the loading view until the user taps it or retry is called.
+ * Call setMinLoadIntervalMillis to limit the rate of requests of a single adapter.
+ * </p><p>
+ * The loading item, the error item and skeleton rows have view types of their own following
+ * the view types of the wrapped adapter, so the list view never passes them to the wrapped
+ * adapter as convert views. Call setSkeletonRows to show several skeleton rows instead of a
+ * single loading item. Skeleton rows are recycled by the list view like any other row.
+ * </p><p>
+ * Call setPlaceholderMode when the total number of rows is known, so that the user can jump
+ * anywhere or drag the fast scroll thumb to any position. In this mode getCount returns the
+ * total reported through setTotalCount, the rows which are not loaded yet are shown as
+ * placeholders, and the page containing a shown row is loaded on demand with
+ * {@link PageLoader#loadPage(int, int)}. Only a bounded number of recently shown pages is kept,
+ * and the loads of pages the user has scrolled away from are cancelled before they start.
+ * </p><p>
+ * Set an OnLoadMetricsListener to see how well the loading thresholds work. It receives a
+ * {@link LoadMetrics} for every loaded portion or page, with the trigger, the duration of the
+ * load call, the time until the rows have been swapped in, and whether and for how long the
+ * user has been looking at the loading item. {@link LoadMetricsAggregator} collects these
+ * metrics into percentiles.
+ * </p><p>
+ * Call setFilterMode to filter through a FilterQuery instead of the filter of the wrapped
+ * adapter. A new constraint cancels the query of the previous one, the results of recent
+ * constraints are cached, and a constraint extending a cached one with a complete result is
+ * narrowed from that result with a RowMatcher without running a query. A filtered result has
+ * its own partial loading state: its next portions are loaded through the FilterQuery, while
+ * the cursors passed to swapCursor are kept aside until the constraint is cleared.
  * </p>
  *
  * @author Stepan Furdey
@@ -40,13 +111,99 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
     public interface PartialLoadingListener {
         /**
          * loadNextPortionOfData is always called on the background thread, so you can (but not
-         * limited to) start a new loading synchronously.
+         * limited to) start a new loading synchronously. Throw an exception or call
+         * notifyLoadFailed to report a failure.
          */
         void loadNextPortionOfData();
     }
 
+    /**
+     * A loader of pages for the pipelined mode, see setPageLoader.
+     */
+    public interface PageLoader {
+        /**
+         * Loads a page of data. This method is called on the background thread, possibly for
+         * several pages at the same time.
+         *
+         * @param pageIndex index of the page counting from the first row of the data, so the page
+         *                  starts at row <code>pageIndex * pageSize</code>. The first page loaded
+         *                  after swapCursor is the one following the full pages of the swapped
+         *                  cursor, e.g. page 2 after a cursor of 40 rows with pages of 20 rows.
+         * @param pageSize number of rows in a page
+         * @return a cursor with the rows of the page. A cursor with less than pageSize rows or
+         * <code>null</code> means that there is no more data.
+         */
+        Cursor loadPage(int pageIndex, int pageSize);
+    }
+
+    /**
+     * A listener of load metrics, see setOnLoadMetricsListener.
+     */
+    public interface OnLoadMetricsListener {
+        /**
+         * Called on the main thread when a load has finished or failed. A load which is
+         * superseded by an unrelated swap, e.g. a refresh or a new filter result, isn't reported.
+         */
+        void onLoadMetrics(PartialLoadingAdapter adapter, LoadMetrics metrics);
+    }
+
+    /**
+     * A query of the filtering mode, see setFilterMode.
+     */
+    public interface FilterQuery {
+        /**
+         * Runs a query on the background thread. Check request.isCancelled() from time to time
+         * during long queries and give up if it returns <code>true</code>.
+         *
+         * @param constraint the constraint, never empty
+         * @param loadedCount the number of rows loaded for this constraint, 0 for the first
+         *                    portion
+         * @param request the request to check for cancellation
+         * @return a cursor with all the rows loaded for the constraint so far, a
+         * {@link PartialCursor} if there are more rows to load
+         */
+        Cursor runQuery(CharSequence constraint, int loadedCount, FilterRequest request);
+    }
+
+    /**
+     * Narrows a cached result of the filtering mode, see setFilterMode.
+     */
+    public interface RowMatcher {
+        /**
+         * Called on the background thread with the cursor moved to a row of the result of a
+         * shorter constraint.
+         *
+         * @return <code>true</code> if the row matches the constraint
+         */
+        boolean matches(Cursor cursor, CharSequence constraint);
+    }
+
+    /**
+     * A query of the filtering mode, which is cancelled when a new constraint arrives.
+     */
+    public static class FilterRequest {
+        private final String constraint;
+        private volatile boolean cancelled;
+
+        FilterRequest(String constraint) {
+            this.constraint = constraint;
+        }
+
+        public String getConstraint() {
+            return constraint;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
     private enum Status {
-        UNDEFINED, LOADING, READY
+        UNDEFINED, LOADING, READY, ERROR
     }
 
     private CursorAdapter          cursorAdapter;
@@ -54,6 +211,7 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
     private Context                context;
     private int                    loadingViewResId;
     private View                   loadingView;
+    private View                   headLoadingView;
     private boolean                isCursorPartial;
     private Status                 status;
     private int                    cursorLength;
@@ -61,6 +219,97 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
     private int                    scrollPositionThresholdCrossed;
     private int                    cursorPositionLoadingThreshold;
     private boolean                loadNextPortionOnBackgroundThread;
+    private Executor               executor;
+    private boolean                predictivePrefetchEnabled;
+    // scroll velocity in rows per millisecond, measured by the timing of getView calls
+    private double                 scrollVelocity;
+    private int                    velocitySamplePosition;
+    private long                   velocitySampleTime;
+    private long                   loadLatencyMillis = DEFAULT_LOAD_LATENCY_MILLIS;
+    private boolean                loadLatencyMeasured;
+    private long                   loadStartTime;
+    private PageLoader             pageLoader;
+    private int                    pageSize;
+    private int                    maxPagesInFlight;
+    private final Handler          handler = new Handler(Looper.getMainLooper());
+    // the cursor set by swapCursor covers the pages before firstPageIndex
+    private Cursor                 baseCursor;
+    private boolean                baseInWindow;
+    // pages following the base cursor, starting with windowFirstPage
+    private final ArrayList<Cursor> loadedPages = new ArrayList<Cursor>();
+    // pages loaded ahead of a page that is still in flight
+    private final SparseArray<Cursor> completedPages = new SparseArray<Cursor>();
+    private final SparseBooleanArray requestedPages = new SparseBooleanArray();
+    private int                    firstPageIndex;
+    private int                    windowFirstPage;
+    private int                    nextRequestedPage;
+    private int                    nextHeadRequestedPage;
+    private int                    maxWindowPages;
+    private ListView               windowListView;
+    // some pages before the window have been evicted, a loading item is shown at the top
+    private boolean                isHeadPartial;
+    private int                    pagesInFlight;
+    private int                    endPageIndex;
+    private int                    pipelineGeneration;
+    // placeholder mode, pages are indexed from the first row
+    private PageLoader             placeholderPageLoader;
+    private int                    placeholderViewResId;
+    private int                    totalCount;
+    private int                    maxCachedPages;
+    private int                    currentPlaceholderPage;
+    private int                    placeholderGeneration;
+    // cached pages in the access order, the least recently shown page comes first
+    private final LinkedHashMap<Integer, Cursor> cachedPages = new LinkedHashMap<Integer, Cursor>(16, 0.75f, true);
+    private final SparseArray<PageFetch> pageFetches = new SparseArray<PageFetch>();
+    private View                   errorView;
+    private int                    errorViewResId;
+    private int                    skeletonRowCount;
+    private int                    skeletonViewResId;
+    private long                   initialRetryDelayMillis = DEFAULT_INITIAL_RETRY_DELAY_MILLIS;
+    private long                   maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
+    private int                    maxAutoRetries = DEFAULT_MAX_AUTO_RETRIES;
+    private int                    consecutiveFailures;
+    private Throwable              lastLoadError;
+    // the page whose failure is being retried in the pipelined or placeholder mode, or -1
+    private int                    failedPage = -1;
+    private boolean                retryScheduled;
+    private long                   minLoadIntervalMillis;
+    private long                   lastLoadRequestTime;
+    private boolean                loadDeferred;
+    private final Random           random = new Random();
+    private OnLoadMetricsListener  loadMetricsListener;
+    private LoadMetrics            currentLoadMetrics;
+    private final SparseArray<LoadMetrics> pageLoadMetrics = new SparseArray<LoadMetrics>();
+    private int                    lastShownPosition = -1;
+    private int                    thresholdCrossings;
+    private long                   loadingViewShownSince;
+    private PrefixCachingFilter    prefixFilter;
+    // the cursor set by swapCursor, kept aside while a filtered result is shown
+    private Cursor                 unfilteredCursor;
+    private boolean                filtered;
+    // offsets of the portions requested on the background thread and not loaded yet
+    private final Set<Integer>     pendingPortions = new HashSet<Integer>();
+
+    private final Runnable retryRunnable = new Runnable() {
+        public void run() {
+            retryScheduled = false;
+            retry();
+        }
+    };
+
+    private final Runnable deferredLoadRunnable = new Runnable() {
+        public void run() {
+            loadDeferred = false;
+            startLoading();
+        }
+    };
+
+    private final View.OnClickListener errorViewClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            retry();
+        }
+    };
 
     public PartialLoadingAdapter(CursorAdapter cursorAdapter, PartialLoadingListener listener, Context context, int loadingViewResId) {
         if (context == null)
@@ -98,7 +347,484 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
         this.loadNextPortionOnBackgroundThread = loadNextPortionOnBackgroundThread;
     }
 
+    public boolean isPredictivePrefetchEnabled() {
+        return predictivePrefetchEnabled;
+    }
+
+    /**
+     * Turns the velocity based prefetch on or off. When it is off the fixed threshold set by
+     * setCursorPositionLoadingThreshold is used.
+     */
+    public void setPredictivePrefetchEnabled(boolean predictivePrefetchEnabled) {
+        this.predictivePrefetchEnabled = predictivePrefetchEnabled;
+        scrollVelocity = 0;
+        velocitySampleTime = 0;
+    }
+
+    /**
+     * @return the average time in milliseconds it takes to load a portion of data, measured in
+     * the predictive prefetch mode. It is 1000 ms until the first portion is loaded.
+     */
+    public long getLoadLatencyMillis() {
+        return loadLatencyMillis;
+    }
+
+    public PageLoader getPageLoader() {
+        return pageLoader;
+    }
+
+    /**
+     * Turns the pipelined mode on or off. The cursor set by swapCursor is expected to contain
+     * whole pages, the first page to load follows its last row. Changing the loader, the page
+     * size or the number of pages in flight while the mode is on affects the next requests only.
+     *
+     * @param pageLoader the loader of pages or <code>null</code> to turn the pipelined mode off
+     * @param pageSize number of rows in a page
+     * @param maxPagesInFlight the maximum number of pages loaded at the same time
+     */
+    public void setPageLoader(PageLoader pageLoader, int pageSize, int maxPagesInFlight) {
+        if (pageLoader != null && pageSize < 1)
+            throw new IllegalArgumentException("pageSize < 1");
+
+        if (pageLoader != null && maxPagesInFlight < 1)
+            throw new IllegalArgumentException("maxPagesInFlight < 1");
+
+        if (pageLoader != null && placeholderPageLoader != null)
+            throw new IllegalStateException("Placeholder mode is on");
+
+        boolean pipelined = this.pageLoader != null;
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+        this.maxPagesInFlight = maxPagesInFlight;
+
+        if (!pipelined) {
+            resetPipeline(cursorAdapter.getCursor());
+        } else if (pageLoader == null) {
+            // the loaded pages stay in the current cursor, only forget about them
+            ++pipelineGeneration;
+            loadedPages.clear();
+            requestedPages.clear();
+            pagesInFlight = 0;
+
+            for (int i = 0; i < completedPages.size(); i++) {
+                completedPages.valueAt(i).close();
+            }
+
+            completedPages.clear();
+
+            if (isHeadPartial) {
+                isHeadPartial = false;
+                notifyDataSetChanged();
+            }
+        }
+    }
+
+    public int getMaxWindowPages() {
+        return maxWindowPages;
+    }
+
+    /**
+     * Turns the windowed mode on or off. The windowed mode works along with the pipelined mode,
+     * see setPageLoader. The loading item at the top of the list is inflated from the loading
+     * layout, so an adapter created with a loading view needs a second view for the top, see
+     * setHeadLoadingView. Pages closer to the viewport than a page or the loading threshold are
+     * never evicted, since they would be loaded again right away, so the window can exceed
+     * maxWindowPages while the viewport and the thresholds on both sides don't fit into it.
+     *
+     * @param listView the list view showing this adapter, it is scrolled to keep the visible
+     *                 items in place when pages are added or evicted at the top
+     * @param maxWindowPages the maximum number of pages to keep, including the pages of the
+     *                       cursor set by swapCursor, or 0 to turn the windowed mode off
+     */
+    public void setWindowedMode(ListView listView, int maxWindowPages) {
+        if (maxWindowPages < 0)
+            throw new IllegalArgumentException("maxWindowPages < 0");
+
+        if (maxWindowPages > 0 && listView == null)
+            throw new IllegalArgumentException("listView == null");
+
+        if (maxWindowPages > 0 && loadingViewResId == 0 && headLoadingView == null)
+            throw new IllegalStateException("Adapter has been created with a loading view, call setHeadLoadingView first");
+
+        this.windowListView = maxWindowPages > 0 ? listView : null;
+        this.maxWindowPages = maxWindowPages;
+    }
+
+    /**
+     * @return the number of pages being loaded in the pipelined or placeholder mode
+     */
+    public int getPagesInFlight() {
+        return pagesInFlight + pageFetches.size();
+    }
+
+    public PageLoader getPlaceholderPageLoader() {
+        return placeholderPageLoader;
+    }
+
+    /**
+     * Turns the placeholder mode on or off. The wrapped adapter is used for its newView and
+     * bindView methods only, called with page cursors, so it must have a single view type, and
+     * all loaded rows get view type 0. The cursor set by swapCursor is not shown in this mode, but swapping it drops the cached
+     * pages, so call swapCursor when the data changes. Don't combine this mode with
+     * setPageLoader.
+     *
+     * @param pageLoader the loader of pages counting from the first row or <code>null</code> to
+     *                   turn the placeholder mode off
+     * @param pageSize number of rows in a page
+     * @param totalCount the total number of rows, see setTotalCount
+     * @param maxCachedPages the maximum number of loaded pages to keep
+     * @param placeholderViewResId the layout of placeholder rows
+     */
+    public void setPlaceholderMode(PageLoader pageLoader, int pageSize, int totalCount, int maxCachedPages,
+                                   int placeholderViewResId) {
+        if (pageLoader != null) {
+            if (this.pageLoader != null)
+                throw new IllegalStateException("Pipelined mode is on");
+
+            if (cursorAdapter.getViewTypeCount() > 1)
+                throw new IllegalStateException("Wrapped adapter has several view types");
+
+            if (pageSize < 1)
+                throw new IllegalArgumentException("pageSize < 1");
+
+            if (totalCount < 0)
+                throw new IllegalArgumentException("totalCount < 0");
+
+            if (maxCachedPages < 1)
+                throw new IllegalArgumentException("maxCachedPages < 1");
+        }
+
+        clearCachedPages();
+        this.placeholderPageLoader = pageLoader;
+        this.pageSize = pageSize;
+        this.totalCount = totalCount;
+        this.maxCachedPages = maxCachedPages;
+        this.placeholderViewResId = placeholderViewResId;
+        notifyDataSetChanged();
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Reports the total number of rows in the placeholder mode. Call it on the main thread as
+     * soon as the listener or the server tells the total.
+     */
+    public void setTotalCount(int totalCount) {
+        if (totalCount < 0)
+            throw new IllegalArgumentException("totalCount < 0");
+
+        if (this.totalCount != totalCount) {
+            this.totalCount = totalCount;
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * @return the number of loaded pages kept in the placeholder mode
+     */
+    public int getCachedPageCount() {
+        return cachedPages.size();
+    }
+
+    public View getHeadLoadingView() {
+        return headLoadingView;
+    }
+
+    /**
+     * Sets the loading item shown at the top of the list in the windowed mode. An adapter created
+     * with a loading view requires it, because the same view can't be shown at the top and at the
+     * bottom of the list at the same time. An adapter created with a loading layout inflates the
+     * head loading item from that layout.
+     */
+    public void setHeadLoadingView(View headLoadingView) {
+        if (loadingViewResId != 0)
+            throw new IllegalStateException("Adapter has been created with a loading layout");
+
+        if (headLoadingView == null && maxWindowPages > 0)
+            throw new IllegalStateException("Windowed mode requires a head loading view");
+
+        if (headLoadingView != null && headLoadingView == loadingView)
+            throw new IllegalArgumentException("headLoadingView is the loading view");
+
+        this.headLoadingView = headLoadingView;
+    }
+
+    /**
+     * Sets the view shown instead of the loading view when automatic retries are exhausted.
+     * Tapping it retries loading. Without an error view the loading view stays in place.
+     */
+    public void setErrorView(View errorView) {
+        this.errorView = errorView;
+        this.errorViewResId = 0;
+    }
+
+    /**
+     * Sets the layout of the view shown instead of the loading view when automatic retries are
+     * exhausted, see setErrorView.
+     */
+    public void setErrorViewResource(int errorViewResId) {
+        if (context == null)
+            throw new IllegalStateException("Adapter has been created without a context");
+
+        this.errorView = null;
+        this.errorViewResId = errorViewResId;
+    }
+
+    public int getSkeletonRowCount() {
+        return skeletonRowCount;
+    }
+
+    /**
+     * Shows the given number of skeleton rows instead of the loading item while there is more
+     * data to load. Set the count to 0 to show the loading item again.
+     *
+     * @param skeletonRowCount the number of skeleton rows
+     * @param skeletonViewResId the layout of a skeleton row
+     */
+    public void setSkeletonRows(int skeletonRowCount, int skeletonViewResId) {
+        if (skeletonRowCount < 0)
+            throw new IllegalArgumentException("skeletonRowCount < 0");
+
+        if (skeletonRowCount > 0 && skeletonViewResId == 0)
+            throw new IllegalArgumentException("skeletonViewResId == 0");
+
+        this.skeletonRowCount = skeletonRowCount;
+        this.skeletonViewResId = skeletonViewResId;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Sets up automatic retries of failed loads. The n-th retry is delayed by
+     * initialDelayMillis * 2^(n - 1), but no longer than maxDelayMillis, and a random jitter of
+     * up to a half of the delay is subtracted, so that many clients failing at once don't
+     * retry at once. The defaults are 1 s, 60 s and 5 retries.
+     *
+     * @param initialDelayMillis delay before the first retry
+     * @param maxDelayMillis the maximum delay before a retry
+     * @param maxAutoRetries the number of automatic retries, 0 to wait for the user to retry
+     */
+    public void setRetryPolicy(long initialDelayMillis, long maxDelayMillis, int maxAutoRetries) {
+        if (initialDelayMillis < 0)
+            throw new IllegalArgumentException("initialDelayMillis < 0");
+
+        if (maxDelayMillis < initialDelayMillis)
+            throw new IllegalArgumentException("maxDelayMillis < initialDelayMillis");
+
+        if (maxAutoRetries < 0)
+            throw new IllegalArgumentException("maxAutoRetries < 0");
+
+        this.initialRetryDelayMillis = initialDelayMillis;
+        this.maxRetryDelayMillis = maxDelayMillis;
+        this.maxAutoRetries = maxAutoRetries;
+    }
+
+    public long getMinLoadIntervalMillis() {
+        return minLoadIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum time in milliseconds between two requests of this adapter, including
+     * retries and pages of the pipelined mode. A request coming earlier is postponed. The
+     * default value is 0, e.g. no limit.
+     */
+    public void setMinLoadIntervalMillis(long minLoadIntervalMillis) {
+        if (minLoadIntervalMillis < 0)
+            throw new IllegalArgumentException("minLoadIntervalMillis < 0");
+
+        this.minLoadIntervalMillis = minLoadIntervalMillis;
+    }
+
+    /**
+     * Reports a failure of the current load. Use it when loadNextPortionOfData only starts an
+     * asynchronous load which fails later. Can be called on any thread.
+     */
+    public void notifyLoadFailed(final Throwable error) {
+        handler.post(new Runnable() {
+            public void run() {
+                if (status == Status.LOADING) {
+                    onLoadFailed(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return <code>true</code> if the last load has failed and hasn't been retried yet
+     */
+    public boolean isLoadFailed() {
+        return status == Status.ERROR;
+    }
+
+    /**
+     * @return the error of the last failed load or <code>null</code>
+     */
+    public Throwable getLastLoadError() {
+        return lastLoadError;
+    }
+
+    /**
+     * @return the number of failed loads since the last successful one
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Retries the failed load right away. Does nothing if the last load hasn't failed.
+     */
+    public void retry() {
+        if (status != Status.ERROR)
+            return;
+
+        cancelRetry();
+        status = Status.READY;
+        // in the placeholder mode the shown pages are requested again by getView
+        notifyDataSetChanged();
+
+        if (placeholderPageLoader != null)
+            return;
+
+        if (isHeadPartial) {
+            requestHeadPages();
+        }
+
+        if (isCursorPartial) {
+            loadNextPortionOfData(LoadMetrics.Trigger.RETRY);
+        }
+    }
+
+    public OnLoadMetricsListener getOnLoadMetricsListener() {
+        return loadMetricsListener;
+    }
+
+    /**
+     * Sets the listener of load metrics or <code>null</code> to stop collecting them. Nothing
+     * is measured without a listener.
+     */
+    public void setOnLoadMetricsListener(OnLoadMetricsListener loadMetricsListener) {
+        this.loadMetricsListener = loadMetricsListener;
+
+        if (loadMetricsListener == null) {
+            currentLoadMetrics = null;
+            pageLoadMetrics.clear();
+        }
+    }
+
+    /**
+     * Turns the filtering mode on or off. Don't combine it with setPageLoader or
+     * setPlaceholderMode.
+     *
+     * @param query the query of filtered results or <code>null</code> to turn the filtering
+     *              mode off and show the cursor set by swapCursor
+     * @param matcher matches rows against a constraint to narrow a cached result, or
+     *                <code>null</code> to always run a query
+     * @param cacheSize the number of recent constraints to keep the results of
+     */
+    public void setFilterMode(FilterQuery query, RowMatcher matcher, int cacheSize) {
+        if (query != null) {
+            if (pageLoader != null || placeholderPageLoader != null)
+                throw new IllegalStateException("Filtering mode can't be combined with paged modes");
+
+            if (cacheSize < 1)
+                throw new IllegalArgumentException("cacheSize < 1");
+        }
+
+        if (prefixFilter != null) {
+            prefixFilter.cancel();
+            prefixFilter.clearCache();
+            showUnfilteredCursor();
+        }
+
+        prefixFilter = query != null ? new PrefixCachingFilter(this, query, matcher, cacheSize) : null;
+    }
+
+    /**
+     * Filters the rows in the filtering mode, like getFilter().filter(constraint) does, but
+     * without a hop through the thread of the Filter. Must be called on the main thread.
+     *
+     * @param constraint the constraint, <code>null</code> or empty to show all rows
+     */
+    public void filter(CharSequence constraint) {
+        if (prefixFilter == null)
+            throw new IllegalStateException("Filtering mode is off");
+
+        prefixFilter.filter(constraint != null ? constraint.toString() : null);
+    }
+
+    /**
+     * @return the constraint of the shown result or <code>null</code> if nothing is filtered
+     */
+    public CharSequence getFilterConstraint() {
+        return prefixFilter != null ? prefixFilter.getConstraint() : null;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor loadNextPortionOfData is called on. Pass <code>null</code> to use the
+     * default shared pool of background priority threads.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * @return the number of portions requested on the background thread which are either
+     * waiting in the executor's queue or being loaded
+     */
+    public int getPendingLoadCount() {
+        synchronized (pendingPortions) {
+            return pendingPortions.size();
+        }
+    }
+
     public Cursor swapCursor(Cursor newCursor) {
+        if (filtered) {
+            // keep the new data aside, filter it again
+            Cursor oldCursor = unfilteredCursor;
+            unfilteredCursor = newCursor;
+            prefixFilter.refresh();
+            return oldCursor;
+        }
+
+        if (pageLoader != null) {
+            resetPipeline(newCursor);
+        }
+
+        if (placeholderPageLoader != null) {
+            clearCachedPages();
+        }
+
+        // new data has arrived, the failures are over
+        clearLoadFailure();
+        return swapLoadedCursor(newCursor);
+    }
+
+    private Cursor swapLoadedCursor(Cursor newCursor) {
+        // the requested portion is delivered by more rows or by the end of data
+        boolean portionDelivered = status == Status.LOADING && newCursor != null
+                && (newCursor.getCount() > cursorLength || !isCursorPartial(newCursor));
+
+        if (portionDelivered && loadStartTime != 0 && newCursor.getCount() > cursorLength) {
+            updateLoadLatency(SystemClock.uptimeMillis() - loadStartTime);
+        }
+
+        if (currentLoadMetrics != null) {
+            LoadMetrics metrics = currentLoadMetrics;
+            currentLoadMetrics = null;
+
+            // any other swap, e.g. a refresh, ends tracking of the load without a sample
+            if (portionDelivered) {
+                finishLoadMetrics(metrics, newCursor.getCount() - cursorLength, false);
+            } else {
+                loadingViewShownSince = 0;
+            }
+        }
+
         Cursor oldCursor = cursorAdapter.swapCursor(newCursor);
         initCursor(newCursor);
 
@@ -118,43 +844,200 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
     }
 
     public int getCount() {
-        return cursorAdapter.getCount() + (isCursorPartial ? 1 : 0);
+        if (placeholderPageLoader != null)
+            return totalCount;
+
+        return getHeadRowCount() + cursorAdapter.getCount() + getTailRowCount();
     }
 
     public Object getItem(int position) {
-        return position < cursorAdapter.getCount() ? cursorAdapter.getItem(position) : null;
+        if (placeholderPageLoader != null)
+            return getCachedRow(position);
+
+        position -= getHeadRowCount();
+        return position >= 0 && position < cursorAdapter.getCount() ? cursorAdapter.getItem(position) : null;
     }
 
     public long getItemId(int position) {
-        return position < cursorAdapter.getCount() ? cursorAdapter.getItemId(position) : -1;
+        if (placeholderPageLoader != null) {
+            Cursor row = getCachedRow(position);
+            int idColumn = row != null ? row.getColumnIndex(ID_COLUMN) : -1;
+            return idColumn >= 0 ? row.getLong(idColumn) : -1;
+        }
+
+        position -= getHeadRowCount();
+        return position >= 0 && position < cursorAdapter.getCount() ? cursorAdapter.getItemId(position) : -1;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return cursorAdapter.hasStableIds();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        if (placeholderPageLoader != null)
+            return getCachedRow(position) != null ? 0 : getSkeletonViewType();
+
+        position -= getHeadRowCount();
+
+        if (position < 0)
+            return getLoadingViewType();
+
+        if (position < cursorAdapter.getCount())
+            return cursorAdapter.getItemViewType(position);
+
+        if (isErrorViewShown())
+            return getErrorViewType();
+
+        return skeletonRowCount > 0 ? getSkeletonViewType() : getLoadingViewType();
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        // the view types of the wrapped adapter followed by the loading, skeleton and error types
+        return cursorAdapter.getViewTypeCount() + 3;
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
-        // check position threshold to start loading on scrolling down the list
-        if (isCursorPartial && position >= scrollPositionThreshold) {
+        if (placeholderPageLoader != null)
+            return getPlaceholderModeView(position, convertView, parent);
+
+        if (isHeadPartial) {
+            position -= getHeadRowCount();
+
+            // load the evicted pages back when the user scrolls up to the top of the window
+            if (position < getCursorPositionLoadingThreshold())
+                requestHeadPages();
+
+            if (position < 0)
+                return getLoadingView(true, parent);
+        }
+
+        lastShownPosition = position;
+
+        if (isCursorPartial && predictivePrefetchEnabled) {
+            trackScrollVelocity(position);
+
+            if (status == Status.READY && isCursorEndReachedSoon(position))
+                loadNextPortionOfData(LoadMetrics.Trigger.PREDICTIVE);
+        } else if (isCursorPartial && position >= scrollPositionThreshold) {
+            // check position threshold to start loading on scrolling down the list
             ++scrollPositionThresholdCrossed;
+            ++thresholdCrossings;
             loadNextPortionOfDataIfNeeded();
         }
 
         if (position < cursorAdapter.getCount())
             return cursorAdapter.getView(position, convertView, parent);
 
-        if (position > cursorAdapter.getCount())
-            return null;
-
-        if (!isCursorPartial)
+        if (position >= cursorAdapter.getCount() + getTailRowCount())
             return null;
 
-        if (loadingView == null) {
-            LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            loadingView = inflater.inflate(loadingViewResId, parent, false);
+        if (loadMetricsListener != null && loadingViewShownSince == 0) {
+            loadingViewShownSince = System.nanoTime();
         }
 
-        return loadingView;
+        if (isErrorViewShown())
+            return getErrorView(parent);
+
+        if (skeletonRowCount > 0)
+            return getSkeletonView(skeletonViewResId, convertView, parent);
+
+        return getLoadingView(false, parent);
     }
 
     public Filter getFilter() {
-        return cursorAdapter.getFilter();
+        return prefixFilter != null ? prefixFilter : cursorAdapter.getFilter();
+    }
+
+    /**
+     * Shows a result of the filtering mode.
+     *
+     * @param nextPortion <code>true</code> if the cursor is the shown result with the next
+     *                    portion loaded, otherwise the partial loading state starts over
+     */
+    void showFilteredCursor(Cursor cursor, boolean nextPortion) {
+        if (!filtered) {
+            filtered = true;
+            unfilteredCursor = cursorAdapter.getCursor();
+        }
+
+        if (!nextPortion) {
+            resetLoadingState();
+        }
+
+        clearLoadFailure();
+        Cursor oldCursor = swapLoadedCursor(cursor);
+
+        if (oldCursor != null && oldCursor != unfilteredCursor) {
+            oldCursor.close();
+        }
+    }
+
+    /**
+     * Shows the cursor set by swapCursor again when the constraint is cleared.
+     */
+    void showUnfilteredCursor() {
+        if (!filtered)
+            return;
+
+        filtered = false;
+        Cursor cursor = unfilteredCursor;
+        unfilteredCursor = null;
+        resetLoadingState();
+        clearLoadFailure();
+        Cursor oldCursor = swapLoadedCursor(cursor);
+
+        if (oldCursor != null && oldCursor != cursor) {
+            oldCursor.close();
+        }
+    }
+
+    /**
+     * Reports a failed query of the filtering mode.
+     *
+     * @param nextPortion <code>true</code> if the next portion of the shown result has failed
+     *                    to load, <code>false</code> if the first query of a new constraint has
+     */
+    void onFilterFailed(Throwable error, boolean nextPortion) {
+        if (nextPortion) {
+            onLoadFailed(error);
+            return;
+        }
+
+        // the previous result stays, and so does its failure, if any
+        if (status != Status.ERROR) {
+            lastLoadError = error;
+        }
+
+        // the new constraint has cancelled the load of the next portion of the previous result
+        if (status == Status.LOADING) {
+            currentLoadMetrics = null;
+            loadingViewShownSince = 0;
+            status = Status.READY;
+            loadNextPortionOfDataIfNeeded();
+        }
+    }
+
+    private void resetLoadingState() {
+        cancelRetry();
+
+        if (loadDeferred) {
+            loadDeferred = false;
+            handler.removeCallbacks(deferredLoadRunnable);
+        }
+
+        synchronized (pendingPortions) {
+            pendingPortions.clear();
+        }
+
+        currentLoadMetrics = null;
+        loadingViewShownSince = 0;
+        thresholdCrossings = 0;
+        scrollVelocity = 0;
+        velocitySampleTime = 0;
+        status = Status.UNDEFINED;
     }
 
     private void init(CursorAdapter cursorAdapter, PartialLoadingListener listener) {
@@ -168,17 +1051,39 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
         this.listener = listener;
         this.status = Status.UNDEFINED;
         this.loadNextPortionOnBackgroundThread = true;
+        this.executor = DEFAULT_EXECUTOR;
         setCursorPositionLoadingThreshold(CURSOR_POSITION_THRESHOLD);
         initCursor(cursorAdapter.getCursor());
     }
 
     private static final int CURSOR_POSITION_THRESHOLD               = 15;
     private static final int CURSOR_POSITION_THRESHOLD_CROSSED_LIMIT = 3;
+    private static final int DEFAULT_EXECUTOR_THREADS                = 2;
+    private static final long DEFAULT_LOAD_LATENCY_MILLIS            = 1000;
+    // velocity is sampled not more often than once per frame
+    private static final long VELOCITY_SAMPLE_MILLIS                 = 16;
+    // a longer pause between getView calls means the list has stopped
+    private static final long VELOCITY_IDLE_MILLIS                   = 500;
+    // loading always starts that close to the end whatever the velocity is
+    private static final int PREFETCH_MIN_ROWS                       = 5;
+    private static final double PREFETCH_LATENCY_FACTOR              = 1.5;
+    private static final long DEFAULT_INITIAL_RETRY_DELAY_MILLIS     = 1000;
+    private static final long DEFAULT_MAX_RETRY_DELAY_MILLIS         = 60000;
+    private static final int DEFAULT_MAX_AUTO_RETRIES                = 5;
+    private static final String ID_COLUMN                            = "_id";
+
+    private static final Executor DEFAULT_EXECUTOR = Executors.newFixedThreadPool(DEFAULT_EXECUTOR_THREADS,
+            new BackgroundThreadFactory("PartialLoadingAdapter"));
 
     private void initCursor(Cursor cursor) {
         isCursorPartial = isCursorPartial(cursor);
         cursorLength = cursor != null ? cursor.getCount() : 0;
-        status = Status.READY;
+
+        // rows of other pages don't make up for the failed one
+        if (status != Status.ERROR) {
+            status = Status.READY;
+        }
+
         resetScrollThreshold();
     }
 
@@ -194,27 +1099,864 @@ public class PartialLoadingAdapter extends BaseAdapter implements Filterable, Wr
     private void loadNextPortionOfDataIfNeeded() {
         if (isCursorPartial && status == Status.READY) {
             if (cursorLength <= getCursorPositionLoadingThreshold()) {
-                loadNextPortionOfData();
+                loadNextPortionOfData(LoadMetrics.Trigger.THRESHOLD);
             } else {
                 if (scrollPositionThresholdCrossed >= CURSOR_POSITION_THRESHOLD_CROSSED_LIMIT) {
-                    loadNextPortionOfData();
+                    loadNextPortionOfData(LoadMetrics.Trigger.THRESHOLD);
                 }
             }
         }
     }
 
-    private void loadNextPortionOfData() {
+    private void loadNextPortionOfData(LoadMetrics.Trigger trigger) {
         status = Status.LOADING;
+        loadStartTime = SystemClock.uptimeMillis();
 
-        if (isLoadNextPortionOnBackgroundThread()) {
-            new Thread(new Runnable() {
-                public void run() {
-                    listener.loadNextPortionOfData();
-                }
-            }).start();
-        } else {
-            listener.loadNextPortionOfData();
+        // pages of the pipelined mode are measured one by one
+        if (loadMetricsListener != null && pageLoader == null) {
+            currentLoadMetrics = new LoadMetrics(trigger, -1, lastShownPosition,
+                    cursorLength - lastShownPosition - 1, thresholdCrossings);
+            thresholdCrossings = 0;
+        }
+
+        startLoading();
+    }
+
+    private void startLoading() {
+        if (placeholderPageLoader != null) {
+            requestCachedPages(currentPlaceholderPage, -1);
+            return;
+        }
+
+        if (pageLoader != null) {
+            if (status == Status.LOADING) {
+                requestPages();
+            }
+
+            requestHeadPages();
+            return;
         }
+
+        if (status != Status.LOADING || !acquireLoadPermit())
+            return;
+
+        if (filtered) {
+            prefixFilter.loadNextPortion(cursorLength, currentLoadMetrics);
+            return;
+        }
+
+        if (isLoadNextPortionOnBackgroundThread()) {
+            final Integer portion = cursorLength;
+
+            synchronized (pendingPortions) {
+                // this portion is already requested
+                if (!pendingPortions.add(portion))
+                    return;
+            }
+
+            final LoadMetrics metrics = currentLoadMetrics;
+
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        final long started = System.nanoTime();
+
+                        try {
+                            listener.loadNextPortionOfData();
+                        } catch (RuntimeException e) {
+                            notifyLoadFailed(e);
+                        } finally {
+                            synchronized (pendingPortions) {
+                                pendingPortions.remove(portion);
+                            }
+                        }
+
+                        if (metrics != null) {
+                            final long finished = System.nanoTime();
+
+                            handler.post(new Runnable() {
+                                public void run() {
+                                    metrics.setCallTime(started, finished);
+                                    dispatchLoadMetrics(metrics);
+                                }
+                            });
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                synchronized (pendingPortions) {
+                    pendingPortions.remove(portion);
+                }
+                throw e;
+            }
+        } else {
+            LoadMetrics metrics = currentLoadMetrics;
+            long started = System.nanoTime();
+
+            try {
+                listener.loadNextPortionOfData();
+            } catch (RuntimeException e) {
+                onLoadFailed(e);
+            }
+
+            if (metrics != null) {
+                metrics.setCallTime(started, System.nanoTime());
+                dispatchLoadMetrics(metrics);
+            }
+        }
+    }
+
+    /**
+     * Marks the load as swapped in or failed, attaching the time the loading item has been
+     * shown, and reports its metrics once the load call has finished too.
+     */
+    private void finishLoadMetrics(LoadMetrics metrics, int rowsLoaded, boolean failed) {
+        metrics.setSwapTime(rowsLoaded, failed);
+
+        if (loadingViewShownSince != 0) {
+            metrics.loadingViewShown = true;
+            metrics.loadingViewShownNanos = System.nanoTime() - loadingViewShownSince;
+            loadingViewShownSince = 0;
+        }
+
+        dispatchLoadMetrics(metrics);
+    }
+
+    private void dispatchLoadMetrics(LoadMetrics metrics) {
+        if (metrics.callDone && metrics.swapDone && loadMetricsListener != null) {
+            loadMetricsListener.onLoadMetrics(this, metrics);
+        }
+    }
+
+    /**
+     * Checks the request rate limit and postpones loading if the limit is exceeded.
+     *
+     * @return <code>true</code> if a request can be made right now
+     */
+    private boolean acquireLoadPermit() {
+        long now = SystemClock.uptimeMillis();
+        long permitTime = lastLoadRequestTime + minLoadIntervalMillis;
+
+        if (minLoadIntervalMillis > 0 && lastLoadRequestTime != 0 && now < permitTime) {
+            if (!loadDeferred) {
+                loadDeferred = true;
+                handler.postAtTime(deferredLoadRunnable, permitTime);
+            }
+            return false;
+        }
+
+        lastLoadRequestTime = now;
+        return true;
+    }
+
+    private void onLoadFailed(Throwable error) {
+        if (currentLoadMetrics != null) {
+            LoadMetrics metrics = currentLoadMetrics;
+            currentLoadMetrics = null;
+            finishLoadMetrics(metrics, 0, true);
+        }
+
+        status = Status.ERROR;
+        lastLoadError = error;
+        ++consecutiveFailures;
+
+        if (consecutiveFailures <= maxAutoRetries) {
+            retryScheduled = true;
+            handler.postDelayed(retryRunnable, getRetryDelayMillis(consecutiveFailures));
+        }
+
+        notifyDataSetChanged();
+    }
+
+    private long getRetryDelayMillis(int attempt) {
+        long delay = initialRetryDelayMillis;
+
+        for (int i = 1; i < attempt && delay < maxRetryDelayMillis; i++) {
+            delay *= 2;
+        }
+
+        delay = Math.min(delay, maxRetryDelayMillis);
+        // subtract a random jitter of up to a half of the delay
+        return delay - (long) (random.nextDouble() * delay / 2);
+    }
+
+    /**
+     * Ends the failure state when the data that has failed to load arrives or is replaced.
+     */
+    private void clearLoadFailure() {
+        cancelRetry();
+        consecutiveFailures = 0;
+        lastLoadError = null;
+        failedPage = -1;
+
+        if (status == Status.ERROR) {
+            status = Status.READY;
+        }
+    }
+
+    private void cancelRetry() {
+        if (retryScheduled) {
+            retryScheduled = false;
+            handler.removeCallbacks(retryRunnable);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the failed load is waiting for the user to retry it
+     */
+    private boolean isErrorViewShown() {
+        return status == Status.ERROR && !retryScheduled && (errorView != null || errorViewResId != 0);
+    }
+
+    private View getErrorView(ViewGroup parent) {
+        if (errorView == null) {
+            LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            errorView = inflater.inflate(errorViewResId, parent, false);
+        }
+
+        errorView.setOnClickListener(errorViewClickListener);
+        return errorView;
+    }
+
+    private void trackScrollVelocity(int position) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - velocitySampleTime;
+
+        if (velocitySampleTime == 0 || elapsed > VELOCITY_IDLE_MILLIS || position < velocitySamplePosition) {
+            // the list has stopped or is scrolling up
+            scrollVelocity = 0;
+        } else if (elapsed < VELOCITY_SAMPLE_MILLIS) {
+            // rows bound within a single frame, e.g. on the first layout, say nothing about velocity
+            return;
+        } else {
+            double velocity = (double) (position - velocitySamplePosition) / elapsed;
+            scrollVelocity = scrollVelocity > 0 ? (scrollVelocity + velocity) / 2 : velocity;
+        }
+
+        velocitySamplePosition = position;
+        velocitySampleTime = now;
+    }
+
+    private boolean isCursorEndReachedSoon(int position) {
+        int rowsLeft = cursorLength - position;
+
+        if (rowsLeft <= PREFETCH_MIN_ROWS)
+            return true;
+
+        return scrollVelocity > 0 && rowsLeft / scrollVelocity <= loadLatencyMillis * PREFETCH_LATENCY_FACTOR;
+    }
+
+    private void updateLoadLatency(long latencyMillis) {
+        loadLatencyMillis = loadLatencyMeasured ? (loadLatencyMillis + latencyMillis) / 2 : latencyMillis;
+        loadLatencyMeasured = true;
+        loadStartTime = 0;
+    }
+
+    private void resetPipeline(Cursor baseCursor) {
+        ++pipelineGeneration;
+
+        for (Cursor page : loadedPages) {
+            page.close();
+        }
+
+        for (int i = 0; i < completedPages.size(); i++) {
+            completedPages.valueAt(i).close();
+        }
+
+        loadedPages.clear();
+        completedPages.clear();
+        requestedPages.clear();
+        pageLoadMetrics.clear();
+        this.baseCursor = baseCursor;
+        baseInWindow = baseCursor != null && baseCursor.getCount() > 0;
+        firstPageIndex = pageSize > 0 && baseCursor != null ? baseCursor.getCount() / pageSize : 0;
+        windowFirstPage = firstPageIndex;
+        nextRequestedPage = firstPageIndex;
+        nextHeadRequestedPage = firstPageIndex - 1;
+        pagesInFlight = 0;
+        endPageIndex = isCursorPartial(baseCursor) ? Integer.MAX_VALUE : firstPageIndex;
+        isHeadPartial = false;
+
+        synchronized (pendingPortions) {
+            pendingPortions.clear();
+        }
+    }
+
+    /**
+     * Requests the next pages after the window until there are maxPagesInFlight pages in flight.
+     */
+    private void requestPages() {
+        while (pagesInFlight < maxPagesInFlight && nextRequestedPage < endPageIndex && acquireLoadPermit()) {
+            requestPage(nextRequestedPage++);
+        }
+    }
+
+    /**
+     * Requests the pages before the window, nearest first, until there are maxPagesInFlight
+     * pages in flight.
+     */
+    private void requestHeadPages() {
+        if (pageLoader == null || !isHeadPartial || status == Status.ERROR)
+            return;
+
+        while (pagesInFlight < maxPagesInFlight && nextHeadRequestedPage >= 0 && acquireLoadPermit()) {
+            requestPage(nextHeadRequestedPage--);
+        }
+    }
+
+    private void requestPage(final int pageIndex) {
+        if (requestedPages.get(pageIndex) || completedPages.get(pageIndex) != null || isPageInWindow(pageIndex))
+            return;
+
+        final PageLoader pageLoader = this.pageLoader;
+        final int pageSize = this.pageSize;
+        final int generation = pipelineGeneration;
+        final Integer portion = pageIndex * pageSize;
+        requestedPages.put(pageIndex, true);
+        ++pagesInFlight;
+
+        if (loadMetricsListener != null) {
+            boolean tail = pageIndex >= windowFirstPage;
+            int rowsAhead = tail ? cursorLength - lastShownPosition - 1 : lastShownPosition;
+            pageLoadMetrics.put(pageIndex, new LoadMetrics(LoadMetrics.Trigger.PIPELINE, pageIndex,
+                    lastShownPosition, rowsAhead, 0));
+        }
+
+        synchronized (pendingPortions) {
+            pendingPortions.add(portion);
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                final long started = System.nanoTime();
+                final Cursor page;
+
+                try {
+                    page = pageLoader.loadPage(pageIndex, pageSize);
+
+                    if (page != null) {
+                        // fill the window here rather than on the UI thread
+                        page.getCount();
+                    }
+                } catch (final RuntimeException e) {
+                    final long finished = System.nanoTime();
+
+                    handler.post(new Runnable() {
+                        public void run() {
+                            setPageCallTime(generation, pageIndex, started, finished);
+                            onPageLoadFailed(generation, pageIndex, e);
+                        }
+                    });
+                    return;
+                } finally {
+                    synchronized (pendingPortions) {
+                        pendingPortions.remove(portion);
+                    }
+                }
+
+                final long finished = System.nanoTime();
+
+                handler.post(new Runnable() {
+                    public void run() {
+                        setPageCallTime(generation, pageIndex, started, finished);
+                        onPageLoaded(generation, pageIndex, page);
+                    }
+                });
+            }
+        });
+    }
+
+    private void setPageCallTime(int generation, int pageIndex, long started, long finished) {
+        LoadMetrics metrics = generation == pipelineGeneration ? pageLoadMetrics.get(pageIndex) : null;
+
+        if (metrics != null) {
+            metrics.setCallTime(started, finished);
+        }
+    }
+
+    /**
+     * Reports the metrics of a page which has been merged into the window or has failed.
+     */
+    private void finishPageLoadMetrics(int pageIndex, int rowsLoaded, boolean failed) {
+        LoadMetrics metrics = pageLoadMetrics.get(pageIndex);
+
+        if (metrics != null) {
+            pageLoadMetrics.remove(pageIndex);
+            finishLoadMetrics(metrics, rowsLoaded, failed);
+        }
+    }
+
+    private void onPageLoadFailed(int generation, int pageIndex, Throwable error) {
+        if (generation != pipelineGeneration)
+            return;
+
+        --pagesInFlight;
+        requestedPages.delete(pageIndex);
+        finishPageLoadMetrics(pageIndex, 0, true);
+
+        // request the page again on retry
+        if (pageIndex >= windowFirstPage) {
+            nextRequestedPage = Math.min(nextRequestedPage, pageIndex);
+        } else {
+            nextHeadRequestedPage = Math.max(nextHeadRequestedPage, pageIndex);
+        }
+
+        if (status != Status.ERROR) {
+            failedPage = pageIndex;
+            onLoadFailed(error);
+        }
+    }
+
+    private boolean isPageInWindow(int pageIndex) {
+        return (baseInWindow && pageIndex < firstPageIndex)
+                || (pageIndex >= windowFirstPage && pageIndex < windowFirstPage + loadedPages.size());
+    }
+
+    private void onPageLoaded(int generation, int pageIndex, Cursor page) {
+        if (page == null) {
+            page = new MatrixCursor(baseCursor != null ? baseCursor.getColumnNames() : new String[0]);
+        }
+
+        if (generation != pipelineGeneration) {
+            page.close();
+            return;
+        }
+
+        --pagesInFlight;
+        requestedPages.delete(pageIndex);
+
+        if (pageIndex >= endPageIndex || isPageInWindow(pageIndex) || completedPages.get(pageIndex) != null) {
+            pageLoadMetrics.remove(pageIndex);
+            page.close();
+            return;
+        }
+
+        // the viewport in the coordinates of the current cursor
+        int firstVisibleRow = 0;
+        int lastVisibleRow = cursorLength - 1;
+
+        if (windowListView != null) {
+            int offset = windowListView.getHeaderViewsCount() + getHeadRowCount();
+            firstVisibleRow = windowListView.getFirstVisiblePosition() - offset;
+            lastVisibleRow = windowListView.getLastVisiblePosition() - offset;
+        }
+
+        completedPages.put(pageIndex, page);
+        int windowEndPage = windowFirstPage + loadedPages.size();
+        int rowsAddedAtHead = 0;
+        boolean merged = false;
+        // a failure reported by notifyLoadFailed ends with any page
+        boolean failedPageMerged = failedPage < 0;
+
+        // append pages strictly in order
+        while (windowEndPage < endPageIndex && (page = completedPages.get(windowEndPage)) != null) {
+            completedPages.remove(windowEndPage);
+            loadedPages.add(page);
+            finishPageLoadMetrics(windowEndPage, page.getCount(), false);
+            failedPageMerged |= windowEndPage == failedPage;
+            merged = true;
+
+            if (page.getCount() < pageSize) {
+                endPageIndex = windowEndPage + 1;
+            }
+
+            ++windowEndPage;
+        }
+
+        // prepend pages evicted before, nearest first
+        while (!baseInWindow && windowFirstPage > 0 && (page = completedPages.get(windowFirstPage - 1)) != null) {
+            completedPages.remove(windowFirstPage - 1);
+            loadedPages.add(0, page);
+            --windowFirstPage;
+            finishPageLoadMetrics(windowFirstPage, page.getCount(), false);
+            failedPageMerged |= windowFirstPage == failedPage;
+            rowsAddedAtHead += page.getCount();
+            merged = true;
+        }
+
+        if (endPageIndex != Integer.MAX_VALUE) {
+            // drop the pages loaded past the end of the data
+            for (int i = completedPages.size() - 1; i >= 0; --i) {
+                if (completedPages.keyAt(i) >= endPageIndex) {
+                    pageLoadMetrics.remove(completedPages.keyAt(i));
+                    completedPages.valueAt(i).close();
+                    completedPages.remove(completedPages.keyAt(i));
+                }
+            }
+        }
+
+        if (!merged)
+            return;
+
+        if (failedPageMerged) {
+            clearLoadFailure();
+        }
+
+        int rowsRemovedAtHead = evictPages(firstVisibleRow + rowsAddedAtHead, lastVisibleRow + rowsAddedAtHead);
+        swapWindow(rowsAddedAtHead - rowsRemovedAtHead);
+    }
+
+    /**
+     * Evicts the pages far from the viewport until the window fits into maxWindowPages.
+     *
+     * @return the number of rows evicted above the viewport
+     */
+    private int evictPages(int firstVisibleRow, int lastVisibleRow) {
+        if (maxWindowPages <= 0)
+            return 0;
+
+        int rowsRemovedAtHead = 0;
+        int windowRows = baseInWindow ? baseCursor.getCount() : 0;
+        // a page closer than the loading threshold would be requested again right away
+        int minDistance = Math.max(pageSize, getCursorPositionLoadingThreshold());
+
+        for (Cursor page : loadedPages) {
+            windowRows += page.getCount();
+        }
+
+        while (getWindowPageCount() > maxWindowPages) {
+            int headRows = baseInWindow ? baseCursor.getCount() : loadedPages.get(0).getCount();
+            int tailRows = loadedPages.isEmpty() ? 0 : loadedPages.get(loadedPages.size() - 1).getCount();
+            // how far the head ends above the viewport and the tail starts below it
+            int headDistance = firstVisibleRow - headRows;
+            int tailDistance = windowRows - tailRows - lastVisibleRow - 1;
+            boolean canEvictHead = headDistance >= minDistance && (baseInWindow || loadedPages.size() > 1);
+            boolean canEvictTail = tailDistance >= minDistance && !loadedPages.isEmpty();
+
+            if (canEvictHead && (!canEvictTail || headDistance >= tailDistance)) {
+                if (baseInWindow) {
+                    // the cursor set by swapCursor is not ours to close, just leave it out
+                    baseInWindow = false;
+                } else {
+                    loadedPages.remove(0).close();
+                    ++windowFirstPage;
+                }
+
+                nextHeadRequestedPage = windowFirstPage - 1;
+                rowsRemovedAtHead += headRows;
+                windowRows -= headRows;
+                firstVisibleRow -= headRows;
+                lastVisibleRow -= headRows;
+            } else if (canEvictTail) {
+                loadedPages.remove(loadedPages.size() - 1).close();
+                nextRequestedPage = windowFirstPage + loadedPages.size();
+                windowRows -= tailRows;
+            } else {
+                // everything left is close to the viewport
+                break;
+            }
+        }
+
+        return rowsRemovedAtHead;
+    }
+
+    private int getWindowPageCount() {
+        return loadedPages.size() + (baseInWindow ? Math.max(firstPageIndex, 1) : 0);
+    }
+
+    /**
+     * Shows the current window keeping the visible rows in place.
+     *
+     * @param rowsShifted the number of rows added above the viewport minus the number of rows
+     *                    removed above it
+     */
+    private void swapWindow(int rowsShifted) {
+        int oldHeadRowCount = getHeadRowCount();
+        int firstVisiblePosition = 0;
+        int firstVisibleTop = 0;
+
+        if (windowListView != null) {
+            View firstVisibleView = windowListView.getChildAt(0);
+            firstVisiblePosition = windowListView.getFirstVisiblePosition();
+            firstVisibleTop = firstVisibleView != null ? firstVisibleView.getTop() : 0;
+        }
+
+        Cursor[] cursors = new Cursor[loadedPages.size() + 1];
+        cursors[0] = baseInWindow ? baseCursor : null;
+
+        for (int i = 0; i < loadedPages.size(); i++) {
+            cursors[i + 1] = loadedPages.get(i);
+        }
+
+        isHeadPartial = !baseInWindow && windowFirstPage > 0;
+        int windowEndPage = windowFirstPage + loadedPages.size();
+        swapLoadedCursor(new PagedPartialCursor(cursors, windowEndPage < endPageIndex));
+
+        int shift = rowsShifted + getHeadRowCount() - oldHeadRowCount;
+
+        if (windowListView != null && shift != 0) {
+            windowListView.setSelectionFromTop(firstVisiblePosition + shift, firstVisibleTop);
+        }
+    }
+
+    private View getPlaceholderModeView(int position, View convertView, ViewGroup parent) {
+        lastShownPosition = position;
+        int pageIndex = position / pageSize;
+        int rowInPage = position % pageSize;
+        // prefetch the neighbour page the user is approaching
+        int prefetchPage = -1;
+
+        if (rowInPage >= pageSize - getCursorPositionLoadingThreshold()) {
+            prefetchPage = pageIndex + 1;
+        } else if (rowInPage < getCursorPositionLoadingThreshold()) {
+            prefetchPage = pageIndex - 1;
+        }
+
+        requestCachedPages(pageIndex, prefetchPage);
+        Cursor row = getCachedRow(position);
+
+        if (row == null)
+            return getSkeletonView(placeholderViewResId, convertView, parent);
+
+        View view = convertView != null ? convertView : cursorAdapter.newView(parent.getContext(), row, parent);
+        cursorAdapter.bindView(view, parent.getContext(), row);
+        return view;
+    }
+
+    /**
+     * @return the page cursor moved to the row or <code>null</code> if the page is not loaded
+     */
+    private Cursor getCachedRow(int position) {
+        if (position < 0 || position >= totalCount)
+            return null;
+
+        Cursor page = cachedPages.get(position / pageSize);
+        return page != null && page.moveToPosition(position % pageSize) ? page : null;
+    }
+
+    /**
+     * Loads the shown page and the prefetched one if they are missing, and cancels the loads of
+     * the pages far from the shown one.
+     */
+    private void requestCachedPages(int pageIndex, int prefetchPage) {
+        currentPlaceholderPage = pageIndex;
+        int keepDistance = Math.max(1, maxCachedPages / 2);
+
+        for (int i = pageFetches.size() - 1; i >= 0; --i) {
+            if (Math.abs(pageFetches.keyAt(i) - pageIndex) > keepDistance) {
+                pageFetches.valueAt(i).cancelled = true;
+                pageFetches.remove(pageFetches.keyAt(i));
+            }
+        }
+
+        fetchPage(pageIndex);
+
+        if (prefetchPage >= 0 && prefetchPage * pageSize < totalCount) {
+            fetchPage(prefetchPage);
+        }
+    }
+
+    private void fetchPage(int pageIndex) {
+        if (status == Status.ERROR || cachedPages.containsKey(pageIndex) || pageFetches.get(pageIndex) != null)
+            return;
+
+        if (!acquireLoadPermit())
+            return;
+
+        PageFetch fetch = new PageFetch(placeholderPageLoader, pageIndex, pageSize, placeholderGeneration);
+
+        if (loadMetricsListener != null) {
+            fetch.metrics = new LoadMetrics(LoadMetrics.Trigger.PLACEHOLDER, pageIndex, lastShownPosition,
+                    Math.abs(pageIndex * pageSize - lastShownPosition), 0);
+        }
+
+        pageFetches.put(pageIndex, fetch);
+        executor.execute(fetch);
+    }
+
+    private void onPageFetched(PageFetch fetch, Cursor page, Throwable error) {
+        if (fetch.generation != placeholderGeneration || pageFetches.get(fetch.pageIndex) != fetch) {
+            // cancelled while loading
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+
+        pageFetches.remove(fetch.pageIndex);
+
+        if (fetch.metrics != null) {
+            finishLoadMetrics(fetch.metrics, page != null ? page.getCount() : 0, error != null);
+        }
+
+        if (error != null) {
+            if (status != Status.ERROR) {
+                failedPage = fetch.pageIndex;
+                onLoadFailed(error);
+            }
+            return;
+        }
+
+        // a sibling page doesn't end the failure of the page being retried
+        if (failedPage < 0 || fetch.pageIndex == failedPage) {
+            clearLoadFailure();
+        }
+
+        int rows = page != null ? page.getCount() : 0;
+
+        // a short page means that there are less rows than reported
+        if (rows < pageSize && fetch.pageIndex * pageSize + rows < totalCount) {
+            totalCount = fetch.pageIndex * pageSize + rows;
+        }
+
+        if (page != null) {
+            cachedPages.put(fetch.pageIndex, page);
+        }
+
+        // evict the least recently shown pages
+        Iterator<Map.Entry<Integer, Cursor>> iterator = cachedPages.entrySet().iterator();
+
+        while (cachedPages.size() > maxCachedPages && iterator.hasNext()) {
+            Map.Entry<Integer, Cursor> entry = iterator.next();
+
+            if (entry.getKey() != currentPlaceholderPage) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+
+        notifyDataSetChanged();
+    }
+
+    private void clearCachedPages() {
+        ++placeholderGeneration;
+
+        for (Cursor page : cachedPages.values()) {
+            page.close();
+        }
+
+        for (int i = 0; i < pageFetches.size(); i++) {
+            pageFetches.valueAt(i).cancelled = true;
+        }
+
+        cachedPages.clear();
+        pageFetches.clear();
+    }
+
+    /**
+     * A load of a page in the placeholder mode. A cancelled load that hasn't started yet is
+     * skipped, the result of a load cancelled while running is closed.
+     */
+    private class PageFetch implements Runnable {
+        private final PageLoader loader;
+        private final int pageIndex;
+        private final int pageSize;
+        private final int generation;
+        private volatile boolean cancelled;
+        private LoadMetrics metrics;
+
+        PageFetch(PageLoader loader, int pageIndex, int pageSize, int generation) {
+            this.loader = loader;
+            this.pageIndex = pageIndex;
+            this.pageSize = pageSize;
+            this.generation = generation;
+        }
+
+        public void run() {
+            if (cancelled)
+                return;
+
+            final long started = System.nanoTime();
+            Cursor page = null;
+            Throwable error = null;
+
+            try {
+                page = loader.loadPage(pageIndex, pageSize);
+
+                if (page != null) {
+                    // fill the window here rather than on the UI thread
+                    page.getCount();
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            final long finished = System.nanoTime();
+            final Cursor loadedPage = page;
+            final Throwable loadError = error;
+
+            handler.post(new Runnable() {
+                public void run() {
+                    if (metrics != null) {
+                        metrics.setCallTime(started, finished);
+                    }
+
+                    onPageFetched(PageFetch.this, loadedPage, loadError);
+                }
+            });
+        }
+    }
+
+    private int getHeadRowCount() {
+        return isHeadPartial ? 1 : 0;
+    }
+
+    /**
+     * @return the number of loading, skeleton or error rows after the loaded rows
+     */
+    private int getTailRowCount() {
+        if (!isCursorPartial)
+            return 0;
+
+        if (isErrorViewShown())
+            return 1;
+
+        return Math.max(skeletonRowCount, 1);
+    }
+
+    private int getLoadingViewType() {
+        return cursorAdapter.getViewTypeCount();
+    }
+
+    private int getSkeletonViewType() {
+        return cursorAdapter.getViewTypeCount() + 1;
+    }
+
+    private int getErrorViewType() {
+        return cursorAdapter.getViewTypeCount() + 2;
+    }
+
+    /**
+     * @return the recycled skeleton row or a new one, skeleton rows have no data to bind
+     */
+    private View getSkeletonView(int layoutResId, View convertView, ViewGroup parent) {
+        if (convertView != null)
+            return convertView;
+
+        return LayoutInflater.from(parent.getContext()).inflate(layoutResId, parent, false);
+    }
+
+    private View getLoadingView(boolean head, ViewGroup parent) {
+        if (head) {
+            // a view set by setHeadLoadingView is always usable, see isLoadingViewUsable
+            if (!isLoadingViewUsable(headLoadingView, parent)) {
+                headLoadingView = inflateLoadingView(parent);
+            }
+
+            return headLoadingView;
+        }
+
+        if (!isLoadingViewUsable(loadingView, parent)) {
+            loadingView = inflateLoadingView(parent);
+        }
+
+        return loadingView;
+    }
+
+    /**
+     * @return <code>false</code> if the view has to be inflated, e.g. it doesn't exist yet or it
+     * has been inflated for another list view
+     */
+    private boolean isLoadingViewUsable(View view, ViewGroup parent) {
+        if (view == null)
+            return false;
+
+        return loadingViewResId == 0 || view.getParent() == null || view.getParent() == parent;
+    }
+
+    private View inflateLoadingView(ViewGroup parent) {
+        LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        return inflater.inflate(loadingViewResId, parent, false);
     }
 
     private void setScrollPositionThreshold(int scrollPositionThreshold) {
@@ -0,0 +1,126 @@
+package com.furdei.furdroid.components.widget;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A histogram of non-negative long values that answers percentile queries in constant memory.
+ * Values below 32 are counted exactly, larger values fall into buckets 16 per power of two,
+ * so a reported percentile is never off by more than about 6%.
+ * </p><p>
+ * All methods are thread safe.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class PercentileHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Adds a value to the histogram. Negative values are counted as 0.
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        ++counts[bucketOf(value)];
+        ++count;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest recorded value or 0 if the histogram is empty
+     */
+    public synchronized long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    /**
+     * @return the largest recorded value or 0 if the histogram is empty
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the recorded values or 0 if the histogram is empty
+     */
+    public synchronized double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * Returns a value that is greater than or equal to the given percentage of recorded values.
+     *
+     * @param percentile a number between 0 and 100, e.g. 50 for the median or 99.9
+     * @return the upper bound of the bucket the percentile falls into, or 0 if the histogram
+     * is empty
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts[bucket];
+
+            if (seen >= rank)
+                return Math.min(Math.max(upperBoundOf(bucket), min), max);
+        }
+
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + count +
+                " min=" + getMin() +
+                " p50=" + getPercentile(50) +
+                " p90=" + getPercentile(90) +
+                " p99=" + getPercentile(99) +
+                " max=" + max;
+    }
+
+    private static int bucketOf(long value) {
+        int shift = Math.max(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS, 0);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
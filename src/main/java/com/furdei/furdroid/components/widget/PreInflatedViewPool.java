@@ -0,0 +1,171 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * A pool of views inflated in advance on a background thread. Call
+ * {@link #preInflate(int, android.view.ViewGroup, int)} while the data is still loading and take
+ * views from the pool with {@link #obtain(int, android.view.ViewGroup)} when binding it. A view is
+ * inflated synchronously only when the pool runs dry. Hit and miss counters help to tune the
+ * number of views inflated in advance.
+ * </p><p>
+ * Note that inflating on a background thread works only for layouts whose views don't need
+ * a Looper in their constructors, e.g. don't create a Handler.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class PreInflatedViewPool {
+
+    private static final Executor INFLATER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PreInflatedViewPool"));
+
+    // LayoutInflater is not thread-safe, so the background thread has an inflater of its own
+    private final LayoutInflater inflater;
+    private final LayoutInflater backgroundInflater;
+    private final SparseArray<ArrayList<View>> views = new SparseArray<ArrayList<View>>();
+    private final SparseIntArray pendingCounts = new SparseIntArray();
+    private int generation;
+    private int hitCount;
+    private int missCount;
+
+    public PreInflatedViewPool(Context context) {
+        if (context == null)
+            throw new IllegalArgumentException("context == null");
+
+        this.inflater = LayoutInflater.from(context);
+        this.backgroundInflater = inflater.cloneInContext(context);
+    }
+
+    /**
+     * Inflates views of the given layout on a background thread until the pool holds
+     * <code>count</code> views of this layout.
+     *
+     * @param layoutResId layout to inflate
+     * @param root the future parent of the views used to generate their layout params
+     * @param count number of views of this layout to keep in the pool
+     */
+    public void preInflate(final int layoutResId, final ViewGroup root, int count) {
+        final int toInflate;
+        final int generation;
+
+        synchronized (this) {
+            int pending = pendingCounts.get(layoutResId);
+            toInflate = count - getPooledCount(layoutResId) - pending;
+
+            if (toInflate <= 0)
+                return;
+
+            pendingCounts.put(layoutResId, pending + toInflate);
+            generation = this.generation;
+        }
+
+        INFLATER_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                for (int i = 0; i < toInflate; i++) {
+                    View view;
+
+                    try {
+                        view = backgroundInflater.inflate(layoutResId, root, false);
+                    } catch (RuntimeException e) {
+                        // this layout can't be inflated off the UI thread, it will be inflated on demand
+                        view = null;
+                    }
+
+                    synchronized (PreInflatedViewPool.this) {
+                        if (generation != PreInflatedViewPool.this.generation)
+                            return;
+
+                        if (view == null) {
+                            pendingCounts.put(layoutResId, pendingCounts.get(layoutResId) - (toInflate - i));
+                            return;
+                        }
+
+                        pendingCounts.put(layoutResId, pendingCounts.get(layoutResId) - 1);
+                        getViews(layoutResId).add(view);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a pre-inflated view of the given layout from the pool or inflates a new one if
+     * there is none. Must be called on the UI thread.
+     *
+     * @param layoutResId layout to inflate
+     * @param root the future parent of the view used to generate its layout params
+     * @return a view that is not attached to any parent
+     */
+    public View obtain(int layoutResId, ViewGroup root) {
+        synchronized (this) {
+            ArrayList<View> pooled = views.get(layoutResId);
+
+            if (pooled != null && !pooled.isEmpty()) {
+                ++hitCount;
+                return pooled.remove(pooled.size() - 1);
+            }
+
+            ++missCount;
+        }
+
+        return inflater.inflate(layoutResId, root, false);
+    }
+
+    /**
+     * @return the number of views of the given layout that are ready to use
+     */
+    public synchronized int getPooledCount(int layoutResId) {
+        ArrayList<View> pooled = views.get(layoutResId);
+        return pooled != null ? pooled.size() : 0;
+    }
+
+    /**
+     * @return the number of views taken from the pool
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of views inflated on demand because the pool was empty
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized void resetCounters() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * Throws away all pooled views and stops inflating views in advance.
+     */
+    public synchronized void clear() {
+        ++generation;
+        views.clear();
+        pendingCounts.clear();
+    }
+
+    private ArrayList<View> getViews(int layoutResId) {
+        ArrayList<View> pooled = views.get(layoutResId);
+
+        if (pooled == null) {
+            pooled = new ArrayList<View>();
+            views.put(layoutResId, pooled);
+        }
+
+        return pooled;
+    }
+}
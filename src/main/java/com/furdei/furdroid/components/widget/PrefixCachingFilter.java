@@ -0,0 +1,324 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Filter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The filter of {@link PartialLoadingAdapter} in the filtering mode. A new constraint cancels
+ * the query of the previous one. Results of recent constraints are cached, so going back to a
+ * constraint shows its result right away, and when a constraint extends a cached one whose
+ * result is complete, the cached result is narrowed with a row matcher instead of running a
+ * new query.
+ * </p><p>
+ * The Android Filter API runs performFiltering on a thread of its own which can't be
+ * interrupted, so this filter only hands constraints over to {@link #filter(String)} on the
+ * main thread and runs queries on the executor of the adapter.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+class PrefixCachingFilter extends Filter {
+
+    /**
+     * A cached result of a constraint.
+     */
+    private static class Entry {
+        private final FilteredPartialCursor.Source source;
+        private final int[] positions;
+        private final boolean partial;
+
+        Entry(FilteredPartialCursor.Source source, int[] positions, boolean partial) {
+            this.source = source;
+            this.positions = positions;
+            this.partial = partial;
+        }
+
+        int getCount() {
+            return positions != null ? positions.length : source.cursor.getCount();
+        }
+    }
+
+    // check for cancellation that often while narrowing
+    private static final int NARROW_CHECK_ROWS = 256;
+
+    private final PartialLoadingAdapter adapter;
+    private final PartialLoadingAdapter.FilterQuery query;
+    private final PartialLoadingAdapter.RowMatcher matcher;
+    private final int cacheSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // accessed on the main thread only
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private PartialLoadingAdapter.FilterRequest currentRequest;
+    // the last constraint passed to filter
+    private String constraint;
+    // the constraint of the shown result, which lags behind while a query is running
+    private String shownConstraint;
+
+    PrefixCachingFilter(PartialLoadingAdapter adapter, PartialLoadingAdapter.FilterQuery query,
+                        PartialLoadingAdapter.RowMatcher matcher, int cacheSize) {
+        this.adapter = adapter;
+        this.query = query;
+        this.matcher = matcher;
+        this.cacheSize = cacheSize;
+    }
+
+    @Override
+    protected FilterResults performFiltering(CharSequence constraint) {
+        FilterResults results = new FilterResults();
+        results.values = constraint != null ? constraint.toString() : "";
+        return results;
+    }
+
+    @Override
+    protected void publishResults(CharSequence constraint, FilterResults results) {
+        filter((String) results.values);
+    }
+
+    /**
+     * @return the constraint of the shown result or <code>null</code> if nothing is filtered
+     */
+    String getConstraint() {
+        return shownConstraint;
+    }
+
+    /**
+     * Shows the result of the constraint, from the cache if possible. Must be called on the main
+     * thread.
+     */
+    void filter(String constraint) {
+        cancel();
+
+        if (constraint == null || constraint.length() == 0) {
+            this.constraint = null;
+            shownConstraint = null;
+            adapter.showUnfilteredCursor();
+            return;
+        }
+
+        this.constraint = constraint;
+        Entry entry = cache.get(constraint);
+
+        if (entry != null) {
+            shownConstraint = constraint;
+            adapter.showFilteredCursor(new FilteredPartialCursor(entry.source, entry.positions, entry.partial), false);
+            return;
+        }
+
+        final PartialLoadingAdapter.FilterRequest request = new PartialLoadingAdapter.FilterRequest(constraint);
+        final Entry superset = findSuperset(constraint);
+        currentRequest = request;
+
+        if (superset != null) {
+            // keep the superset open while narrowing even if it is evicted meanwhile
+            superset.source.retain();
+        }
+
+        adapter.getExecutor().execute(new Runnable() {
+            public void run() {
+                if (request.isCancelled()) {
+                    if (superset != null) {
+                        superset.source.release();
+                    }
+                    return;
+                }
+
+                Entry result = null;
+                Throwable error = null;
+
+                try {
+                    result = superset != null ? narrow(superset, request) : runQuery(request, 0);
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    if (superset != null) {
+                        superset.source.release();
+                    }
+                }
+
+                publish(request, result, error, false, null, 0, 0);
+            }
+        });
+    }
+
+    /**
+     * Loads the next portion of the shown result. Does nothing while the shown result is about
+     * to be replaced by the result of a query in flight.
+     *
+     * @param loadedCount the number of rows shown
+     * @param metrics metrics of the load or <code>null</code>
+     */
+    void loadNextPortion(final int loadedCount, final LoadMetrics metrics) {
+        if (shownConstraint == null)
+            throw new IllegalStateException("Nothing is filtered");
+
+        if (currentRequest != null)
+            return;
+
+        final PartialLoadingAdapter.FilterRequest request = new PartialLoadingAdapter.FilterRequest(shownConstraint);
+        currentRequest = request;
+
+        adapter.getExecutor().execute(new Runnable() {
+            public void run() {
+                long started = System.nanoTime();
+                Entry result = null;
+                Throwable error = null;
+
+                try {
+                    result = runQuery(request, loadedCount);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+
+                publish(request, result, error, true, metrics, started, System.nanoTime());
+            }
+        });
+    }
+
+    /**
+     * Drops the cached results and filters with the last constraint again, e.g. when the data
+     * has changed. The shown result stays until the new one arrives.
+     */
+    void refresh() {
+        clearCache();
+        filter(constraint);
+    }
+
+    /**
+     * Drops the cached results. The shown result stays open.
+     */
+    void clearCache() {
+        for (Entry entry : cache.values()) {
+            entry.source.release();
+        }
+
+        cache.clear();
+    }
+
+    /**
+     * Cancels the query in flight, if any.
+     */
+    void cancel() {
+        if (currentRequest != null) {
+            currentRequest.cancel();
+            currentRequest = null;
+        }
+    }
+
+    private Entry runQuery(PartialLoadingAdapter.FilterRequest request, int loadedCount) {
+        Cursor cursor = query.runQuery(request.getConstraint(), loadedCount, request);
+
+        if (cursor == null)
+            return null;
+
+        if (request.isCancelled()) {
+            cursor.close();
+            return null;
+        }
+
+        // fill the window here rather than on the UI thread
+        cursor.getCount();
+        boolean partial = cursor instanceof PartialCursor && ((PartialCursor) cursor).isCursorPartial();
+        return new Entry(new FilteredPartialCursor.Source(cursor), null, partial);
+    }
+
+    /**
+     * Picks the rows of the superset matching the constraint of the request.
+     */
+    private Entry narrow(Entry superset, PartialLoadingAdapter.FilterRequest request) {
+        Cursor cursor = superset.source.cursor;
+        int count = superset.getCount();
+        int[] positions = new int[count];
+        int matched = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (i % NARROW_CHECK_ROWS == 0 && request.isCancelled())
+                return null;
+
+            int position = superset.positions != null ? superset.positions[i] : i;
+
+            synchronized (cursor) {
+                if (cursor.moveToPosition(position) && matcher.matches(cursor, request.getConstraint())) {
+                    positions[matched++] = position;
+                }
+            }
+        }
+
+        int[] narrowed = new int[matched];
+        System.arraycopy(positions, 0, narrowed, 0, matched);
+        superset.source.retain();
+        return new Entry(superset.source, narrowed, false);
+    }
+
+    /**
+     * @return the cached complete result of the longest prefix of the constraint
+     */
+    private Entry findSuperset(String constraint) {
+        if (matcher == null)
+            return null;
+
+        for (int length = constraint.length() - 1; length > 0; length--) {
+            Entry entry = cache.get(constraint.substring(0, length));
+
+            if (entry != null && !entry.partial)
+                return entry;
+        }
+
+        return null;
+    }
+
+    private void publish(final PartialLoadingAdapter.FilterRequest request, final Entry result,
+                         final Throwable error, final boolean nextPortion, final LoadMetrics metrics,
+                         final long started, final long finished) {
+        handler.post(new Runnable() {
+            public void run() {
+                if (request != currentRequest || request.isCancelled()) {
+                    if (result != null) {
+                        result.source.release();
+                    }
+                    return;
+                }
+
+                currentRequest = null;
+
+                if (metrics != null) {
+                    metrics.setCallTime(started, finished);
+                }
+
+                if (error != null) {
+                    adapter.onFilterFailed(error, nextPortion);
+                    return;
+                }
+
+                if (result == null)
+                    return;
+
+                Entry previous = cache.put(request.getConstraint(), result);
+
+                if (previous != null) {
+                    previous.source.release();
+                }
+
+                evict();
+                shownConstraint = request.getConstraint();
+                adapter.showFilteredCursor(new FilteredPartialCursor(result.source, result.positions, result.partial),
+                        nextPortion);
+            }
+        });
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = cache.entrySet().iterator();
+
+        while (cache.size() > cacheSize && iterator.hasNext()) {
+            iterator.next().getValue().source.release();
+            iterator.remove();
+        }
+    }
+}
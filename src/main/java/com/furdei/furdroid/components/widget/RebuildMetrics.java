@@ -0,0 +1,154 @@
+package com.furdei.furdroid.components.widget;
+
+/**
+ * <p>
+ * Timings and counters of a single rebuild of a {@link FullCursorView} by a
+ * {@link FullCursorAdapter}, see
+ * {@link FullCursorAdapter#setOnRebuildMetricsListener(FullCursorAdapter.OnRebuildMetricsListener)}.
+ * All times are in nanoseconds.
+ * </p><p>
+ * The layout time covers the measure and layout passes of the target view that follow the
+ * rebuild and is reported only by the views of this library. It is 0 for other
+ * {@link FullCursorView} implementations and for views which have not been laid out.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class RebuildMetrics {
+
+    boolean diff;
+    int rowCount;
+    int viewsCreated;
+    int viewsRecycled;
+    int viewsKept;
+    long traversalNanos;
+    long createViewNanos;
+    long bindViewNanos;
+    long addViewNanos;
+    long layoutNanos;
+    long totalNanos;
+
+    RebuildMetrics(boolean diff) {
+        this.diff = diff;
+    }
+
+    long addTraversalTime(long since) {
+        long now = System.nanoTime();
+        traversalNanos += now - since;
+        return now;
+    }
+
+    long addCreateViewTime(long since) {
+        long now = System.nanoTime();
+        createViewNanos += now - since;
+        return now;
+    }
+
+    long addBindViewTime(long since) {
+        long now = System.nanoTime();
+        bindViewNanos += now - since;
+        return now;
+    }
+
+    long addAddViewTime(long since) {
+        long now = System.nanoTime();
+        addViewNanos += now - since;
+        return now;
+    }
+
+    /**
+     * @return <code>true</code> if the rebuild matched old and new rows by id
+     */
+    public boolean isDiff() {
+        return diff;
+    }
+
+    /**
+     * @return the number of rows in the cursor
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of views created by
+     * {@link FullCursorAdapter#createView(android.database.Cursor, android.view.View, android.view.ViewGroup)}
+     */
+    public int getViewsCreated() {
+        return viewsCreated;
+    }
+
+    /**
+     * @return the number of views taken from the scrap heap
+     */
+    public int getViewsRecycled() {
+        return viewsRecycled;
+    }
+
+    /**
+     * @return the number of views kept in place by the diff rebuild and only rebound
+     */
+    public int getViewsKept() {
+        return viewsKept;
+    }
+
+    /**
+     * @return the time spent moving the cursor and reading ids and view types
+     */
+    public long getTraversalNanos() {
+        return traversalNanos;
+    }
+
+    /**
+     * @return the total time spent creating or recycling views
+     */
+    public long getCreateViewNanos() {
+        return createViewNanos;
+    }
+
+    /**
+     * @return the total time spent binding views
+     */
+    public long getBindViewNanos() {
+        return bindViewNanos;
+    }
+
+    /**
+     * @return the total time spent adding, moving and removing child views
+     */
+    public long getAddViewNanos() {
+        return addViewNanos;
+    }
+
+    /**
+     * @return the time of the measure and layout passes that followed the rebuild
+     */
+    public long getLayoutNanos() {
+        return layoutNanos;
+    }
+
+    /**
+     * @return the wall time of the rebuild from its start to its last row, without the layout
+     * time. For an incremental rebuild it includes the time between the frames.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RebuildMetrics{" +
+                "diff=" + diff +
+                ", rowCount=" + rowCount +
+                ", viewsCreated=" + viewsCreated +
+                ", viewsRecycled=" + viewsRecycled +
+                ", viewsKept=" + viewsKept +
+                ", traversalNanos=" + traversalNanos +
+                ", createViewNanos=" + createViewNanos +
+                ", bindViewNanos=" + bindViewNanos +
+                ", addViewNanos=" + addViewNanos +
+                ", layoutNanos=" + layoutNanos +
+                ", totalNanos=" + totalNanos +
+                '}';
+    }
+}
@@ -0,0 +1,110 @@
+package com.furdei.furdroid.components.widget;
+
+/**
+ * <p>
+ * A {@link FullCursorAdapter.OnRebuildMetricsListener} that collects rebuild timings into
+ * {@link PercentileHistogram}s. Times are recorded in microseconds. Install it with
+ * {@link FullCursorAdapter#setOnRebuildMetricsListener(FullCursorAdapter.OnRebuildMetricsListener)}
+ * and print {@link #dump()} from a debug screen. One aggregator can be shared by several
+ * adapters.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class RebuildMetricsAggregator implements FullCursorAdapter.OnRebuildMetricsListener {
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final PercentileHistogram rowCounts = new PercentileHistogram();
+    private final PercentileHistogram traversalTimes = new PercentileHistogram();
+    private final PercentileHistogram createViewTimes = new PercentileHistogram();
+    private final PercentileHistogram bindViewTimes = new PercentileHistogram();
+    private final PercentileHistogram addViewTimes = new PercentileHistogram();
+    private final PercentileHistogram layoutTimes = new PercentileHistogram();
+    private final PercentileHistogram totalTimes = new PercentileHistogram();
+    private long viewsCreated;
+    private long viewsRecycled;
+    private long viewsKept;
+
+    @Override
+    public synchronized void onRebuildMetrics(FullCursorAdapter adapter, RebuildMetrics metrics) {
+        rowCounts.record(metrics.getRowCount());
+        traversalTimes.record(metrics.getTraversalNanos() / NANOS_PER_MICRO);
+        createViewTimes.record(metrics.getCreateViewNanos() / NANOS_PER_MICRO);
+        bindViewTimes.record(metrics.getBindViewNanos() / NANOS_PER_MICRO);
+        addViewTimes.record(metrics.getAddViewNanos() / NANOS_PER_MICRO);
+        layoutTimes.record(metrics.getLayoutNanos() / NANOS_PER_MICRO);
+        totalTimes.record(metrics.getTotalNanos() / NANOS_PER_MICRO);
+        viewsCreated += metrics.getViewsCreated();
+        viewsRecycled += metrics.getViewsRecycled();
+        viewsKept += metrics.getViewsKept();
+    }
+
+    public PercentileHistogram getRowCounts() {
+        return rowCounts;
+    }
+
+    public PercentileHistogram getTraversalTimes() {
+        return traversalTimes;
+    }
+
+    public PercentileHistogram getCreateViewTimes() {
+        return createViewTimes;
+    }
+
+    public PercentileHistogram getBindViewTimes() {
+        return bindViewTimes;
+    }
+
+    public PercentileHistogram getAddViewTimes() {
+        return addViewTimes;
+    }
+
+    public PercentileHistogram getLayoutTimes() {
+        return layoutTimes;
+    }
+
+    public PercentileHistogram getTotalTimes() {
+        return totalTimes;
+    }
+
+    public synchronized long getViewsCreated() {
+        return viewsCreated;
+    }
+
+    public synchronized long getViewsRecycled() {
+        return viewsRecycled;
+    }
+
+    public synchronized long getViewsKept() {
+        return viewsKept;
+    }
+
+    public synchronized void reset() {
+        rowCounts.reset();
+        traversalTimes.reset();
+        createViewTimes.reset();
+        bindViewTimes.reset();
+        addViewTimes.reset();
+        layoutTimes.reset();
+        totalTimes.reset();
+        viewsCreated = 0;
+        viewsRecycled = 0;
+        viewsKept = 0;
+    }
+
+    /**
+     * @return a human readable summary of all collected metrics, one line per histogram
+     */
+    public synchronized String dump() {
+        return "rebuilds: " + totalTimes.getCount() + "\n" +
+                "rows: " + rowCounts + "\n" +
+                "views created/recycled/kept: " + viewsCreated + "/" + viewsRecycled + "/" + viewsKept + "\n" +
+                "traversal us: " + traversalTimes + "\n" +
+                "createView us: " + createViewTimes + "\n" +
+                "bindView us: " + bindViewTimes + "\n" +
+                "addView us: " + addViewTimes + "\n" +
+                "layout us: " + layoutTimes + "\n" +
+                "total us: " + totalTimes;
+    }
+}
@@ -0,0 +1,46 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.widget.CursorAdapter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * A {@link CursorAdapter} that inflates a single row layout and binds rows with a
+ * {@link CursorRowBinder}. It can be wrapped by {@link PartialLoadingAdapter}.
+ *
+ * @author Stepan Furdey
+ */
+public class RowBinderCursorAdapter extends CursorAdapter {
+
+    private final int layoutResId;
+    private final CursorRowBinder<?> binder;
+    private final LayoutInflater inflater;
+
+    public RowBinderCursorAdapter(Context context, Cursor cursor, int layoutResId, CursorRowBinder<?> binder) {
+        super(context, cursor, 0);
+
+        if (binder == null)
+            throw new IllegalArgumentException("binder == null");
+
+        this.layoutResId = layoutResId;
+        this.binder = binder;
+        this.inflater = LayoutInflater.from(context);
+    }
+
+    public CursorRowBinder<?> getBinder() {
+        return binder;
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        return inflater.inflate(layoutResId, parent, false);
+    }
+
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        binder.bindView(cursor, view);
+    }
+}
@@ -0,0 +1,48 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * A {@link FullCursorAdapter} that inflates a single row layout and binds rows with a
+ * {@link CursorRowBinder}. The layout is declared through {@link #getItemLayout(int)}, so it
+ * can be inflated in advance, see {@link #setPreInflationEnabled(boolean)}.
+ *
+ * @author Stepan Furdey
+ */
+public class RowBinderFullCursorAdapter extends FullCursorAdapter {
+
+    private final int layoutResId;
+    private final CursorRowBinder<?> binder;
+
+    public RowBinderFullCursorAdapter(Context context, int layoutResId, CursorRowBinder<?> binder) {
+        super(context);
+
+        if (binder == null)
+            throw new IllegalArgumentException("binder == null");
+
+        this.layoutResId = layoutResId;
+        this.binder = binder;
+    }
+
+    public CursorRowBinder<?> getBinder() {
+        return binder;
+    }
+
+    @Override
+    public int getItemLayout(int viewType) {
+        return layoutResId;
+    }
+
+    @Override
+    protected View createView(Cursor cursor, ViewGroup root) {
+        return inflate(layoutResId, root);
+    }
+
+    @Override
+    protected void bindView(Cursor cursor, View view) {
+        binder.bindView(cursor, view);
+    }
+}
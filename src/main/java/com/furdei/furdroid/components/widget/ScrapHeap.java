@@ -0,0 +1,104 @@
+package com.furdei.furdroid.components.widget;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * A heap of detached views split by view type. Each view type has its own limit so the
+ * memory held by the heap stays bounded.
+ *
+ * @author Stepan Furdey
+ */
+class ScrapHeap {
+
+    static final int DEFAULT_MAX_SCRAP_VIEWS = 10;
+
+    private final SparseArray<ArrayList<View>> scrapViews = new SparseArray<ArrayList<View>>();
+    private final SparseIntArray maxScrapViews = new SparseIntArray();
+    private int defaultMaxScrapViews = DEFAULT_MAX_SCRAP_VIEWS;
+
+    int getMaxScrapViews(int viewType) {
+        return maxScrapViews.get(viewType, defaultMaxScrapViews);
+    }
+
+    void setMaxScrapViews(int viewType, int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("max < 0");
+
+        maxScrapViews.put(viewType, max);
+        trim(viewType);
+    }
+
+    int getDefaultMaxScrapViews() {
+        return defaultMaxScrapViews;
+    }
+
+    void setDefaultMaxScrapViews(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("max < 0");
+
+        defaultMaxScrapViews = max;
+
+        for (int i = 0; i < scrapViews.size(); i++) {
+            trim(scrapViews.keyAt(i));
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the view has been put into the heap or <code>false</code>
+     * if the heap for this view type is full and the view should be thrown away
+     */
+    boolean addScrapView(View view, int viewType) {
+        if (viewType < 0)
+            return false;
+
+        ArrayList<View> views = scrapViews.get(viewType);
+
+        if (views == null) {
+            views = new ArrayList<View>();
+            scrapViews.put(viewType, views);
+        }
+
+        if (views.size() >= getMaxScrapViews(viewType))
+            return false;
+
+        views.add(view);
+        return true;
+    }
+
+    View getScrapView(int viewType) {
+        if (viewType < 0)
+            return null;
+
+        ArrayList<View> views = scrapViews.get(viewType);
+
+        if (views == null || views.isEmpty())
+            return null;
+
+        return views.remove(views.size() - 1);
+    }
+
+    int getScrapViewCount(int viewType) {
+        ArrayList<View> views = scrapViews.get(viewType);
+        return views != null ? views.size() : 0;
+    }
+
+    void clear() {
+        scrapViews.clear();
+    }
+
+    private void trim(int viewType) {
+        ArrayList<View> views = scrapViews.get(viewType);
+
+        if (views != null) {
+            int max = getMaxScrapViews(viewType);
+
+            while (views.size() > max) {
+                views.remove(views.size() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.furdei.furdroid.components.widget;
+
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+/**
+ * <p>
+ * A {@link FullCursorRowRenderer} that draws an optional icon followed by a text, e.g. a label or
+ * a badge. The text layout is cached and built again only when the text or the width changes,
+ * so re-binding a row to the same text costs nothing.
+ * </p><p>
+ * The icon is drawn at its intrinsic size, so any drawable can be used, including
+ * {@link com.furdei.furdroid.components.graphics.drawable.TintedDrawable TintedDrawable}.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class TextRowRenderer implements FullCursorRowRenderer {
+
+    private final TextPaint paint;
+    private CharSequence text;
+    private Drawable icon;
+    private int padding;
+    private int iconPadding;
+    private StaticLayout layout;
+    private int layoutWidth;
+
+    /**
+     * @param paint paint to draw the text with. It can be shared between renderers.
+     */
+    public TextRowRenderer(TextPaint paint) {
+        if (paint == null)
+            throw new IllegalArgumentException("paint == null");
+
+        this.paint = paint;
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+
+    public void setText(CharSequence text) {
+        if (!TextUtils.equals(this.text, text)) {
+            this.text = text;
+            layout = null;
+        }
+    }
+
+    public Drawable getIcon() {
+        return icon;
+    }
+
+    public void setIcon(Drawable icon) {
+        this.icon = icon;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Sets padding in pixels around the row content.
+     */
+    public void setPadding(int padding) {
+        this.padding = padding;
+    }
+
+    public int getIconPadding() {
+        return iconPadding;
+    }
+
+    /**
+     * Sets a gap in pixels between the icon and the text.
+     */
+    public void setIconPadding(int iconPadding) {
+        this.iconPadding = iconPadding;
+    }
+
+    @Override
+    public int measure(int width) {
+        int textWidth = Math.max(width - 2 * padding - getIconSpace(), 0);
+
+        if (layout == null || layoutWidth != textWidth) {
+            layout = new StaticLayout(text != null ? text : "", paint, textWidth,
+                    Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+            layoutWidth = textWidth;
+        }
+
+        int iconHeight = icon != null ? icon.getIntrinsicHeight() : 0;
+        return Math.max(layout.getHeight(), iconHeight) + 2 * padding;
+    }
+
+    @Override
+    public void draw(Canvas canvas, int width, int height) {
+        if (layout == null) {
+            measure(width);
+        }
+
+        int left = padding;
+
+        if (icon != null) {
+            int iconWidth = icon.getIntrinsicWidth();
+            int iconHeight = icon.getIntrinsicHeight();
+            int iconTop = (height - iconHeight) / 2;
+            icon.setBounds(left, iconTop, left + iconWidth, iconTop + iconHeight);
+            icon.draw(canvas);
+            left += getIconSpace();
+        }
+
+        int saveCount = canvas.save();
+        canvas.translate(left, (height - layout.getHeight()) / 2);
+        layout.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private int getIconSpace() {
+        return icon != null ? icon.getIntrinsicWidth() + iconPadding : 0;
+    }
+}
@@ -0,0 +1,436 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.Adapter;
+
+/**
+ * <p>
+ * A vertical list that displays a full cursor inside an enclosing
+ * {@link android.widget.ScrollView ScrollView}. Unlike {@link FullCursorListView}, this
+ * implementation creates and binds views only for the rows that intersect the visible part of
+ * the scrolling ancestor plus a margin, see {@link #setViewportMargin(int)}. The rest of the rows
+ * only take their place: rows that have been shown at least once keep their measured height
+ * and the others are given the average height of the measured rows.
+ * </p><p>
+ * The view tracks the scroll offset of its ancestors and recycles the views of the rows that
+ * leave the viewport, so the number of views depends on the screen size rather than on the
+ * number of rows in a cursor. Recycled views are kept when the cursor changes. A row for
+ * which the adapter returns no view takes an empty placeholder that is never recycled.
+ * </p>
+ *
+ * @author Stepan Furdey
+ */
+public class VirtualFullCursorListView extends ViewGroup implements VirtualFullCursorView {
+
+    private static final int DEFAULT_ITEM_HEIGHT_DIP = 48;
+
+    private FullCursorViewHelper helper;
+    private ViewTreeObserver.OnScrollChangedListener scrollChangedListener;
+    private final ScrapHeap scrapHeap = new ScrapHeap();
+    private final Rect visibleRect = new Rect();
+    private int viewportMargin;
+    private int defaultItemHeight;
+
+    private int itemCount;
+    // measured heights of the rows, 0 means that the row hasn't been measured yet
+    private int[] itemHeights = new int[0];
+    // view types of the rows the children were created for
+    private int[] itemViewTypes = new int[0];
+    // Fenwick trees over the measured heights of the rows and the flags of the measured rows,
+    // so the top of a row is found without summing up the heights of all the rows above it
+    private int[] heightTree = new int[1];
+    private int[] measuredTree = new int[1];
+    private int measuredItemCount;
+    private long measuredItemHeightSum;
+    private int itemWidth;
+    // position of the first child, children always display a contiguous range of rows
+    private int firstPosition;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable requestLayoutRunnable = new Runnable() {
+        public void run() {
+            requestLayout();
+        }
+    };
+
+    public VirtualFullCursorListView(Context context) {
+        super(context);
+        init();
+    }
+
+    public VirtualFullCursorListView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public VirtualFullCursorListView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        helper = new FullCursorViewHelper(this);
+        float density = getResources().getDisplayMetrics().density;
+        defaultItemHeight = (int) (DEFAULT_ITEM_HEIGHT_DIP * density);
+        viewportMargin = getResources().getDisplayMetrics().heightPixels / 2;
+
+        scrollChangedListener = new ViewTreeObserver.OnScrollChangedListener() {
+            @Override
+            public void onScrollChanged() {
+                onViewportChanged();
+            }
+        };
+    }
+
+    public int getViewportMargin() {
+        return viewportMargin;
+    }
+
+    /**
+     * Sets the distance in pixels above and below the visible area within which the rows are
+     * kept materialized. The default value is a half of the screen height.
+     */
+    public void setViewportMargin(int viewportMargin) {
+        if (viewportMargin < 0)
+            throw new IllegalArgumentException("viewportMargin < 0");
+
+        this.viewportMargin = viewportMargin;
+        requestLayout();
+    }
+
+    /**
+     * Sets the maximum number of detached views of the given type kept for reuse.
+     */
+    public void setMaxScrapViews(int viewType, int maxScrapViews) {
+        scrapHeap.setMaxScrapViews(viewType, maxScrapViews);
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Not supported, the list creates the views of the rows on demand.
+     */
+    @Override
+    public void addView(View view, int position, long id) {
+        throw new IllegalStateException("Views of a virtual list are created on demand");
+    }
+
+    @Override
+    public ViewGroup getRoot() {
+        return this;
+    }
+
+    @Override
+    public void setAdapter(FullCursorAdapter adapter) {
+        // views of another adapter can't be reused
+        removeAllViewsInLayout();
+        helper.onAllChildrenRemoved();
+        scrapHeap.clear();
+        helper.setAdapter(adapter);
+        onViewRebuilt();
+    }
+
+    @Override
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        helper.setOnItemClickListener(listener);
+    }
+
+    @Override
+    public OnItemClickListener getOnItemClickListener() {
+        return helper.getOnItemClickListener();
+    }
+
+    @Override
+    public View getEmptyView() {
+        return helper.getEmptyView();
+    }
+
+    @Override
+    public void setEmptyView(View view) {
+        helper.setEmptyView(view);
+        updateEmptyViewVisibility();
+    }
+
+    @Override
+    public void onViewRebuilt() {
+        // the views keep the view types of the rows they were created for
+        recycleAllChildren();
+        FullCursorAdapter adapter = helper.getAdapter();
+        itemCount = adapter != null ? adapter.getCount() : 0;
+        itemHeights = new int[itemCount];
+        itemViewTypes = new int[itemCount];
+        heightTree = new int[itemCount + 1];
+        measuredTree = new int[itemCount + 1];
+        measuredItemCount = 0;
+        measuredItemHeightSum = 0;
+        firstPosition = 0;
+        updateEmptyViewVisibility();
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
+        handler.removeCallbacks(requestLayoutRunnable);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int widthMode = MeasureSpec.getMode(widthMeasureSpec);
+        int width;
+
+        if (widthMode == MeasureSpec.UNSPECIFIED) {
+            width = getSuggestedMinimumWidth();
+
+            for (int i = 0; i < getChildCount(); i++) {
+                width = Math.max(width, getChildAt(i).getMeasuredWidth() + getPaddingLeft() + getPaddingRight());
+            }
+        } else {
+            width = MeasureSpec.getSize(widthMeasureSpec);
+        }
+
+        int newItemWidth = width - getPaddingLeft() - getPaddingRight();
+
+        if (newItemWidth != itemWidth) {
+            // measured heights are not valid for another width
+            itemWidth = newItemWidth;
+            itemHeights = new int[itemCount];
+            heightTree = new int[itemCount + 1];
+            measuredTree = new int[itemCount + 1];
+            measuredItemCount = 0;
+            measuredItemHeightSum = 0;
+        }
+
+        for (int i = 0; i < getChildCount(); i++) {
+            measureItem(getChildAt(i), firstPosition + i);
+        }
+
+        int height = getItemTop(itemCount) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int totalHeight = getItemTop(itemCount);
+        fillViewport();
+        layoutChildren();
+
+        if (getItemTop(itemCount) != totalHeight) {
+            // estimated heights have been replaced with the measured ones, so the measured
+            // height of this view is out of date, a layout can't be requested during a layout
+            handler.post(requestLayoutRunnable);
+        }
+    }
+
+    private void onViewportChanged() {
+        if (helper.getAdapter() == null || isLayoutRequested())
+            return;
+
+        int totalHeight = getItemTop(itemCount);
+        fillViewport();
+        layoutChildren();
+        invalidate();
+
+        if (getItemTop(itemCount) != totalHeight) {
+            // estimated heights have been replaced with the measured ones
+            requestLayout();
+        }
+    }
+
+    /**
+     * Attaches views for the rows that intersect the viewport and recycles the views of
+     * the rows that don't.
+     */
+    private void fillViewport() {
+        if (helper.getAdapter() == null || itemCount == 0 || !getLocalVisibleRect(visibleRect)) {
+            recycleAllChildren();
+            return;
+        }
+
+        int first = findPosition(visibleRect.top - viewportMargin - getPaddingTop());
+        int last = findPosition(visibleRect.bottom + viewportMargin - getPaddingTop());
+
+        while (getChildCount() > 0 && firstPosition < first) {
+            recycleChild(0);
+            ++firstPosition;
+        }
+
+        while (getChildCount() > 0 && firstPosition + getChildCount() - 1 > last) {
+            recycleChild(getChildCount() - 1);
+        }
+
+        if (getChildCount() == 0) {
+            firstPosition = first;
+        }
+
+        while (firstPosition > first) {
+            attachChild(0, --firstPosition);
+        }
+
+        while (firstPosition + getChildCount() <= last) {
+            attachChild(getChildCount(), firstPosition + getChildCount());
+        }
+    }
+
+    private void layoutChildren() {
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            int childTop = top + getItemTop(firstPosition + i);
+            child.layout(left, childTop, left + child.getMeasuredWidth(), childTop + child.getMeasuredHeight());
+        }
+    }
+
+    private void attachChild(int index, int position) {
+        FullCursorAdapter adapter = helper.getAdapter();
+        int viewType = adapter.getItemViewType(position);
+        View convertView = scrapHeap.getScrapView(viewType);
+        View child = adapter.getView(position, convertView, this);
+
+        if (convertView != null && child != convertView) {
+            // the recycled view has been refused, keep it for the next rows
+            scrapHeap.addScrapView(convertView, viewType);
+        }
+
+        if (child == null) {
+            // keep the children contiguous even if the adapter skips a row, the placeholder
+            // must never be passed to the adapter as a convertView
+            child = new View(getContext());
+            viewType = Adapter.IGNORE_ITEM_VIEW_TYPE;
+        }
+
+        LayoutParams params = child.getLayoutParams();
+
+        if (params == null || !checkLayoutParams(params)) {
+            params = params == null ? generateDefaultLayoutParams() : generateLayoutParams(params);
+        }
+
+        addViewInLayout(child, index, params, true);
+        helper.onChildAdded(child, index, position, adapter.getItemId(position));
+        itemViewTypes[position] = viewType;
+        measureItem(child, position);
+    }
+
+    private void recycleChild(int index) {
+        View child = getChildAt(index);
+        removeViewInLayout(child);
+        helper.onChildRemoved(index);
+        scrapHeap.addScrapView(child, itemViewTypes[firstPosition + index]);
+    }
+
+    private void recycleAllChildren() {
+        while (getChildCount() > 0) {
+            recycleChild(getChildCount() - 1);
+        }
+    }
+
+    private void measureItem(View child, int position) {
+        LayoutParams params = child.getLayoutParams();
+        int widthSpec = getChildMeasureSpec(MeasureSpec.makeMeasureSpec(itemWidth, MeasureSpec.EXACTLY),
+                0, params.width);
+        int heightSpec = params.height >= 0 ?
+                MeasureSpec.makeMeasureSpec(params.height, MeasureSpec.EXACTLY) :
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        child.measure(widthSpec, heightSpec);
+
+        int height = child.getMeasuredHeight();
+        int oldHeight = itemHeights[position];
+
+        if (oldHeight == height)
+            return;
+
+        int measured = 0;
+
+        if (oldHeight == 0) {
+            ++measuredItemCount;
+            measured = 1;
+        } else {
+            measuredItemHeightSum -= oldHeight;
+        }
+
+        measuredItemHeightSum += height;
+        itemHeights[position] = height;
+
+        for (int i = position + 1; i <= itemCount; i += i & -i) {
+            heightTree[i] += height - oldHeight;
+            measuredTree[i] += measured;
+        }
+    }
+
+    /**
+     * @return the height given to the rows which haven't been measured yet
+     */
+    private int getEstimatedItemHeight() {
+        return measuredItemCount > 0 ? (int) (measuredItemHeightSum / measuredItemCount) : defaultItemHeight;
+    }
+
+    /**
+     * @return the top of the row at the given position, or the total height of the rows for
+     * <code>itemCount</code>
+     */
+    private int getItemTop(int position) {
+        int height = 0;
+        int measured = 0;
+
+        for (int i = position; i > 0; i -= i & -i) {
+            height += heightTree[i];
+            measured += measuredTree[i];
+        }
+
+        return height + (position - measured) * getEstimatedItemHeight();
+    }
+
+    /**
+     * @return the position of the row at the given vertical offset, clamped to valid positions
+     */
+    private int findPosition(int y) {
+        int estimatedHeight = getEstimatedItemHeight();
+        int position = 0;
+        int top = 0;
+
+        // descend the tree to the last row whose top is not below the offset
+        for (int step = Integer.highestOneBit(Math.max(itemCount, 1)); step > 0; step >>>= 1) {
+            int next = position + step;
+
+            if (next <= itemCount) {
+                int nextTop = top + heightTree[next] + (step - measuredTree[next]) * estimatedHeight;
+
+                if (nextTop <= y) {
+                    position = next;
+                    top = nextTop;
+                }
+            }
+        }
+
+        return Math.max(0, Math.min(position, itemCount - 1));
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+    }
+
+    private void updateEmptyViewVisibility() {
+        helper.updateEmptyViewVisibility(itemCount);
+    }
+}
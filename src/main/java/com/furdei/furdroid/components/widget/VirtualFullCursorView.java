@@ -0,0 +1,22 @@
+package com.furdei.furdroid.components.widget;
+
+/**
+ * A {@link FullCursorView} that can build its content on demand instead of letting the adapter
+ * create child views for every row. While {@link #isVirtual()} returns <code>true</code>, the
+ * adapter does not build child views for such a view, it only calls {@link #onViewRebuilt()}
+ * every time the cursor changes and the view asks the adapter for the rows it needs, e.g.
+ * through {@link FullCursorAdapter#getView(int, android.view.View, android.view.ViewGroup)}.
+ * A view which can also let the adapter create its child views must implement
+ * {@link MaterializedFullCursorView} as well.
+ *
+ * @author Stepan Furdey
+ */
+public interface VirtualFullCursorView extends FullCursorView {
+
+    /**
+     * @return <code>true</code> if the view builds its content on demand, <code>false</code> if
+     * the adapter should create child views as usual, which requires the view to implement
+     * {@link MaterializedFullCursorView}
+     */
+    boolean isVirtual();
+}
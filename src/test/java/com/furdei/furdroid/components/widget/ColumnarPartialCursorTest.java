@@ -0,0 +1,195 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ColumnarPartialCursorTest {
+
+    private static final String[] COLUMNS = { "_id", "count", "rating", "title", "icon" };
+    private static final int[] TYPES = { ColumnarPartialCursor.TYPE_LONG, ColumnarPartialCursor.TYPE_INT,
+            ColumnarPartialCursor.TYPE_DOUBLE, ColumnarPartialCursor.TYPE_STRING, ColumnarPartialCursor.TYPE_BLOB };
+
+    @Test
+    public void rowsAreVisibleOnCommitOnly() {
+        ColumnarPartialCursor empty = new ColumnarPartialCursor(COLUMNS, TYPES);
+        appendRows(empty, 0, 2);
+        assertEquals(0, empty.getCount());
+
+        ColumnarPartialCursor first = empty.commit(true);
+        appendRows(first, 2, 3);
+        ColumnarPartialCursor second = first.commit(false);
+
+        assertEquals(0, empty.getCount());
+        assertEquals(2, first.getCount());
+        assertTrue(first.isCursorPartial());
+        assertEquals(5, second.getCount());
+        assertFalse(second.isCursorPartial());
+        checkRows(first, 2);
+        checkRows(second, 5);
+    }
+
+    @Test
+    public void rowsAreKeptAcrossGrowth() {
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES);
+        ColumnarPartialCursor first = appendRows(cursor, 0, 10).commit(true);
+        // several doublings of the columns and more than one word of the null bitmaps
+        ColumnarPartialCursor second = appendRows(first, 10, 190).commit(false);
+
+        checkRows(first, 10);
+        checkRows(second, 200);
+    }
+
+    @Test
+    public void nullsAreKept() {
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES);
+
+        for (int id = 0; id < 130; id++) {
+            ColumnarPartialCursor.RowBuilder row = cursor.newRow().setLong(0, id);
+
+            if (id % 3 != 0) {
+                row.setString(3, "Row " + id).setDouble(2, id);
+            }
+        }
+
+        cursor = cursor.commit(false);
+
+        for (int id = 0; id < 130; id++) {
+            assertTrue(cursor.moveToPosition(id));
+            assertEquals(id % 3 == 0, cursor.isNull(3));
+            assertEquals(id % 3 == 0, cursor.isNull(2));
+            assertTrue(cursor.isNull(1));
+            assertTrue(cursor.isNull(4));
+            assertEquals(Cursor.FIELD_TYPE_NULL, cursor.getType(1));
+
+            if (id % 3 == 0) {
+                assertNull(cursor.getString(3));
+                assertEquals(0, cursor.getDouble(2), 0);
+                assertNull(cursor.getBlob(4));
+            } else {
+                assertEquals("Row " + id, cursor.getString(3));
+                assertEquals(Cursor.FIELD_TYPE_STRING, cursor.getType(3));
+            }
+        }
+    }
+
+    @Test
+    public void valuesAreConverted() {
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES);
+        cursor.newRow().setLong(0, 7).setString(1, "12").setLong(2, 3).setString(3, "42");
+        cursor.newRow().setLong(0, 8).setDouble(1, 2.9).setString(2, "0.5").setString(3, "\u00e4bc");
+        cursor.newRow().setLong(0, 9).setInt(1, 5).setDouble(3, 1.5);
+        cursor = cursor.commit(false);
+
+        cursor.moveToPosition(0);
+        assertEquals("7", cursor.getString(0));
+        assertEquals(12, cursor.getInt(1));
+        assertEquals(3.0, cursor.getDouble(2), 0);
+        assertEquals(42, cursor.getLong(3));
+        assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(1));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(2));
+
+        cursor.moveToPosition(1);
+        assertEquals(2, cursor.getLong(1));
+        assertEquals(0.5, cursor.getDouble(2), 0);
+        // SQLite reads non-numeric text as 0
+        assertEquals(0, cursor.getLong(3));
+        assertArrayEquals(new byte[] { (byte) 0xc3, (byte) 0xa4, 'b', 'c' }, cursor.getBlob(3));
+
+        cursor.moveToPosition(2);
+        assertEquals("5", cursor.getString(1));
+        assertEquals("1.5", cursor.getString(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blobColumnRejectsStrings() {
+        new ColumnarPartialCursor(COLUMNS, TYPES).newRow().setString(4, "icon");
+    }
+
+    @Test
+    public void pageColumnsAreMatchedByName() {
+        MatrixCursor page = new MatrixCursor(new String[] { "title", "extra", "_id" });
+        page.addRow(new Object[] { "First", "x", 1L });
+        page.addRow(new Object[] { null, "y", 2L });
+
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES).appendPage(page, true);
+
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.isCursorPartial());
+        assertFalse(page.isClosed());
+        cursor.moveToPosition(0);
+        assertEquals(1, cursor.getLong(0));
+        assertEquals("First", cursor.getString(3));
+        assertTrue(cursor.isNull(1));
+        cursor.moveToPosition(1);
+        assertEquals(2, cursor.getLong(0));
+        assertTrue(cursor.isNull(3));
+    }
+
+    @Test
+    public void manyDistinctStringsAreKept() {
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES);
+        ColumnarPartialCursor first = appendRows(cursor, 0, 1000).commit(true);
+        // passes the dictionary limit, so the column switches to plain strings
+        ColumnarPartialCursor second = appendRows(first, 1000, 2000).commit(false);
+
+        checkRows(first, 1000);
+        checkRows(second, 3000);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void supersededCursorCantAppend() {
+        ColumnarPartialCursor cursor = new ColumnarPartialCursor(COLUMNS, TYPES);
+        cursor.commit(true);
+        cursor.newRow();
+    }
+
+    private static ColumnarPartialCursor appendRows(ColumnarPartialCursor cursor, int first, int count) {
+        for (int id = first; id < first + count; id++) {
+            ColumnarPartialCursor.RowBuilder row = cursor.newRow()
+                    .setLong(0, id)
+                    .setInt(1, id * 2)
+                    .setDouble(2, id / 2.0)
+                    .setString(3, "Row " + id);
+
+            if (id % 2 == 0) {
+                row.setBlob(4, new byte[] { (byte) id });
+            }
+        }
+
+        return cursor;
+    }
+
+    private static void checkRows(Cursor cursor, int count) {
+        assertEquals(count, cursor.getCount());
+
+        for (int id = 0; id < count; id++) {
+            assertTrue(cursor.moveToPosition(id));
+            assertEquals(id, cursor.getLong(0));
+            assertEquals(id * 2, cursor.getInt(1));
+            assertEquals(id / 2.0, cursor.getDouble(2), 0);
+            assertEquals("Row " + id, cursor.getString(3));
+
+            if (id % 2 == 0) {
+                assertArrayEquals(new byte[] { (byte) id }, cursor.getBlob(4));
+            } else {
+                assertTrue(cursor.isNull(4));
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CursorSnapshotTest {
+
+    @Test
+    public void copiesDeclaredColumns() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "title", "price", "skipped" });
+        cursor.addRow(new Object[] { 1L, "first", 1.5, "x" });
+        cursor.addRow(new Object[] { 2L, null, null, "y" });
+
+        CursorSnapshot snapshot = CursorSnapshot.create(cursor, new CursorSnapshot.Schema()
+                .longColumn("_id").stringColumn("title").doubleColumn("price"));
+        cursor.close();
+
+        assertEquals(2, snapshot.getCount());
+        assertArrayEquals(new String[] { "_id", "title", "price" }, snapshot.getColumnNames());
+        assertEquals(-1, snapshot.getColumnIndex("skipped"));
+
+        assertTrue(snapshot.moveToFirst());
+        assertEquals(1L, snapshot.getLong(0));
+        assertEquals("first", snapshot.getString(1));
+        assertEquals(1.5, snapshot.getDouble(2), 0.0);
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, snapshot.getType(2));
+
+        assertTrue(snapshot.moveToNext());
+        assertEquals(2, snapshot.getInt(0));
+        assertTrue(snapshot.isNull(1));
+        assertNull(snapshot.getString(1));
+        assertTrue(snapshot.isNull(2));
+        assertNull(snapshot.getString(2));
+        assertEquals(Cursor.FIELD_TYPE_NULL, snapshot.getType(2));
+        assertFalse(snapshot.moveToNext());
+    }
+
+    @Test
+    public void convertsBetweenTypes() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "count" });
+        cursor.addRow(new Object[] { 7L, "42" });
+
+        CursorSnapshot snapshot = CursorSnapshot.create(cursor, new CursorSnapshot.Schema()
+                .longColumn("_id").stringColumn("count"));
+
+        assertTrue(snapshot.moveToFirst());
+        assertEquals("7", snapshot.getString(0));
+        assertEquals(7.0, snapshot.getDouble(0), 0.0);
+        assertEquals(42L, snapshot.getLong(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingColumnIsRejected() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+        CursorSnapshot.create(cursor, new CursorSnapshot.Schema().stringColumn("title"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateColumnIsRejected() {
+        new CursorSnapshot.Schema().longColumn("_id").stringColumn("_id");
+    }
+}
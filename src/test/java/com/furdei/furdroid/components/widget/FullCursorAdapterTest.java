@@ -0,0 +1,270 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FullCursorAdapterTest {
+
+    private FullCursorListView listView;
+    private FullCursorAdapter adapter;
+    private final List<RuntimeException> snapshotErrors = new ArrayList<RuntimeException>();
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        listView = new FullCursorListView(context);
+        adapter = new FullCursorAdapter(context) {
+            @Override
+            protected View createView(Cursor cursor, ViewGroup root) {
+                return new TextView(root.getContext());
+            }
+
+            @Override
+            protected void bindView(Cursor cursor, View view) {
+                ((TextView) view).setText(cursor.getString(cursor.getColumnIndex("_id")));
+            }
+
+            @Override
+            protected void onSnapshotFailed(RuntimeException error) {
+                snapshotErrors.add(error);
+            }
+        };
+        listView.setAdapter(adapter);
+        adapter.setDiffRebuildEnabled(true);
+    }
+
+    @Test
+    public void diffRebuildKeepsAndReordersViews() {
+        adapter.swapCursor(cursorOf(1, 2, 3, 4, 5));
+        View[] views = childViews();
+
+        adapter.swapCursor(cursorOf(5, 3, 1, 6, 2));
+
+        assertEquals(5, listView.getChildCount());
+        assertSame(views[4], listView.getChildAt(0));
+        assertSame(views[2], listView.getChildAt(1));
+        assertSame(views[0], listView.getChildAt(2));
+        assertSame(views[1], listView.getChildAt(4));
+        assertNotSame(views[3], listView.getChildAt(3));
+        assertTexts(5, 3, 1, 6, 2);
+    }
+
+    @Test
+    public void diffRebuildUpdatesKeptRows() {
+        final long[] clicked = new long[2];
+        listView.setOnItemClickListener(new FullCursorView.OnItemClickListener() {
+            @Override
+            public void onItemClick(FullCursorView parent, View view, int position, long id) {
+                clicked[0] = position;
+                clicked[1] = id;
+            }
+        });
+        adapter.swapCursor(cursorOf(1, 2, 3, 4, 5));
+        adapter.swapCursor(cursorOf(5, 3, 1, 6, 2));
+        long[] ids = { 5, 3, 1, 6, 2 };
+
+        for (int i = 0; i < ids.length; i++) {
+            listView.getChildAt(i).performClick();
+            assertEquals(i, clicked[0]);
+            assertEquals(ids[i], clicked[1]);
+        }
+    }
+
+    @Test
+    public void diffRebuildMatchesShuffledRows() {
+        List<Long> ids = new ArrayList<Long>();
+
+        for (long id = 0; id < 200; id++) {
+            ids.add(id);
+        }
+
+        adapter.swapCursor(cursorOf(ids));
+        Random random = new Random(42);
+
+        for (int round = 0; round < 10; round++) {
+            Collections.shuffle(ids, random);
+            List<Long> next = new ArrayList<Long>(ids.subList(0, ids.size() - random.nextInt(10)));
+            next.add(1000L + round);
+            adapter.swapCursor(cursorOf(next));
+
+            assertEquals(next.size(), listView.getChildCount());
+
+            for (int i = 0; i < next.size(); i++) {
+                assertEquals(String.valueOf(next.get(i)), ((TextView) listView.getChildAt(i)).getText().toString());
+            }
+
+            ids = next;
+        }
+    }
+
+    @Test
+    public void failedSnapshotKeepsCurrentRows() {
+        adapter.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        adapter.setSnapshotEnabled(true);
+        adapter.swapCursor(cursorOf(1, 2, 3));
+        ShadowLooper.idleMainLooper();
+        assertTexts(1, 2, 3);
+        CursorSnapshot snapshot = adapter.getSnapshot();
+
+        // a blob column can't be copied as a string
+        MatrixCursor blobCursor = new MatrixCursor(new String[] { "_id", "icon" }) {
+            @Override
+            public String getString(int column) {
+                if (column == 1)
+                    throw new SQLiteException("unable to convert BLOB to string");
+
+                return super.getString(column);
+            }
+        };
+        blobCursor.addRow(new Object[] { 4L, new byte[] { 1 } });
+        adapter.swapCursor(blobCursor);
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(1, snapshotErrors.size());
+        assertTrue(snapshotErrors.get(0) instanceof SQLiteException);
+        assertSame(snapshot, adapter.getSnapshot());
+        assertFalse(blobCursor.isClosed());
+        assertTexts(1, 2, 3);
+    }
+
+    @Test
+    public void plainViewIsRebuiltFromScratch() {
+        PlainView plainView = new PlainView(RuntimeEnvironment.application);
+        plainView.setAdapter(adapter);
+
+        adapter.swapCursor(cursorOf(1, 2, 3));
+        View first = plainView.getChildAt(0);
+        adapter.swapCursor(cursorOf(3, 1));
+
+        assertEquals(2, plainView.getChildCount());
+        assertNotSame(first, plainView.getChildAt(1));
+        assertEquals("3", ((TextView) plainView.getChildAt(0)).getText().toString());
+        assertEquals("1", ((TextView) plainView.getChildAt(1)).getText().toString());
+    }
+
+    private View[] childViews() {
+        View[] views = new View[listView.getChildCount()];
+
+        for (int i = 0; i < views.length; i++) {
+            views[i] = listView.getChildAt(i);
+        }
+
+        return views;
+    }
+
+    private void assertTexts(long... ids) {
+        assertEquals(ids.length, listView.getChildCount());
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(String.valueOf(ids[i]), ((TextView) listView.getChildAt(i)).getText().toString());
+        }
+    }
+
+    private static Cursor cursorOf(long... ids) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+
+        for (long id : ids) {
+            cursor.addRow(new Object[] { id });
+        }
+
+        return cursor;
+    }
+
+    private static Cursor cursorOf(List<Long> ids) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+
+        for (Long id : ids) {
+            cursor.addRow(new Object[] { id });
+        }
+
+        return cursor;
+    }
+
+    /**
+     * A FullCursorView that implements the base interface only.
+     */
+    private static class PlainView extends LinearLayout implements FullCursorView {
+
+        private OnItemClickListener onItemClickListener;
+        private View emptyView;
+
+        public PlainView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public ViewGroup getRoot() {
+            return this;
+        }
+
+        @Override
+        public void addView(View view, int position, long id) {
+            addView(view);
+        }
+
+        @Override
+        public void setAdapter(FullCursorAdapter adapter) {
+            adapter.setTargetView(this);
+        }
+
+        @Override
+        public void setOnItemClickListener(OnItemClickListener listener) {
+            onItemClickListener = listener;
+        }
+
+        @Override
+        public OnItemClickListener getOnItemClickListener() {
+            return onItemClickListener;
+        }
+
+        @Override
+        public View getEmptyView() {
+            return emptyView;
+        }
+
+        @Override
+        public void setEmptyView(View view) {
+            emptyView = view;
+        }
+
+        @Override
+        public void onViewRebuilt() {
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FullCursorListViewTest {
+
+    private static final int ROW_HEIGHT = 20;
+
+    private FullCursorListView listView;
+    private FullCursorAdapter adapter;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        listView = new FullCursorListView(context);
+        listView.setOrientation(LinearLayout.VERTICAL);
+        adapter = new FullCursorAdapter(context) {
+            @Override
+            protected View createView(Cursor cursor, ViewGroup root) {
+                return new RowView(root.getContext());
+            }
+
+            @Override
+            protected void bindView(Cursor cursor, View view) {
+            }
+
+            @Override
+            public long getItemContentVersion(Cursor cursor) {
+                return 1;
+            }
+        };
+        listView.setAdapter(adapter);
+        adapter.setDiffRebuildEnabled(true);
+    }
+
+    @Test
+    public void insertionAboveKeepsCachedRows() {
+        adapter.swapCursor(cursorOf(1, 2, 3, 4, 5));
+        layout();
+        resetMeasureCounts();
+
+        adapter.swapCursor(cursorOf(0, 1, 2, 3, 4, 5));
+        layout();
+
+        assertEquals(6, listView.getChildCount());
+        assertEquals(1, measureCount(0));
+
+        for (int i = 1; i < 6; i++) {
+            assertEquals(0, measureCount(i));
+        }
+
+        assertEquals(6 * ROW_HEIGHT, listView.getMeasuredHeight());
+    }
+
+    @Test
+    public void rowRequestingLayoutIsMeasuredAgain() {
+        adapter.swapCursor(cursorOf(1, 2, 3));
+        layout();
+        resetMeasureCounts();
+
+        listView.getChildAt(1).requestLayout();
+        layout();
+
+        assertEquals(0, measureCount(0));
+        assertEquals(1, measureCount(1));
+        assertEquals(0, measureCount(2));
+    }
+
+    private void layout() {
+        listView.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1000, View.MeasureSpec.UNSPECIFIED));
+        listView.layout(0, 0, listView.getMeasuredWidth(), listView.getMeasuredHeight());
+    }
+
+    private void resetMeasureCounts() {
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            ((RowView) listView.getChildAt(i)).measureCount = 0;
+        }
+    }
+
+    private int measureCount(int index) {
+        return ((RowView) listView.getChildAt(index)).measureCount;
+    }
+
+    private static Cursor cursorOf(long... ids) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+
+        for (long id : ids) {
+            cursor.addRow(new Object[] { id });
+        }
+
+        return cursor;
+    }
+
+    /**
+     * A row of a fixed height that counts its measure passes.
+     */
+    private static class RowView extends View {
+
+        private int measureCount;
+
+        public RowView(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            ++measureCount;
+            setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), ROW_HEIGHT);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.furdei.furdroid.components.widget;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+public class MappedPageStoreTest {
+
+    private static final String[] COLUMNS = { "_id", "title", "rating", "icon" };
+    private static final int[] TYPES = { MappedPageStore.TYPE_LONG, MappedPageStore.TYPE_STRING,
+            MappedPageStore.TYPE_DOUBLE, MappedPageStore.TYPE_BLOB };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MappedPageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "feed");
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void committedRowsSurviveReopen() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        appendRows(0, 3);
+        store.commit(true);
+        store.close();
+
+        store = MappedPageStore.open(file);
+
+        assertArrayEquals(COLUMNS, store.getColumnNames());
+        assertEquals(MappedPageStore.TYPE_DOUBLE, store.getColumnType(2));
+        assertEquals(3, store.getRowCount());
+        assertTrue(store.isPartial());
+        checkRows(0, 3);
+    }
+
+    @Test
+    public void rowsAreVisibleOnCommitOnly() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        appendRows(0, 2);
+        assertEquals(0, store.getRowCount());
+
+        store.commit(true);
+        appendRows(2, 2);
+        assertEquals(2, store.getRowCount());
+
+        store.commit(false);
+        assertEquals(4, store.getRowCount());
+        assertFalse(store.isPartial());
+        checkRows(0, 4);
+    }
+
+    @Test
+    public void uncommittedRowsAreDroppedOnReopen() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        appendRows(0, 2);
+        store.commit(true);
+        appendRows(2, 5);
+        store.close();
+
+        store = MappedPageStore.open(file);
+
+        assertEquals(2, store.getRowCount());
+        checkRows(0, 2);
+
+        // the store goes on from the last commit
+        appendRows(2, 1);
+        store.commit(false);
+        assertEquals(3, store.getRowCount());
+        checkRows(0, 3);
+    }
+
+    @Test
+    public void rollbackDropsPendingRows() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        appendRows(0, 2);
+        store.commit(true);
+        appendRows(2, 3);
+        store.beginRow();
+        store.setLong(0, 99);
+
+        store.rollback();
+        appendRows(2, 1);
+        store.commit(false);
+
+        assertEquals(3, store.getRowCount());
+        checkRows(0, 3);
+    }
+
+    @Test
+    public void rowsAreReadAcrossSegments() throws IOException {
+        // a few rows per segment and a single mapped segment of each file
+        store = MappedPageStore.create(file, COLUMNS, TYPES, 256, 1);
+        appendRows(0, 100);
+        store.commit(false);
+        checkRows(0, 100);
+
+        MappedPageStore.Row row = null;
+
+        for (int i = 99; i >= 0; i--) {
+            row = store.readRow(i, row);
+            assertEquals(i, row.getLong(0));
+        }
+    }
+
+    @Test
+    public void nullsAreKept() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        store.beginRow();
+        store.setLong(0, 7);
+        store.endRow();
+        store.commit(false);
+
+        MappedPageStore.Row row = store.readRow(0, null);
+
+        assertFalse(row.isNull(0));
+        assertTrue(row.isNull(1));
+        assertNull(row.getString(1));
+        assertNull(row.getBlob(3));
+        assertEquals(0, row.getDouble(2), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedStoreCantBeRead() throws IOException {
+        store = MappedPageStore.create(file, COLUMNS, TYPES);
+        appendRows(0, 1);
+        store.commit(false);
+        store.close();
+        store.readRow(0, null);
+    }
+
+    private void appendRows(int first, int count) {
+        for (int id = first; id < first + count; id++) {
+            store.beginRow();
+            store.setLong(0, id);
+            store.setString(1, "Row " + id);
+            store.setDouble(2, id / 2.0);
+            store.setBlob(3, new byte[] { (byte) id, (byte) (id >> 8) });
+            store.endRow();
+        }
+    }
+
+    private void checkRows(int first, int count) throws IOException {
+        MappedPageStore.Row row = null;
+
+        for (int id = first; id < first + count; id++) {
+            row = store.readRow(id, row);
+            assertEquals(id, row.getLong(0));
+            assertEquals("Row " + id, row.getString(1));
+            assertEquals(id / 2.0, row.getDouble(2), 0);
+            assertArrayEquals(new byte[] { (byte) id, (byte) (id >> 8) }, row.getBlob(3));
+        }
+    }
+}
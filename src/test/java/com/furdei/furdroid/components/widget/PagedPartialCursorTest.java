@@ -0,0 +1,127 @@
+package com.furdei.furdroid.components.widget;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PagedPartialCursorTest {
+
+    private static final String[] COLUMNS = { "_id", "title" };
+
+    @Test
+    public void appendedPageIsVisibleInNewCursorOnly() {
+        PagedPartialCursor empty = new PagedPartialCursor(COLUMNS);
+        PagedPartialCursor first = empty.appendPage(page(0, 3), true);
+        PagedPartialCursor second = first.appendPage(page(3, 2), false);
+
+        assertEquals(0, empty.getCount());
+        assertEquals(3, first.getCount());
+        assertEquals(1, first.getPageCount());
+        assertTrue(first.isCursorPartial());
+        assertEquals(5, second.getCount());
+        assertEquals(2, second.getPageCount());
+        assertFalse(second.isCursorPartial());
+        assertArrayEquals(COLUMNS, second.getColumnNames());
+        checkRows(first, 3);
+        checkRows(second, 5);
+    }
+
+    @Test
+    public void rowsAreFoundAcrossManyPages() {
+        PagedPartialCursor cursor = new PagedPartialCursor(COLUMNS);
+
+        for (int i = 0; i < 50; i++) {
+            cursor = cursor.appendPage(page(i * 7, 7), true);
+        }
+
+        checkRows(cursor, 350);
+
+        // backwards as well, the position is mapped to a page on every move
+        for (int id = 349; id >= 0; id -= 13) {
+            assertTrue(cursor.moveToPosition(id));
+            assertEquals(id, cursor.getLong(0));
+        }
+    }
+
+    @Test
+    public void emptyPagesAreSkipped() {
+        PagedPartialCursor cursor = new PagedPartialCursor(new Cursor[] {
+                page(0, 0), page(0, 2), page(2, 0), null, page(2, 0), page(2, 3), page(5, 0) }, false);
+
+        assertEquals(6, cursor.getPageCount());
+        checkRows(cursor, 5);
+        assertFalse(cursor.moveToPosition(5));
+    }
+
+    @Test
+    public void columnsAreTakenFromFirstPage() {
+        PagedPartialCursor cursor = new PagedPartialCursor(new Cursor[] { null, page(0, 2) }, true);
+
+        assertArrayEquals(COLUMNS, cursor.getColumnNames());
+        assertEquals(1, cursor.getPageCount());
+        checkRows(cursor, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noPagesAreRejected() {
+        new PagedPartialCursor(new Cursor[] { null }, true);
+    }
+
+    @Test
+    public void latestCursorOwnsPages() {
+        Cursor firstPage = page(0, 2);
+        Cursor secondPage = page(2, 2);
+        PagedPartialCursor first = new PagedPartialCursor(COLUMNS).appendPage(firstPage, true);
+        PagedPartialCursor second = first.appendPage(secondPage, false);
+
+        // the superseded cursor leaves the pages to the latest one
+        first.close();
+        assertFalse(firstPage.isClosed());
+        checkRows(second, 4);
+
+        second.close();
+        assertTrue(firstPage.isClosed());
+        assertTrue(secondPage.isClosed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedCursorCantAppend() {
+        PagedPartialCursor cursor = new PagedPartialCursor(COLUMNS).appendPage(page(0, 1), true);
+        cursor.close();
+        cursor.appendPage(page(1, 1), false);
+    }
+
+    private static Cursor page(int first, int count) {
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+
+        for (int id = first; id < first + count; id++) {
+            page.addRow(new Object[] { id, "Row " + id });
+        }
+
+        return page;
+    }
+
+    private static void checkRows(Cursor cursor, int count) {
+        assertEquals(count, cursor.getCount());
+
+        for (int id = 0; id < count; id++) {
+            assertTrue(cursor.moveToPosition(id));
+            assertEquals(id, cursor.getLong(0));
+            assertEquals("Row " + id, cursor.getString(1));
+        }
+    }
+}
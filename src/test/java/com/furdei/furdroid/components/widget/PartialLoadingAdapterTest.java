@@ -0,0 +1,513 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.widget.CursorAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.FrameLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PartialLoadingAdapterTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int ROW_HEIGHT = 20;
+
+    /**
+     * Runs background tasks when the test says so, in any order.
+     */
+    private static class QueuedExecutor implements Executor {
+        private final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void run(int index) {
+            tasks.remove(index).run();
+            ShadowLooper.idleMainLooper();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                run(0);
+            }
+        }
+
+        int size() {
+            return tasks.size();
+        }
+    }
+
+    private final QueuedExecutor executor = new QueuedExecutor();
+    private PartialLoadingAdapter adapter;
+    // pages failing on their next load
+    private final ArrayList<Integer> failingPages = new ArrayList<Integer>();
+    private final ArrayList<LoadMetrics> reportedMetrics = new ArrayList<LoadMetrics>();
+    private int portionRequests;
+    // queries of the filtering mode as "constraint@loadedCount"
+    private final ArrayList<String> queries = new ArrayList<String>();
+    private final ArrayList<String> failingQueries = new ArrayList<String>();
+    private final Map<String, Cursor> queryResults = new HashMap<String, Cursor>();
+
+    // the source of filtered rows, a0..a24 and b0..b4
+    private final PartialLoadingAdapter.FilterQuery filterQuery = new PartialLoadingAdapter.FilterQuery() {
+        @Override
+        public Cursor runQuery(CharSequence constraint, int loadedCount, PartialLoadingAdapter.FilterRequest request) {
+            String query = constraint + "@" + loadedCount;
+            queries.add(query);
+
+            if (failingQueries.remove(query))
+                throw new IllegalStateException(query);
+
+            MatrixCursor cursor = new MatrixCursor(new String[] { "_id", "name" });
+            int matched = 0;
+
+            for (int id = 0; id < 30; id++) {
+                String name = (id < 25 ? "a" + id : "b" + (id - 25));
+
+                if (name.startsWith(constraint.toString()) && matched++ < loadedCount + PAGE_SIZE) {
+                    cursor.addRow(new Object[] { id, name });
+                }
+            }
+
+            queryResults.put(query, cursor);
+            return new PagedPartialCursor(new Cursor[] { cursor }, matched > cursor.getCount());
+        }
+    };
+
+    private final PartialLoadingAdapter.RowMatcher rowMatcher = new PartialLoadingAdapter.RowMatcher() {
+        @Override
+        public boolean matches(Cursor cursor, CharSequence constraint) {
+            return cursor.getString(1).startsWith(constraint.toString());
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        CursorAdapter cursorAdapter = new CursorAdapter(context, null, 0) {
+            @Override
+            public View newView(Context context, Cursor cursor, ViewGroup parent) {
+                TextView view = new TextView(context);
+                view.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ROW_HEIGHT));
+                return view;
+            }
+
+            @Override
+            public void bindView(View view, Context context, Cursor cursor) {
+                ((TextView) view).setText(cursor.getString(0));
+            }
+        };
+        adapter = new PartialLoadingAdapter(cursorAdapter, new PartialLoadingAdapter.PartialLoadingListener() {
+            @Override
+            public void loadNextPortionOfData() {
+                ++portionRequests;
+            }
+        }, new View(context));
+        adapter.setExecutor(executor);
+        adapter.setRetryPolicy(1000, 1000, 5);
+    }
+
+    @Test
+    public void siblingPageDoesNotEndFailure() {
+        adapter.setPageLoader(new PartialLoadingAdapter.PageLoader() {
+            @Override
+            public Cursor loadPage(int pageIndex, int pageSize) {
+                if (failingPages.remove(Integer.valueOf(pageIndex)))
+                    throw new IllegalStateException("page " + pageIndex);
+
+                return rows(pageIndex * pageSize, pageSize);
+            }
+        }, PAGE_SIZE, 2);
+        failingPages.add(1);
+        adapter.swapCursor(new PagedPartialCursor(new String[] { "_id" }));
+        assertEquals(2, executor.size());
+
+        // page 1 fails, then page 0 arrives and is shown
+        executor.run(1);
+        executor.run(0);
+
+        assertEquals(PAGE_SIZE + 1, adapter.getCount());
+        assertTrue(adapter.isLoadFailed());
+        assertEquals(1, adapter.getConsecutiveFailures());
+        assertNotNull(adapter.getLastLoadError());
+
+        // the retry loads page 1 again and ends the failure
+        ShadowLooper.idleMainLooper(1000);
+        executor.runAll();
+
+        assertFalse(adapter.isLoadFailed());
+        assertEquals(0, adapter.getConsecutiveFailures());
+        assertNull(adapter.getLastLoadError());
+        assertTrue(adapter.getCount() > 2 * PAGE_SIZE);
+    }
+
+    @Test
+    public void windowKeepsPagesAndVisibleRowWhenScrolled() {
+        // the viewport and the thresholds on both sides fit into 3 pages
+        adapter.setCursorPositionLoadingThreshold(5);
+        ListView listView = createWindowedList();
+
+        // down to the last page and back up to the first one, in steps shorter than the
+        // threshold like a drag does
+        for (int id = 0; id < 200; id += 3) {
+            scrollTo(listView, id, 3);
+        }
+
+        // the pages above the viewport have been evicted
+        assertTrue(listView.getFirstVisiblePosition() < 190);
+
+        for (int id = 199; id >= 0; id -= 3) {
+            scrollTo(listView, id, 3);
+        }
+
+        scrollTo(listView, 0, 3);
+        assertEquals(0, listView.getFirstVisiblePosition());
+    }
+
+    @Test
+    public void pagesWithinThresholdAreNotEvicted() {
+        // the default threshold is longer than a page, so up to 2 pages on each side of the
+        // viewport are within the threshold and the pages don't keep loading and evicting
+        ListView listView = createWindowedList();
+
+        for (int id = 0; id < 200; id += 7) {
+            scrollTo(listView, id, 6);
+        }
+
+        for (int id = 199; id >= 0; id -= 7) {
+            scrollTo(listView, id, 6);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void placeholderModeRejectsSeveralViewTypes() {
+        Context context = RuntimeEnvironment.application;
+        CursorAdapter cursorAdapter = new CursorAdapter(context, null, 0) {
+            @Override
+            public int getViewTypeCount() {
+                return 2;
+            }
+
+            @Override
+            public View newView(Context context, Cursor cursor, ViewGroup parent) {
+                return new TextView(context);
+            }
+
+            @Override
+            public void bindView(View view, Context context, Cursor cursor) {
+            }
+        };
+        adapter = new PartialLoadingAdapter(cursorAdapter, new PartialLoadingAdapter.PartialLoadingListener() {
+            @Override
+            public void loadNextPortionOfData() {
+            }
+        }, new View(context));
+
+        adapter.setPlaceholderMode(new PartialLoadingAdapter.PageLoader() {
+            @Override
+            public Cursor loadPage(int pageIndex, int pageSize) {
+                return null;
+            }
+        }, PAGE_SIZE, 100, 3, 0);
+    }
+
+    @Test
+    public void unrelatedSwapIsNotReportedAsLoad() {
+        adapter.setOnLoadMetricsListener(new PartialLoadingAdapter.OnLoadMetricsListener() {
+            @Override
+            public void onLoadMetrics(PartialLoadingAdapter adapter, LoadMetrics metrics) {
+                reportedMetrics.add(metrics);
+            }
+        });
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, PAGE_SIZE) }, true));
+        executor.runAll();
+        assertEquals(1, portionRequests);
+
+        // a refresh of the same rows doesn't deliver the requested portion
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, PAGE_SIZE) }, true));
+        executor.runAll();
+        assertTrue(reportedMetrics.isEmpty());
+
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, 2 * PAGE_SIZE) }, false));
+
+        assertEquals(1, reportedMetrics.size());
+        assertEquals(PAGE_SIZE, reportedMetrics.get(0).getRowsLoaded());
+        assertFalse(reportedMetrics.get(0).isFailed());
+    }
+
+    @Test
+    public void newConstraintCancelsPreviousQuery() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("a");
+        adapter.filter("b");
+        executor.runAll();
+
+        assertEquals(1, queries.size());
+        assertEquals("b@0", queries.get(0));
+        assertEquals("b", adapter.getFilterConstraint());
+        assertEquals(5, adapter.getCount());
+    }
+
+    @Test
+    public void constraintIsReportedOnceShown() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("b");
+        executor.runAll();
+        adapter.filter("a");
+
+        assertEquals("b", adapter.getFilterConstraint());
+
+        executor.runAll();
+        assertEquals("a", adapter.getFilterConstraint());
+    }
+
+    @Test
+    public void shownResultWaitsForQueryInFlight() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("a");
+        executor.runAll();
+        assertEquals("a@10", queries.get(queries.size() - 1));
+        assertEquals(2 * PAGE_SIZE + 1, adapter.getCount());
+
+        // scrolling down the shown result while the next constraint is running
+        adapter.filter("b");
+        ViewGroup parent = new FrameLayout(RuntimeEnvironment.application);
+
+        for (int i = 0; i < 3; i++) {
+            adapter.getView(2 * PAGE_SIZE - 1, null, parent);
+        }
+
+        executor.runAll();
+
+        assertEquals("b@0", queries.get(queries.size() - 1));
+        assertFalse(queries.contains("b@20"));
+        assertEquals("b", adapter.getFilterConstraint());
+        assertEquals(5, adapter.getCount());
+    }
+
+    @Test
+    public void extendedConstraintIsNarrowedWithoutQuery() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("b");
+        executor.runAll();
+        adapter.filter("b1");
+        executor.runAll();
+
+        assertEquals(1, queries.size());
+        assertEquals("b1", adapter.getFilterConstraint());
+        assertEquals(1, adapter.getCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedResultIsEvicted() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 2);
+        adapter.filter("b0");
+        executor.runAll();
+        adapter.filter("b1");
+        executor.runAll();
+
+        // a cached result is shown right away
+        adapter.filter("b0");
+        assertEquals(0, executor.size());
+        assertEquals("b0", adapter.getFilterConstraint());
+
+        adapter.filter("b2");
+        executor.runAll();
+        assertTrue(queryResults.get("b1@0").isClosed());
+        assertFalse(queryResults.get("b0@0").isClosed());
+
+        adapter.filter("b0");
+        assertEquals(0, executor.size());
+        adapter.filter("b1");
+        assertEquals(1, executor.size());
+    }
+
+    @Test
+    public void failedConstraintLeavesShownResultLoading() {
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("a");
+        executor.run(0);
+        // the next portion of "a" is requested right away
+        assertEquals(1, executor.size());
+
+        failingQueries.add("b@0");
+        adapter.filter("b");
+        executor.run(0);
+        executor.run(0);
+
+        assertEquals("a", adapter.getFilterConstraint());
+        assertFalse(adapter.isLoadFailed());
+        assertEquals(0, adapter.getConsecutiveFailures());
+        assertNotNull(adapter.getLastLoadError());
+
+        // the next portion cancelled by "b" is requested again
+        assertEquals(1, executor.size());
+        executor.runAll();
+        assertEquals("a@10", queries.get(queries.size() - 1));
+        assertEquals(2 * PAGE_SIZE + 1, adapter.getCount());
+    }
+
+    @Test
+    public void filteredResultResetsLoadingState() {
+        adapter.setMinLoadIntervalMillis(1000);
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, PAGE_SIZE) }, true));
+        executor.runAll();
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, PAGE_SIZE + 2) }, true));
+        // the next portion waits for the rate limit
+        assertEquals(0, executor.size());
+        assertEquals(1, portionRequests);
+
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("b");
+        executor.runAll();
+        ShadowLooper.idleMainLooper(1000);
+        executor.runAll();
+
+        assertEquals(1, portionRequests);
+        assertEquals(0, adapter.getPendingLoadCount());
+        assertEquals(5, adapter.getCount());
+    }
+
+    @Test
+    public void filteredResultClearsPendingPortions() {
+        adapter.swapCursor(new PagedPartialCursor(new Cursor[] { rows(0, PAGE_SIZE) }, true));
+        assertEquals(1, adapter.getPendingLoadCount());
+
+        adapter.setFilterMode(filterQuery, rowMatcher, 4);
+        adapter.filter("b");
+        executor.run(1);
+
+        assertEquals(0, adapter.getPendingLoadCount());
+    }
+
+    private ListView createWindowedList() {
+        Context context = RuntimeEnvironment.application;
+        ListView listView = new ListView(context);
+        listView.setAdapter(adapter);
+        adapter.setHeadLoadingView(new View(context));
+        adapter.setWindowedMode(listView, 3);
+        adapter.setPageLoader(new PartialLoadingAdapter.PageLoader() {
+            @Override
+            public Cursor loadPage(int pageIndex, int pageSize) {
+                // 20 pages of data
+                return rows(pageIndex * pageSize, pageIndex < 20 ? pageSize : 0);
+            }
+        }, PAGE_SIZE, 2);
+        adapter.swapCursor(new PagedPartialCursor(new String[] { "_id" }));
+        executor.runAll();
+        layout(listView);
+        return listView;
+    }
+
+    /**
+     * Scrolls the row with the id to the top of the list, lets the pages load and checks that
+     * the first visible row stays in place and the window keeps no more than maxPages pages.
+     */
+    private void scrollTo(ListView listView, long id, int maxPages) {
+        int position = findPosition(id);
+        assertTrue("row " + id + " is not in the window", position >= 0);
+        scrollListTo(listView, position);
+        // the list doesn't scroll past the end of the loaded rows, and then it settles by itself
+        // as the next pages arrive
+        boolean pinned = adapter.getItemId(listView.getFirstVisiblePosition()) != id;
+
+        for (int round = 0; executor.size() > 0; round++) {
+            assertTrue("pages keep loading at row " + id + ", count " + adapter.getCount(), round < 50);
+            executor.run(0);
+            layout(listView);
+            int loadedRows = 0;
+
+            for (int i = 0; i < adapter.getCount(); i++) {
+                if (adapter.getItemId(i) >= 0) {
+                    ++loadedRows;
+                }
+            }
+
+            assertTrue(loadedRows <= maxPages * PAGE_SIZE);
+
+            if (!pinned) {
+                assertEquals(id, adapter.getItemId(listView.getFirstVisiblePosition()));
+                assertEquals(0, listView.getChildAt(0).getTop());
+            }
+        }
+    }
+
+    /**
+     * Scrolls the list the way a drag does, so that the list has no selected item to keep.
+     */
+    private static void scrollListTo(ListView listView, int position) {
+        for (int i = 0; i < 100; i++) {
+            int distance = (position - listView.getFirstVisiblePosition()) * ROW_HEIGHT
+                    + listView.getChildAt(0).getTop();
+
+            if (distance == 0)
+                return;
+
+            // the list moves its content the other way
+            int delta = distance > 0 ? -Math.min(distance, ROW_HEIGHT) : Math.min(-distance, ROW_HEIGHT);
+            boolean stopped = ReflectionHelpers.callInstanceMethod(listView, "trackMotionScroll",
+                    ReflectionHelpers.ClassParameter.from(int.class, delta),
+                    ReflectionHelpers.ClassParameter.from(int.class, delta));
+            layout(listView);
+
+            if (stopped)
+                return;
+        }
+    }
+
+    private int findPosition(long id) {
+        for (int i = 0; i < adapter.getCount(); i++) {
+            if (adapter.getItemId(i) == id)
+                return i;
+        }
+
+        return -1;
+    }
+
+    private static void layout(ListView listView) {
+        listView.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(5 * ROW_HEIGHT, View.MeasureSpec.EXACTLY));
+        listView.layout(0, 0, 100, 5 * ROW_HEIGHT);
+    }
+
+    private static Cursor rows(int first, int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+
+        for (int id = first; id < first + count; id++) {
+            cursor.addRow(new Object[] { id });
+        }
+
+        return cursor;
+    }
+}
@@ -0,0 +1,103 @@
+package com.furdei.furdroid.components.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+public class PercentileHistogramTest {
+
+    private PercentileHistogram histogram;
+
+    @Before
+    public void setUp() {
+        histogram = new PercentileHistogram();
+    }
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void smallValuesAreCountedExactly() {
+        for (int value = 31; value >= 0; value--) {
+            histogram.record(value);
+        }
+
+        assertEquals(32, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(31, histogram.getMax());
+        assertEquals(15.5, histogram.getMean(), 1e-9);
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(28, histogram.getPercentile(90));
+        assertEquals(31, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void largeValuesAreWithinRelativeError() {
+        int count = 100000;
+
+        for (int value = 1; value <= count; value++) {
+            histogram.record(value);
+        }
+
+        double[] percentiles = {1, 25, 50, 90, 99, 99.9};
+
+        for (double percentile : percentiles) {
+            long exact = (long) Math.ceil(percentile / 100 * count);
+            long reported = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " > " + exact, reported <= exact * 1.07);
+        }
+
+        assertEquals(count, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreClampedToRecordedRange() {
+        histogram.record(5);
+        histogram.record(1000);
+
+        assertEquals(5, histogram.getPercentile(0));
+        assertEquals(5, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(51));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesAreCountedAsZero() {
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void resetDropsAllValues() {
+        histogram.record(7);
+        histogram.record(Long.MAX_VALUE);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        histogram.record(3);
+        assertEquals(3, histogram.getMin());
+        assertEquals(3, histogram.getPercentile(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileAboveHundredIsRejected() {
+        histogram.getPercentile(100.5);
+    }
+}
@@ -0,0 +1,76 @@
+package com.furdei.furdroid.components.widget;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+public class RebuildMetricsAggregatorTest {
+
+    private RebuildMetricsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        aggregator = new RebuildMetricsAggregator();
+    }
+
+    @Test
+    public void timesAreRecordedInMicroseconds() {
+        aggregator.onRebuildMetrics(null, metrics(10, 2000000, 25000));
+        aggregator.onRebuildMetrics(null, metrics(20, 3000000, 5000));
+
+        assertEquals(2, aggregator.getTotalTimes().getCount());
+        assertEquals(2000, aggregator.getTraversalTimes().getMin());
+        assertEquals(3000, aggregator.getTraversalTimes().getMax());
+        assertEquals(25, aggregator.getLayoutTimes().getMax());
+        assertEquals(5, aggregator.getLayoutTimes().getMin());
+        assertEquals(15, aggregator.getRowCounts().getMean(), 1e-9);
+    }
+
+    @Test
+    public void viewCountersAreSummed() {
+        aggregator.onRebuildMetrics(null, metrics(10, 0, 0));
+        aggregator.onRebuildMetrics(null, metrics(20, 0, 0));
+
+        assertEquals(3, aggregator.getViewsCreated());
+        assertEquals(6, aggregator.getViewsRecycled());
+        assertEquals(9, aggregator.getViewsKept());
+    }
+
+    @Test
+    public void resetDropsEverything() {
+        aggregator.onRebuildMetrics(null, metrics(10, 1000, 1000));
+        aggregator.reset();
+
+        assertEquals(0, aggregator.getTotalTimes().getCount());
+        assertEquals(0, aggregator.getRowCounts().getCount());
+        assertEquals(0, aggregator.getViewsCreated());
+        assertTrue(aggregator.dump().startsWith("rebuilds: 0\n"));
+    }
+
+    @Test
+    public void dumpHasLinePerHistogram() {
+        aggregator.onRebuildMetrics(null, metrics(10, 1000, 1000));
+        String dump = aggregator.dump();
+
+        assertTrue(dump.startsWith("rebuilds: 1\n"));
+        assertTrue(dump.contains("views created/recycled/kept: 1/2/3\n"));
+        assertEquals(9, dump.split("\n").length);
+    }
+
+    private static RebuildMetrics metrics(int rowCount, long traversalNanos, long layoutNanos) {
+        RebuildMetrics metrics = new RebuildMetrics(false);
+        metrics.rowCount = rowCount;
+        metrics.viewsCreated = rowCount / 10;
+        metrics.viewsRecycled = rowCount / 10 * 2;
+        metrics.viewsKept = rowCount / 10 * 3;
+        metrics.traversalNanos = traversalNanos;
+        metrics.layoutNanos = layoutNanos;
+        metrics.totalNanos = traversalNanos + layoutNanos;
+        return metrics;
+    }
+}
@@ -0,0 +1,89 @@
+package com.furdei.furdroid.components.widget;
+
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ScrapHeapTest {
+
+    private ScrapHeap heap;
+
+    @Before
+    public void setUp() {
+        heap = new ScrapHeap();
+    }
+
+    @Test
+    public void viewsAreReturnedByType() {
+        View first = newView();
+        View second = newView();
+        heap.addScrapView(first, 0);
+        heap.addScrapView(second, 1);
+
+        assertNull(heap.getScrapView(2));
+        assertSame(second, heap.getScrapView(1));
+        assertNull(heap.getScrapView(1));
+        assertSame(first, heap.getScrapView(0));
+    }
+
+    @Test
+    public void ignoredViewTypeIsNotKept() {
+        assertFalse(heap.addScrapView(newView(), -1));
+        assertNull(heap.getScrapView(-1));
+    }
+
+    @Test
+    public void limitIsAppliedPerType() {
+        heap.setMaxScrapViews(0, 2);
+
+        assertTrue(heap.addScrapView(newView(), 0));
+        assertTrue(heap.addScrapView(newView(), 0));
+        assertFalse(heap.addScrapView(newView(), 0));
+        assertEquals(2, heap.getScrapViewCount(0));
+
+        for (int i = 0; i < ScrapHeap.DEFAULT_MAX_SCRAP_VIEWS; i++) {
+            assertTrue(heap.addScrapView(newView(), 1));
+        }
+
+        assertFalse(heap.addScrapView(newView(), 1));
+    }
+
+    @Test
+    public void loweringLimitTrimsHeap() {
+        for (int i = 0; i < 5; i++) {
+            heap.addScrapView(newView(), 0);
+            heap.addScrapView(newView(), 1);
+        }
+
+        heap.setMaxScrapViews(0, 1);
+        assertEquals(1, heap.getScrapViewCount(0));
+        assertEquals(5, heap.getScrapViewCount(1));
+
+        heap.setDefaultMaxScrapViews(3);
+        assertEquals(1, heap.getScrapViewCount(0));
+        assertEquals(3, heap.getScrapViewCount(1));
+
+        heap.clear();
+        assertEquals(0, heap.getScrapViewCount(1));
+    }
+
+    private static View newView() {
+        return new View(RuntimeEnvironment.application);
+    }
+}
@@ -0,0 +1,207 @@
+package com.furdei.furdroid.components.widget;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Stepan Furdey
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class VirtualFullCursorListViewTest {
+
+    // the default estimated row height, so the layout doesn't change when rows get measured
+    private static final int ROW_HEIGHT = 48;
+
+    private FrameLayout root;
+    private ScrollView scrollView;
+    private VirtualFullCursorListView listView;
+    private FullCursorAdapter adapter;
+    private int createdViews;
+    private int convertViews;
+    private int rowHeight = ROW_HEIGHT;
+    // makes every third row twice as high and leaves out the placeholders
+    private boolean mixedHeights;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        scrollView = new ScrollView(context);
+        listView = new VirtualFullCursorListView(context);
+        listView.setViewportMargin(0);
+        listView.setMaxScrapViews(0, 100);
+        scrollView.addView(listView);
+        root = new FrameLayout(context);
+        root.addView(scrollView);
+
+        adapter = new FullCursorAdapter(context) {
+            @Override
+            protected View createView(Cursor cursor, View convertView, ViewGroup root) {
+                if (!mixedHeights && cursor.getLong(0) % 5 == 0)
+                    return null;
+
+                if (convertView != null) {
+                    // a placeholder would break this cast
+                    assertTrue(convertView instanceof TextView);
+                    ++convertViews;
+                    convertView.getLayoutParams().height = getRowHeight(cursor.getLong(0));
+                    return convertView;
+                }
+
+                ++createdViews;
+                TextView view = new TextView(root.getContext());
+                view.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        getRowHeight(cursor.getLong(0))));
+                return view;
+            }
+
+            @Override
+            protected View createView(Cursor cursor, ViewGroup root) {
+                throw new AssertionError();
+            }
+
+            @Override
+            protected void bindView(Cursor cursor, View view) {
+                ((TextView) view).setText(cursor.getString(0));
+            }
+        };
+        listView.setAdapter(adapter);
+        adapter.swapCursor(cursorOf(0, 200));
+        layout();
+    }
+
+    @Test
+    public void viewsAreRecycledWhileScrolling() {
+        int initialViews = createdViews;
+        assertTrue(initialViews > 0);
+        assertTrue(listView.getChildCount() < 200);
+
+        for (int y = 0; y < 100 * ROW_HEIGHT; y += ROW_HEIGHT * 3) {
+            scrollTo(y);
+        }
+
+        assertTrue(convertViews > 0);
+        assertTrue(createdViews < initialViews * 3);
+        assertTrue(listView.getChildCount() < 30);
+    }
+
+    @Test
+    public void clicksReportRowPositions() {
+        final long[] clicked = new long[2];
+        listView.setOnItemClickListener(new FullCursorView.OnItemClickListener() {
+            @Override
+            public void onItemClick(FullCursorView parent, View view, int position, long id) {
+                clicked[0] = position;
+                clicked[1] = id;
+            }
+        });
+        scrollTo(ROW_HEIGHT * 101);
+
+        View child = listView.getChildAt(0);
+        child.performClick();
+
+        assertEquals(clicked[1], clicked[0]);
+        assertEquals(((TextView) child).getText().toString(), String.valueOf(clicked[1]));
+        assertTrue(clicked[0] > 90);
+    }
+
+    @Test
+    public void scrapViewsSurviveCursorChange() {
+        int initialViews = createdViews;
+
+        adapter.swapCursor(cursorOf(0, 200));
+        layout();
+
+        assertEquals(initialViews, createdViews);
+        assertTrue(convertViews > 0);
+    }
+
+    @Test
+    public void measuredRowsUpdateContentHeight() {
+        rowHeight = 2 * ROW_HEIGHT;
+        adapter.swapCursor(cursorOf(0, 200));
+        ShadowLooper.pauseMainLooper();
+        layout();
+
+        // the rows measured during the layout make the estimated height out of date
+        assertEquals(200 * ROW_HEIGHT, listView.getMeasuredHeight());
+        ShadowLooper.unPauseMainLooper();
+        assertTrue(listView.isLayoutRequested());
+
+        layout();
+        assertEquals(200 * rowHeight, listView.getMeasuredHeight());
+    }
+
+    @Test
+    public void rowsOfMixedHeightsAreStacked() {
+        mixedHeights = true;
+        adapter.swapCursor(cursorOf(0, 200));
+        layout();
+
+        for (int y = 0; y < 100 * ROW_HEIGHT; y += ROW_HEIGHT * 7) {
+            scrollTo(y);
+
+            // the rows measured during a layout change the estimated height of the others
+            for (int i = 0; i < 3; i++) {
+                listView.requestLayout();
+                layout();
+            }
+
+            View first = listView.getChildAt(0);
+            View last = listView.getChildAt(listView.getChildCount() - 1);
+            assertTrue(first.getTop() <= y);
+            assertTrue(last.getBottom() >= y + 800);
+
+            for (int i = 1; i < listView.getChildCount(); i++) {
+                assertEquals(listView.getChildAt(i - 1).getBottom(), listView.getChildAt(i).getTop());
+            }
+        }
+    }
+
+    private int getRowHeight(long id) {
+        return mixedHeights && id % 3 == 0 ? 2 * rowHeight : rowHeight;
+    }
+
+    private void scrollTo(int y) {
+        // Robolectric doesn't move the real scroll position, and the scroll listener of the
+        // list works only in a window
+        ReflectionHelpers.setField(scrollView, "mScrollY", y);
+        listView.requestLayout();
+        layout();
+    }
+
+    private void layout() {
+        // the root clips the visible rect of the scroll view
+        root.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, 480, 800);
+    }
+
+    private static Cursor cursorOf(long from, long to) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+
+        for (long id = from; id < to; id++) {
+            cursor.addRow(new Object[] { id });
+        }
+
+        return cursor;
+    }
+}